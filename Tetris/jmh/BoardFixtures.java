@@ -0,0 +1,292 @@
+import java.util.Random;
+
+import tetris.jmh.BoardOperations;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * BoardFixtures class:
+ * The board and piece operations measured by the JMH benchmarks, and the board fixtures
+ * they are run on: empty, half-filled and near top out boards of the default size, and a
+ * 40x100 half-filled board. Every fixture is built from a fixed seed so each run measures
+ * the same boards. Lives in the default package beside the game so the benchmarks in
+ * tetris.jmh can reach it through BoardOperations.
+ */
+public class BoardFixtures implements BoardOperations {
+    /**
+     * Names of the board fixtures, as accepted by setUp.
+     */
+    private static final String[] FIXTURE_NAMES = { "empty", "half-filled", "near-topout", "40x100 half-filled" };
+    /**
+     * Number of columns of each fixture.
+     */
+    private static final int[] FIXTURE_WIDTHS = { TetrisBoard.DEFAULT_GRID_WIDTH, TetrisBoard.DEFAULT_GRID_WIDTH,
+            TetrisBoard.DEFAULT_GRID_WIDTH, 40 };
+    /**
+     * Number of rows of each fixture.
+     */
+    private static final int[] FIXTURE_HEIGHTS = { TetrisBoard.DEFAULT_GRID_HEIGHT, TetrisBoard.DEFAULT_GRID_HEIGHT,
+            TetrisBoard.DEFAULT_GRID_HEIGHT, 100 };
+    /**
+     * Number of rows filled from the bottom of each fixture.
+     */
+    private static final int[] FIXTURE_FILLED_ROWS = { 0, TetrisBoard.DEFAULT_GRID_HEIGHT / 2,
+            TetrisBoard.DEFAULT_GRID_HEIGHT - 3, 50 };
+
+    /**
+     * The board the operations are run on, which is never changed.
+     */
+    private TetrisBoard fixture;
+    /**
+     * Copy of the fixture that pieces are locked in to.
+     */
+    private TetrisBoard board;
+    /**
+     * T piece landed on the board, for locking in.
+     */
+    private TetrisPiece landedPiece;
+    /**
+     * T piece in the empty space above the fixture, for rotating.
+     */
+    private TetrisPiece floatingPiece;
+    /**
+     * Piece that is reset and dropped for each hard drop, and the current piece of the bot.
+     */
+    private TetrisPiece piece;
+    /**
+     * The next piece of the bot.
+     */
+    private TetrisPiece nextPiece;
+    /**
+     * Shape of the T piece checked against the fixture.
+     */
+    private int[] pieceRowMasks;
+    /**
+     * Size of the T piece checked against the fixture.
+     */
+    private int pieceWidth, pieceHeight;
+    /**
+     * The bot searching placements on the fixture.
+     */
+    private TetrisBot bot;
+    /**
+     * Inputs found by the bot.
+     */
+    private int[] inputs;
+    /**
+     * Board with four rows ready to be cleared by the line piece, which is never changed.
+     */
+    private TetrisBoard lineClearFixture;
+    /**
+     * Copy of the line clear fixture that the line piece is locked in to.
+     */
+    private TetrisBoard lineClearBoard;
+    /**
+     * Vertical line piece landed in the empty first column of the line clear board.
+     */
+    private TetrisPiece linePiece;
+
+    /**
+     * Creates the board fixture and the pieces the operations are run with.
+     *
+     * @param fixtureName Name of the board fixture, one of FIXTURE_NAMES.
+     */
+    @Override
+    public void setUp(String fixtureName) {
+        fixture = createFixture(fixtureName);
+        Position start = new Position(fixture.getGridWidth() / 2, -2);
+        PieceGenerator generator = new UniformPieceGenerator(1);
+
+        piece = new TetrisPiece(start, generator);
+        piece.reset(3);
+        pieceRowMasks = piece.getRowMasks().clone();
+        pieceWidth = piece.getPieceWidth();
+        pieceHeight = piece.getPieceHeight();
+
+        board = new TetrisBoard(fixture.getGridWidth(), fixture.getGridHeight(), fixture.getCellDim());
+        board.copyFrom(fixture);
+        landedPiece = new TetrisPiece(start, generator);
+        landedPiece.reset(3);
+        while(board.isMoveValid(0, 1, landedPiece))
+            landedPiece.move(0, 1);
+
+        floatingPiece = new TetrisPiece(start, generator);
+        floatingPiece.reset(3);
+        floatingPiece.move(0, 3);
+
+        bot = new TetrisBot();
+        nextPiece = new TetrisPiece(start, generator);
+        inputs = new int[TetrisBot.getMaxInputs(fixture)];
+
+        lineClearFixture = createLineClearFixture();
+        lineClearBoard = new TetrisBoard();
+        lineClearBoard.copyFrom(lineClearFixture);
+        linePiece = new TetrisPiece(new Position(0, 0), generator);
+        linePiece.reset(0);
+        linePiece.rotateClockwise(lineClearBoard);
+        while(lineClearBoard.isMoveValid(0, 1, linePiece))
+            linePiece.move(0, 1);
+    }
+
+    /**
+     * Checks whether the T piece fits on the fixture at a position chosen from the index.
+     *
+     * @param i Index used to choose the position.
+     * @return True if the piece fits.
+     */
+    @Override
+    public boolean isValidOnBoard(int i) {
+        int left = i % (fixture.getGridWidth() - pieceWidth + 1);
+        int top = i % (fixture.getGridHeight() - pieceHeight + 1);
+        return fixture.isValidOnBoard(left, top, pieceWidth, pieceHeight, pieceRowMasks);
+    }
+
+    /**
+     * Resets the piece and moves it down the fixture until it lands.
+     *
+     * @param pieceType The type of piece to drop.
+     * @return The number of rows the piece moved.
+     */
+    @Override
+    public int hardDrop(int pieceType) {
+        piece.reset(pieceType);
+        int rows = 0;
+        while(fixture.isMoveValid(0, 1, piece)) {
+            piece.move(0, 1);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Locks the landed T piece in to the copy of the fixture.
+     *
+     * @return The aggregate height of the copy.
+     */
+    @Override
+    public int lockInPiece() {
+        board.lockInPiece(landedPiece);
+        return board.getAggregateHeight();
+    }
+
+    /**
+     * Rotates the floating T piece clockwise.
+     *
+     * @return The rotation of the piece.
+     */
+    @Override
+    public int rotateClockwise() {
+        floatingPiece.rotateClockwise(fixture);
+        return floatingPiece.getRotation();
+    }
+
+    /**
+     * Searches every placement of a current and next piece chosen from the index.
+     *
+     * @param i Index used to choose the two pieces.
+     * @return The number of inputs to reach the best placement.
+     */
+    @Override
+    public int findMoves(int i) {
+        piece.reset(i % TetrisPiece.PIECE_TYPE_COUNT);
+        nextPiece.reset((i / TetrisPiece.PIECE_TYPE_COUNT) % TetrisPiece.PIECE_TYPE_COUNT);
+        return bot.findMoves(fixture, piece, nextPiece, inputs);
+    }
+
+    /**
+     * Restores the line clear board from the line clear fixture.
+     *
+     * @return The aggregate height of the restored board.
+     */
+    @Override
+    public int copyFrom() {
+        lineClearBoard.copyFrom(lineClearFixture);
+        return lineClearBoard.getAggregateHeight();
+    }
+
+    /**
+     * Restores the line clear board, locks in the line piece and clears the completed rows.
+     *
+     * @return The number of rows cleared.
+     */
+    @Override
+    public int lockAndClear() {
+        lineClearBoard.copyFrom(lineClearFixture);
+        lineClearBoard.lockInPiece(linePiece);
+        lineClearBoard.checkForMatches();
+        return lineClearBoard.clearMatchedRows();
+    }
+
+    /**
+     * Places the line piece on the line clear board and undoes it.
+     *
+     * @return The number of rows cleared by the placement.
+     */
+    @Override
+    public int placeAndUndo() {
+        int token = lineClearBoard.place(linePiece.getPieceType(), linePiece.getRotation(),
+                linePiece.getLeft(), linePiece.getTop());
+        int rows = lineClearBoard.getClearedRowCount();
+        lineClearBoard.undo(token);
+        return rows;
+    }
+
+    /**
+     * Creates one of the named board fixtures. The same name always gives the same board.
+     *
+     * @param name One of FIXTURE_NAMES.
+     * @return The new board.
+     * @throws IllegalArgumentException If there is no fixture with the name.
+     */
+    private static TetrisBoard createFixture(String name) {
+        for(int i = 0; i < FIXTURE_NAMES.length; i++) {
+            if(FIXTURE_NAMES[i].equals(name))
+                return createFixture(FIXTURE_WIDTHS[i], FIXTURE_HEIGHTS[i], FIXTURE_FILLED_ROWS[i], 1234 + i);
+        }
+        throw new IllegalArgumentException("No fixture named " + name);
+    }
+
+    /**
+     * Creates a half-filled board with the bottom four rows complete except for the
+     * first column, ready for a vertical line piece to clear them.
+     *
+     * @return The new board.
+     */
+    private static TetrisBoard createLineClearFixture() {
+        TetrisBoard fixture = createFixture(TetrisBoard.DEFAULT_GRID_WIDTH, TetrisBoard.DEFAULT_GRID_HEIGHT,
+                TetrisBoard.DEFAULT_GRID_HEIGHT / 2, 99);
+        for(int y = fixture.getGridHeight() - 4; y < fixture.getGridHeight(); y++) {
+            for(int x = 1; x < fixture.getGridWidth(); x++)
+                fixture.setCell(x, y, 1);
+            fixture.setCell(0, y, 0);
+        }
+        fixture.checkForMatches();
+        return fixture;
+    }
+
+    /**
+     * Creates a board with the bottom rows randomly filled, leaving at least one
+     * empty cell in every row so there are no matches.
+     *
+     * @param gridWidth Number of columns on the board.
+     * @param gridHeight Number of rows on the board.
+     * @param filledRows Number of rows to fill from the bottom.
+     * @param seed Seed for the random cells.
+     * @return The new board.
+     */
+    private static TetrisBoard createFixture(int gridWidth, int gridHeight, int filledRows, long seed) {
+        Random rand = new Random(seed);
+        TetrisBoard board = new TetrisBoard(gridWidth, gridHeight, TetrisBoard.DEFAULT_CELL_DIM);
+        for(int y = gridHeight - filledRows; y < gridHeight; y++) {
+            int gap = rand.nextInt(gridWidth);
+            for(int x = 0; x < gridWidth; x++) {
+                if(x != gap && rand.nextInt(4) != 0)
+                    board.setCell(x, y, 1 + rand.nextInt(TetrisPiece.PIECE_TYPE_COUNT));
+            }
+        }
+        // Forget the touched rows so only pieces locked in later are checked for matches
+        board.checkForMatches();
+        return board;
+    }
+}
@@ -0,0 +1,111 @@
+package tetris.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * BoardBenchmark class:
+ * JMH benchmarks of the core board and piece operations on each of the board fixtures
+ * (empty, half-filled, near top out and a 40x100 half-filled board). Results are returned
+ * so JMH consumes them and the JIT cannot remove the work.
+ * Build with mvn -Pjmh package and run with java -jar target/benchmarks.jar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    /**
+     * Name of the board fixture the operations are run on.
+     */
+    @Param({ "empty", "half-filled", "near-topout", "40x100 half-filled" })
+    public String fixture;
+
+    /**
+     * The operations, run on the fixture.
+     */
+    private BoardOperations operations;
+    /**
+     * Counts calls so successive calls use different positions and pieces.
+     */
+    private int index;
+
+    /**
+     * Creates the fixture once for every run of a benchmark.
+     *
+     * @throws ReflectiveOperationException If the operations could not be created.
+     */
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        operations = BoardOperations.create();
+        operations.setUp(fixture);
+    }
+
+    /**
+     * Measures checking whether a T piece fits on the fixture.
+     *
+     * @return Whether the piece fits.
+     */
+    @Benchmark
+    public boolean isValidOnBoard() {
+        return operations.isValidOnBoard(index++ & 0xFFFF);
+    }
+
+    /**
+     * Measures dropping each piece type down the fixture one row at a time.
+     *
+     * @return The number of rows the piece moved.
+     */
+    @Benchmark
+    public int hardDrop() {
+        index = index == 6 ? 0 : index + 1;
+        return operations.hardDrop(index);
+    }
+
+    /**
+     * Measures locking a landed piece in to the board.
+     *
+     * @return The aggregate height of the board.
+     */
+    @Benchmark
+    public int lockInPiece() {
+        return operations.lockInPiece();
+    }
+
+    /**
+     * Measures rotating a piece clockwise, checking the rotated piece fits on the fixture.
+     *
+     * @return The rotation of the piece.
+     */
+    @Benchmark
+    public int rotateClockwise() {
+        return operations.rotateClockwise();
+    }
+
+    /**
+     * Measures the bot searching every placement of a current and next piece.
+     *
+     * @return The number of inputs found.
+     */
+    @Benchmark
+    public int findMoves() {
+        index = index == 48 ? 0 : index + 1;
+        return operations.findMoves(index);
+    }
+}
@@ -0,0 +1,95 @@
+package tetris.jmh;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * BoardOperations interface:
+ * The board and piece operations measured by the JMH benchmarks. JMH needs its benchmarks
+ * in a named package and the game is in the default package, which a named package cannot
+ * import, so the benchmarks reach the game through this interface. It is implemented by
+ * BoardFixtures in the default package and loaded by name.
+ */
+public interface BoardOperations {
+    /**
+     * Name of the class implementing the operations.
+     */
+    String IMPLEMENTATION = "BoardFixtures";
+
+    /**
+     * Creates the implementation of the operations.
+     *
+     * @return A new instance of the implementation.
+     * @throws ReflectiveOperationException If the implementation could not be created.
+     */
+    static BoardOperations create() throws ReflectiveOperationException {
+        return (BoardOperations) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Creates the board fixture and the pieces the operations are run with.
+     *
+     * @param fixture Name of the board fixture: empty, half-filled, near-topout or 40x100 half-filled.
+     */
+    void setUp(String fixture);
+
+    /**
+     * Checks whether a T piece fits on the fixture at a position chosen from the index.
+     *
+     * @param i Index used to choose the position, so successive calls check different positions.
+     * @return True if the piece fits.
+     */
+    boolean isValidOnBoard(int i);
+
+    /**
+     * Resets a piece and moves it down the fixture until it lands.
+     *
+     * @param pieceType The type of piece to drop.
+     * @return The number of rows the piece moved.
+     */
+    int hardDrop(int pieceType);
+
+    /**
+     * Locks a landed T piece in to a copy of the fixture, always at the same place.
+     *
+     * @return The aggregate height of the copy.
+     */
+    int lockInPiece();
+
+    /**
+     * Rotates a T piece clockwise in the empty space above the fixture.
+     *
+     * @return The rotation of the piece.
+     */
+    int rotateClockwise();
+
+    /**
+     * Searches every placement of a current and next piece on the fixture.
+     *
+     * @param i Index used to choose the two pieces.
+     * @return The number of inputs to reach the best placement.
+     */
+    int findMoves(int i);
+
+    /**
+     * Restores the line clear board from the line clear fixture.
+     *
+     * @return The aggregate height of the restored board.
+     */
+    int copyFrom();
+
+    /**
+     * Restores the line clear board, locks in a line piece completing four rows,
+     * then checks for and clears the completed rows.
+     *
+     * @return The number of rows cleared.
+     */
+    int lockAndClear();
+
+    /**
+     * Places the line piece completing four rows on the line clear board and undoes it.
+     *
+     * @return The number of rows cleared by the placement.
+     */
+    int placeAndUndo();
+}
@@ -0,0 +1,77 @@
+package tetris.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * LineClearBenchmark class:
+ * JMH benchmarks of checking for and clearing four rows completed by a line piece.
+ * Restoring the board is measured on its own by copyFrom so it can be subtracted from
+ * lockAndClear, and placeAndUndo measures the same line clear through place and undo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineClearBenchmark {
+    /**
+     * The operations, run on the line clear fixture.
+     */
+    private BoardOperations operations;
+
+    /**
+     * Creates the line clear fixture once for every run of a benchmark.
+     *
+     * @throws ReflectiveOperationException If the operations could not be created.
+     */
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        operations = BoardOperations.create();
+        operations.setUp("half-filled");
+    }
+
+    /**
+     * Measures restoring the board from the fixture.
+     *
+     * @return The aggregate height of the board.
+     */
+    @Benchmark
+    public int copyFrom() {
+        return operations.copyFrom();
+    }
+
+    /**
+     * Measures restoring the board, locking in the line piece and clearing four rows.
+     *
+     * @return The number of rows cleared.
+     */
+    @Benchmark
+    public int lockAndClear() {
+        return operations.lockAndClear();
+    }
+
+    /**
+     * Measures placing the line piece to clear four rows and undoing it.
+     *
+     * @return The number of rows cleared.
+     */
+    @Benchmark
+    public int placeAndUndo() {
+        return operations.placeAndUndo();
+    }
+}
@@ -0,0 +1,91 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * AllocationCheck class:
+ * Checks that the per-tick path of the game allocates nothing once it has warmed up:
+ * moving, rotating, checking moves against the board, and locking pieces in through
+ * the game engine. Plays a long run of random inputs to warm up, then measures the bytes
+ * allocated by the current thread over the same run with ThreadMXBean and exits with
+ * status 1 if any were allocated.
+ */
+public class AllocationCheck {
+    /**
+     * Runs the check from the command line.
+     * Usage: AllocationCheck [steps]
+     *
+     * @param args Number of steps measured after warming up.
+     */
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocated bytes per thread are not supported by this JVM");
+            System.exit(1);
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        // Inputs are chosen up front so choosing them is not measured
+        Random random = new Random(3);
+        int[] inputs = new int[steps];
+        for(int i = 0; i < steps; i++)
+            inputs[i] = random.nextInt(GameEngine.INPUT_ROTATE_RIGHT + 1);
+        GameEngine gameEngine = new GameEngine(0);
+
+        for(int warmUp = 0; warmUp < WARM_UP_RUNS; warmUp++)
+            play(gameEngine, inputs);
+        long startAllocated = threadBean.getCurrentThreadAllocatedBytes();
+        long piecesLocked = play(gameEngine, inputs);
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - startAllocated;
+
+        System.out.println("Allocated " + allocated + " bytes over " + steps + " steps and "
+                + piecesLocked + " pieces locked");
+        if(allocated != 0)
+            System.exit(1);
+    }
+
+    /**
+     * Number of times the inputs are played before measuring, so every method is compiled.
+     */
+    private static final int WARM_UP_RUNS = 3;
+
+    /**
+     * Plays every input as a step of the game engine, alternating with applying the input
+     * immediately and checking and making moves on the current piece directly. Restarts
+     * the game whenever it is over.
+     *
+     * @param gameEngine The game to play.
+     * @param inputs The inputs to apply.
+     * @return The number of pieces locked in.
+     */
+    private static long play(GameEngine gameEngine, int[] inputs) {
+        long piecesLocked = -gameEngine.getPiecesLocked();
+        for(int i = 0; i < inputs.length; i++) {
+            if(gameEngine.isGameOver()) {
+                piecesLocked += gameEngine.getPiecesLocked();
+                gameEngine.restart();
+            }
+            TetrisBoard board = gameEngine.getBoard();
+            TetrisPiece piece = gameEngine.getCurrentPiece();
+            if((i & 3) == 0) {
+                int dx = inputs[i] % 3 - 1;
+                if(board.isMoveValid(dx, 0, piece))
+                    piece.move(dx, 0);
+                if((i & 4) == 0)
+                    piece.rotateClockwise(board);
+                else
+                    piece.rotateCounterClockwise(board);
+            } else if((i & 3) == 1) {
+                gameEngine.applyAction(inputs[i]);
+            }
+            gameEngine.step(inputs[i]);
+        }
+        return piecesLocked + gameEngine.getPiecesLocked();
+    }
+}
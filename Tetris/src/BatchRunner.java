@@ -0,0 +1,271 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * BatchRunner class:
+ * Plays large batches of seeded headless games in parallel on a fork/join pool, with each
+ * game played by a TetrisBot or by seeded random inputs.
+ * Every game uses its own GameEngine so games share no state and the work scales
+ * with the number of cores. Games are played in small tasks that each keep their own
+ * results, and a bounded number of tasks are queued ahead of the one being written, so the
+ * workers keep playing while results are streamed to a CSV file in seed order. Aggregated
+ * statistics are printed at the end.
+ */
+public class BatchRunner {
+    /**
+     * Runs a batch of games from the command line.
+     * Usage: BatchRunner games [firstSeed] [maxPieces] [output.csv] [threads] [uniform|bag|history] [bot|random]
+     *
+     * @param args Number of games, first seed, piece limit per game, CSV file, thread count, piece generator
+     *             and the player.
+     * @throws IOException If the CSV file could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.out.println("Usage: BatchRunner games [firstSeed] [maxPieces] [output.csv] [threads] [uniform|bag|history] [bot|random]");
+            return;
+        }
+        int gameCount = Integer.parseInt(args[0]);
+        long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int maxPieces = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        String outputFile = args.length > 3 ? args[3] : "results.csv";
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        String generatorName = args.length > 5 ? args[5] : "uniform";
+        boolean useBot = args.length <= 6 || !args[6].equals("random");
+
+        BatchRunner batchRunner = new BatchRunner(threads, maxPieces, generatorName, useBot);
+        try(Writer csv = new BufferedWriter(new FileWriter(outputFile))) {
+            batchRunner.run(firstSeed, gameCount, csv);
+        }
+        batchRunner.printSummary();
+    }
+
+    /**
+     * Number of games played by each task.
+     */
+    private static final int GAMES_PER_TASK = 16;
+    /**
+     * Most tasks queued or running while the oldest one is waited on, which limits
+     * the results kept in memory to a few thousand games.
+     */
+    private static final int MAX_TASKS_IN_FLIGHT = 256;
+
+    /**
+     * Pool of worker threads the games are scheduled on.
+     */
+    private final ForkJoinPool pool;
+    /**
+     * Maximum number of pieces to lock in before a game is stopped.
+     */
+    private final int maxPieces;
+    /**
+     * Name of the piece generator each game uses as passed to PieceGenerator.create().
+     */
+    private final String generatorName;
+    /**
+     * True if games are played by a TetrisBot, or false to use seeded random inputs.
+     */
+    private final boolean useBot;
+    /**
+     * Totals across every game played for the summary.
+     */
+    private long totalGames, totalScore, totalLevels, totalLines, totalPieces;
+    /**
+     * Highest score of any game played.
+     */
+    private int bestScore;
+    /**
+     * Time in nanoseconds spent playing games.
+     */
+    private long elapsedNanos;
+
+    /**
+     * Creates a batch runner with its own pool of worker threads.
+     *
+     * @param threads Number of worker threads to play games on.
+     * @param maxPieces Maximum number of pieces to lock in before a game is stopped.
+     * @param generatorName Name of the piece generator as passed to PieceGenerator.create().
+     * @param useBot True to play games with a TetrisBot, or false to use seeded random inputs.
+     */
+    public BatchRunner(int threads, int maxPieces, String generatorName, boolean useBot) {
+        pool = new ForkJoinPool(threads);
+        this.maxPieces = maxPieces;
+        this.generatorName = generatorName;
+        this.useBot = useBot;
+    }
+
+    /**
+     * Plays games with consecutive seeds starting at firstSeed and writes one CSV row per game.
+     * Each time the oldest task finishes its results are written and another task is queued.
+     *
+     * @param firstSeed Seed of the first game.
+     * @param gameCount Number of games to play.
+     * @param csv Destination for the CSV rows.
+     * @throws IOException If the CSV rows could not be written.
+     */
+    public void run(long firstSeed, int gameCount, Writer csv) throws IOException {
+        csv.write("seed,score,level,lines,pieces\n");
+        long startTime = System.nanoTime();
+        ArrayDeque<GameRangeTask> inFlight = new ArrayDeque<>();
+        int queuedGames = 0;
+        while(queuedGames < gameCount || !inFlight.isEmpty()) {
+            while(queuedGames < gameCount && inFlight.size() < MAX_TASKS_IN_FLIGHT) {
+                int count = Math.min(GAMES_PER_TASK, gameCount - queuedGames);
+                GameRangeTask task = new GameRangeTask(firstSeed + queuedGames, count);
+                pool.execute(task);
+                inFlight.add(task);
+                queuedGames += count;
+            }
+            GameRangeTask task = inFlight.poll();
+            task.join();
+            writeResults(task, csv);
+        }
+        csv.flush();
+        elapsedNanos += System.nanoTime() - startTime;
+    }
+
+    /**
+     * Prints the aggregated statistics of every game played so far.
+     */
+    public void printSummary() {
+        if(totalGames == 0) return;
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Games: %d in %.2fs (%.0f games/s) on %d threads%n",
+                totalGames, seconds, totalGames / seconds, pool.getParallelism());
+        System.out.printf("Score: mean %.2f best %d%n", (double)totalScore / totalGames, bestScore);
+        System.out.printf("Level: mean %.2f%n", (double)totalLevels / totalGames);
+        System.out.printf("Lines: mean %.2f%n", (double)totalLines / totalGames);
+        System.out.printf("Pieces: mean %.2f total %d%n", (double)totalPieces / totalGames, totalPieces);
+    }
+
+    /**
+     * Plays a single game until it is lost or reaches the piece limit.
+     *
+     * @param seed The seed of the game.
+     * @return The finished game.
+     */
+    private GameEngine playGame(long seed) {
+        GameEngine gameEngine = new GameEngine(PieceGenerator.create(generatorName, seed));
+        if(useBot)
+            new TetrisBot().play(gameEngine, maxPieces);
+        else
+            playWithRandomInputs(gameEngine, seed);
+        return gameEngine;
+    }
+
+    /**
+     * Plays a game with a random input on every step.
+     *
+     * @param gameEngine The game to play.
+     * @param seed The seed of the game used to seed the inputs.
+     */
+    private void playWithRandomInputs(GameEngine gameEngine, long seed) {
+        Random inputs = new Random(~seed);
+        while(!gameEngine.isGameOver() && gameEngine.getPiecesLocked() < maxPieces)
+            gameEngine.step(inputs.nextInt(GameEngine.INPUT_ROTATE_RIGHT + 1));
+    }
+
+    /**
+     * Writes the results of a finished task to the CSV and adds its totals to the totals.
+     *
+     * @param task The finished task.
+     * @param csv Destination for the CSV rows.
+     * @throws IOException If the CSV rows could not be written.
+     */
+    private void writeResults(GameRangeTask task, Writer csv) throws IOException {
+        StringBuilder row = new StringBuilder();
+        for(int i = 0; i < task.scores.length; i++) {
+            row.setLength(0);
+            row.append(task.firstSeed + i).append(',').append(task.scores[i]).append(',').append(task.levels[i])
+                    .append(',').append(task.lines[i]).append(',').append(task.pieces[i]).append('\n');
+            csv.append(row);
+        }
+        totalGames += task.scores.length;
+        totalScore += task.totalScore;
+        totalLevels += task.totalLevels;
+        totalLines += task.totalLines;
+        totalPieces += task.totalPieces;
+        bestScore = Math.max(bestScore, task.bestScore);
+    }
+
+    /**
+     * Fork/join task that plays games with consecutive seeds, keeping the result of
+     * each game and the totals of all of them until they are written.
+     */
+    private class GameRangeTask extends RecursiveAction {
+        /**
+         * Version of the serialized form, which is never used.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Seed of the first game to play.
+         */
+        private final long firstSeed;
+        /**
+         * Final score of each game.
+         */
+        private final int[] scores;
+        /**
+         * Final level of each game.
+         */
+        private final int[] levels;
+        /**
+         * Rows cleared in each game.
+         */
+        private final int[] lines;
+        /**
+         * Pieces locked in each game.
+         */
+        private final int[] pieces;
+        /**
+         * Totals across every game played by the task.
+         */
+        private long totalScore, totalLevels, totalLines, totalPieces;
+        /**
+         * Highest score of any game played by the task.
+         */
+        private int bestScore;
+
+        /**
+         * Creates a task for the games with seeds from firstSeed up to but not including firstSeed + count.
+         *
+         * @param firstSeed Seed of the first game to play.
+         * @param count Number of games to play.
+         */
+        GameRangeTask(long firstSeed, int count) {
+            this.firstSeed = firstSeed;
+            scores = new int[count];
+            levels = new int[count];
+            lines = new int[count];
+            pieces = new int[count];
+        }
+
+        /**
+         * Plays every game and adds up the totals.
+         */
+        @Override
+        protected void compute() {
+            for(int i = 0; i < scores.length; i++) {
+                GameEngine gameEngine = playGame(firstSeed + i);
+                scores[i] = gameEngine.getScore();
+                levels[i] = gameEngine.getLevel();
+                lines[i] = gameEngine.getLinesCleared();
+                pieces[i] = gameEngine.getPiecesLocked();
+                totalScore += scores[i];
+                totalLevels += levels[i];
+                totalLines += lines[i];
+                totalPieces += pieces[i];
+                bestScore = Math.max(bestScore, scores[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * EvaluationCache class:
+ * Bounded cache of board evaluations keyed by 64 bit board hashes, so a search that reaches
+ * the same board by a different order of moves can reuse the earlier score. Keys and values
+ * are kept in primitive arrays with open addressing over a short probe window. When the window
+ * is full an entry is evicted with the clock algorithm: entries used since the clock hand last
+ * passed get a second chance, and the first entry that has not been used is replaced.
+ * A cache must only be used by one thread.
+ */
+public class EvaluationCache {
+    /**
+     * Number of slots checked for a key starting from the slot the key hashes to.
+     */
+    private static final int PROBE_LENGTH = 8;
+    /**
+     * Slot state for a slot that has never held an entry.
+     */
+    private static final byte EMPTY = 0;
+    /**
+     * Slot state for an entry that has not been used since the clock hand passed it.
+     */
+    private static final byte UNREFERENCED = 1;
+    /**
+     * Slot state for an entry that has been used since the clock hand passed it.
+     */
+    private static final byte REFERENCED = 2;
+
+    /**
+     * Key stored in each slot.
+     */
+    private final long[] keys;
+    /**
+     * Value stored in each slot.
+     */
+    private final double[] values;
+    /**
+     * State of each slot as one of EMPTY, UNREFERENCED or REFERENCED.
+     */
+    private final byte[] states;
+    /**
+     * Mask applied to a mixed key to find its first slot.
+     */
+    private final int slotMask;
+    /**
+     * Number of lookups that found their key and did not.
+     */
+    private long hits, misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity Maximum number of entries, rounded up to a power of two.
+     */
+    public EvaluationCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(PROBE_LENGTH, capacity) * 2 - 1);
+        keys = new long[size];
+        values = new double[size];
+        states = new byte[size];
+        slotMask = size - 1;
+    }
+
+    /**
+     * Mixes the bits of a value so that keys differing in a few bits spread over the whole table.
+     * Also used to make keys for values that are combined with a board hash.
+     *
+     * @param value The value to mix.
+     * @return The mixed value.
+     */
+    public static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Looks up the value stored for a key.
+     *
+     * @param key The key to look up.
+     * @return The value, or NaN if the key is not in the cache.
+     */
+    public double get(long key) {
+        int slot = (int)mix(key) & slotMask;
+        for(int i = 0; i < PROBE_LENGTH; i++) {
+            int index = (slot + i) & slotMask;
+            if(states[index] == EMPTY) break;
+            if(keys[index] == key) {
+                states[index] = REFERENCED;
+                hits++;
+                return values[index];
+            }
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+    /**
+     * Stores a value for a key, replacing any value already stored for it.
+     * If every slot the key can go in is taken, an entry is evicted to make room.
+     *
+     * @param key The key to store the value under.
+     * @param value The value to store.
+     */
+    public void put(long key, double value) {
+        int slot = (int)mix(key) & slotMask;
+        int victim = -1;
+        for(int i = 0; i < PROBE_LENGTH; i++) {
+            int index = (slot + i) & slotMask;
+            if(states[index] == EMPTY || keys[index] == key) {
+                victim = index;
+                break;
+            }
+            // Clock hand: take the first entry without a second chance, and use up the
+            // second chance of every entry passed on the way
+            if(states[index] == UNREFERENCED) {
+                if(victim < 0) victim = index;
+            } else if(victim < 0) {
+                states[index] = UNREFERENCED;
+            }
+        }
+        if(victim < 0) victim = slot;
+
+        keys[victim] = key;
+        values[victim] = value;
+        states[victim] = REFERENCED;
+    }
+
+    /**
+     * Removes every entry and resets the hit and miss counts.
+     */
+    public void clear() {
+        Arrays.fill(states, EMPTY);
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Gets the number of lookups that found their key since the cache was created or cleared.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() { return hits; }
+
+    /**
+     * Gets the number of lookups that did not find their key since the cache was created or cleared.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() { return misses; }
+}
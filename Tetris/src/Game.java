@@ -2,6 +2,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Tetris
@@ -13,11 +15,23 @@ import java.awt.event.KeyListener;
 public class Game implements KeyListener {
     /**
      * Creates a new game object to exist as an entry point.
+     * Usage: Game [--record directory] [--replay file] [--active] [--fps framesPerSecond]
+     *             [--das millis] [--arr millis] [--width cells] [--height cells] [--cell pixels]
      *
-     * @param args Not used.
+     * @param args Optional directory to record replays of every game into,
+     *             or a replay file to show instead of playing, or --active to run the
+     *             game on a fixed timestep game loop drawing the given frames per second.
+     *             The delayed auto shift and auto repeat rate for held keys can be changed,
+     *             as can the size of the board and of each cell. Replays are only recorded and
+     *             shown without --active, so --record or --replay with --active is an error.
+     * @throws IOException If the replay file could not be read.
      */
-    public static void main(String[] args) {
-        Game game = new Game();
+    public static void main(String[] args) throws IOException {
+        if(hasFlag(args, "--active") && (getOption(args, "--record") != null || getOption(args, "--replay") != null)) {
+            System.err.println("--record and --replay cannot be used with --active");
+            System.exit(1);
+        }
+        Game game = new Game(args);
     }
 
     /**
@@ -28,34 +42,138 @@ public class Game implements KeyListener {
      * Panel with the main game where Tetris is played.
      */
     private TetrisPanel tetrisPanel;
+    /**
+     * Queues the keys controlling the piece for the tetris panel or game loop to apply.
+     */
+    private InputController inputController;
+    /**
+     * Game loop thread used in place of the tetris panel when running with --active.
+     */
+    private GameLoop gameLoop;
 
     /**
      * Creates the JFrame and inserts a status panel and tetris panel.
+     * The tetris panel plays a new game, recording replays into the directory following
+     * --record if there is one, or shows the replay file following --replay.
+     * With --active a canvas is inserted instead, drawn to by a game loop thread.
+     * New games are played on a board of the size given by --width and --height, and
+     * replays on the size they were recorded on, with cells of the size given by --cell.
+     *
+     * @param args Command line options.
+     * @throws IOException If the replay file could not be read.
      */
-    public Game() {
+    public Game(String[] args) throws IOException {
         JFrame frame = new JFrame("Tetris");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setResizable(false);
         frame.setLayout(new BorderLayout());
 
-        statusPanel = new StatusPanel();
-        tetrisPanel = new TetrisPanel(this);
+        int gridWidth = getIntOption(args, "--width", TetrisBoard.DEFAULT_GRID_WIDTH);
+        int gridHeight = getIntOption(args, "--height", TetrisBoard.DEFAULT_GRID_HEIGHT);
+        int cellDim = getIntOption(args, "--cell", TetrisBoard.DEFAULT_CELL_DIM);
+        String das = getOption(args, "--das");
+        String arr = getOption(args, "--arr");
+        inputController = new InputController(das == null ? InputController.DEFAULT_DAS_MILLIS : Integer.parseInt(das),
+                arr == null ? InputController.DEFAULT_ARR_MILLIS : Integer.parseInt(arr));
+        String recordDirectory = getOption(args, "--record");
+        String replayFile = getOption(args, "--replay");
+        ReplayPlayer replayPlayer = null;
+        GameEngine gameEngine;
+        if(replayFile != null) {
+            replayPlayer = new ReplayPlayer(Paths.get(replayFile), cellDim);
+            gameEngine = replayPlayer.getGameEngine();
+        } else {
+            gameEngine = new GameEngine(new UniformPieceGenerator(System.nanoTime()),
+                    new TetrisBoard(gridWidth, gridHeight, cellDim));
+        }
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        statusPanel = new StatusPanel(tetrisBoard.getHeight());
+
+        Canvas canvas = null;
+        if(hasFlag(args, "--active")) {
+            canvas = new Canvas();
+            canvas.setPreferredSize(new Dimension(tetrisBoard.getWidth(), tetrisBoard.getHeight()));
+            // Leave keyboard focus on the frame so the key listener below receives the keys
+            canvas.setFocusable(false);
+            canvas.setIgnoreRepaint(true);
+            gameLoop = new GameLoop(this, canvas, gameEngine, getIntOption(args, "--fps", 144));
+        } else if(replayPlayer != null)
+            tetrisPanel = new TetrisPanel(this, replayPlayer);
+        else if(recordDirectory != null)
+            tetrisPanel = new TetrisPanel(this, gameEngine, Paths.get(recordDirectory));
+        else
+            tetrisPanel = new TetrisPanel(this, gameEngine);
 
-        frame.getContentPane().add(tetrisPanel, BorderLayout.WEST);
+        frame.getContentPane().add(canvas != null ? canvas : tetrisPanel, BorderLayout.WEST);
         frame.getContentPane().add(statusPanel, BorderLayout.EAST);
 
         frame.addKeyListener(this);
         frame.pack();
         frame.setVisible(true);
+        if(gameLoop != null)
+            gameLoop.start();
+    }
+
+    /**
+     * Checks if a flag without a value is present in the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @param name Name of the flag including the leading dashes.
+     * @return True if the flag is present.
+     */
+    private static boolean hasFlag(String[] args, String name) {
+        for(String arg : args) {
+            if(arg.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the value following an option name in the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @param name Name of the option including the leading dashes.
+     * @return The value following the option, or null if the option is not present.
+     */
+    private static String getOption(String[] args, String name) {
+        for(int i = 0; i < args.length - 1; i++) {
+            if(args[i].equals(name))
+                return args[i+1];
+        }
+        return null;
+    }
+
+    /**
+     * Finds the whole number following an option name in the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @param name Name of the option including the leading dashes.
+     * @param defaultValue Value to use if the option is not present.
+     * @return The value following the option, or the default value.
+     */
+    private static int getIntOption(String[] args, String name, int defaultValue) {
+        String value = getOption(args, name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Gets the controller that key presses and releases controlling the piece are queued in.
+     *
+     * @return The input controller.
+     */
+    public InputController getInputController() {
+        return inputController;
     }
 
     /**
      * Passes a message to the status panel indicating the next piece to be played.
+     * Must be called on the event dispatch thread once the game is showing.
      *
-     * @param nextPiece The next tetris piece to be played.
+     * @param pieceType The type of the next tetris piece to be played.
      */
-    public void setNextPiece(TetrisPiece nextPiece) {
-        statusPanel.setNextPiece(nextPiece);
+    public void setNextPiece(int pieceType) {
+        statusPanel.setNextPiece(pieceType);
     }
 
     /**
@@ -77,21 +195,31 @@ public class Game implements KeyListener {
     }
 
     /**
-     * Passes a message to the tetris panel with key press event information.
+     * Queues keys controlling the piece, then passes a message to the tetris panel
+     * or game loop with key press event information.
      *
      * @param e The information about what key was pressed.
      */
     @Override
     public void keyPressed(KeyEvent e) {
-        tetrisPanel.handleKeyEvent(e);
+        if(inputController.offerKeyPressed(e.getKeyCode()) && GameMetrics.ENABLED)
+            GameMetrics.get().keyPressed();
+        if(gameLoop != null)
+            gameLoop.handleKeyEvent(e);
+        else
+            tetrisPanel.handleKeyEvent(e);
     }
 
     /**
-     * Not used,
-     * @param e Not used.
+     * Queues the release of keys controlling the piece so held keys stop repeating.
+     *
+     * @param e The information about what key was released.
      */
     @Override
-    public void keyReleased(KeyEvent e) {}
+    public void keyReleased(KeyEvent e) {
+        inputController.offerKeyReleased(e.getKeyCode());
+    }
+
     /**
      * Not used,
      * @param e Not used.
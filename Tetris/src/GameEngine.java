@@ -0,0 +1,658 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * GameEngine class:
+ * Defines the headless core of the game. Owns the tetris board, current/next piece,
+ * score, level and gravity, and advances only when step() or advance() is called so it
+ * can be driven by a Swing timer, a fixed timestep game loop, or run as fast as possible
+ * without a display. In a match against an opponent, garbage rows queued by the opponent
+ * are added to the bottom of the board when a piece locks in without clearing rows,
+ * and clearing rows cancels queued garbage before sending the rest to the opponent.
+ */
+public class GameEngine {
+    /**
+     * No input for this step. The piece falls with gravity.
+     */
+    public static final int INPUT_NONE = 0;
+    /**
+     * Move the piece one cell left.
+     */
+    public static final int INPUT_LEFT = 1;
+    /**
+     * Move the piece one cell right.
+     */
+    public static final int INPUT_RIGHT = 2;
+    /**
+     * Move the piece one cell down.
+     */
+    public static final int INPUT_DOWN = 3;
+    /**
+     * Drop the piece as far as it can go and lock it in.
+     */
+    public static final int INPUT_HARD_DROP = 4;
+    /**
+     * Rotate the piece counter clockwise.
+     */
+    public static final int INPUT_ROTATE_LEFT = 5;
+    /**
+     * Rotate the piece clockwise.
+     */
+    public static final int INPUT_ROTATE_RIGHT = 6;
+
+    /**
+     * Delay in milliseconds between gravity steps on the first level.
+     */
+    public static final int START_TICK_DELAY = 300;
+    /**
+     * Shortest delay in milliseconds between gravity steps at high levels.
+     */
+    public static final int MIN_TICK_DELAY = 30;
+    /**
+     * The amount of score required to increase the level number.
+     */
+    private final int SCORE_PER_LEVEL = 5;
+    /**
+     * Bytes kept in the saved state for the name of the piece generator.
+     */
+    private static final int GENERATOR_NAME_SIZE = 8;
+
+    /**
+     * Reference to the tetris board containing the grid of placed pieces.
+     */
+    private TetrisBoard tetrisBoard;
+    /**
+     * The current piece that is moving down the board.
+     */
+    private TetrisPiece currentPiece;
+    /**
+     * The next piece that will be used after the current piece.
+     */
+    private TetrisPiece nextPiece;
+    /**
+     * The generator shared by the pieces to select each piece type.
+     */
+    private PieceGenerator pieceGenerator;
+    /**
+     * Position above the top of the game where the piece will start.
+     */
+    private Position pieceStartPosition;
+    /**
+     * The current score based on matched rows.
+     */
+    private int score;
+    /**
+     * The current level based on total score.
+     */
+    private int level;
+    /**
+     * Delay in milliseconds that should pass between each step based on the level.
+     */
+    private int tickDelay;
+    /**
+     * Total number of pieces that have been locked in to the board.
+     */
+    private int piecesLocked;
+    /**
+     * Total number of rows that have been matched and removed.
+     */
+    private int linesCleared;
+    /**
+     * Number of steps performed since the game started.
+     */
+    private int tickCount;
+    /**
+     * Milliseconds of game time passed since the last gravity step when driven by advance().
+     */
+    private int gravityTimer;
+    /**
+     * Game state to indicate the game has been lost if true.
+     */
+    private boolean gameOver;
+    /**
+     * Optional recorder that every applied input is passed on to, or null when not recording.
+     */
+    private ReplayRecorder replayRecorder;
+    /**
+     * Optional listener told about every locked piece, or null.
+     */
+    private PieceLockListener pieceLockListener;
+    /**
+     * Garbage rows queued by an opponent to be added when the next piece locks without clearing rows.
+     */
+    private int pendingGarbage;
+    /**
+     * Column left empty in the garbage rows most recently queued.
+     */
+    private int garbageGap;
+    /**
+     * Garbage rows earned by clearing rows that have not yet been taken to send to an opponent.
+     */
+    private int outgoingGarbage;
+
+    /**
+     * Sets up the tetris board and the current/next pieces ready for the first step.
+     */
+    public GameEngine() {
+        this(new UniformPieceGenerator(System.nanoTime()));
+    }
+
+    /**
+     * Sets up the game with a seeded sequence of pieces so the same seed and inputs
+     * always play out the same game.
+     *
+     * @param seed The seed for selecting pieces.
+     */
+    public GameEngine(long seed) {
+        this(new UniformPieceGenerator(seed));
+    }
+
+    /**
+     * Sets up a board of the default size and the current/next pieces ready for the first step.
+     *
+     * @param pieceGenerator The generator shared by the pieces to select each piece type.
+     */
+    public GameEngine(PieceGenerator pieceGenerator) {
+        this(pieceGenerator, new TetrisBoard());
+    }
+
+    /**
+     * Sets up the game on an empty board of any size with the current/next pieces
+     * starting in the middle of the top of the board ready for the first step.
+     *
+     * @param pieceGenerator The generator shared by the pieces to select each piece type.
+     * @param tetrisBoard The empty board to play on.
+     */
+    public GameEngine(PieceGenerator pieceGenerator, TetrisBoard tetrisBoard) {
+        this.pieceGenerator = pieceGenerator;
+        pieceStartPosition = new Position(tetrisBoard.getGridWidth()/2, -2);
+        this.tetrisBoard = tetrisBoard;
+        currentPiece = new TetrisPiece(pieceStartPosition, pieceGenerator);
+        nextPiece = new TetrisPiece(pieceStartPosition, pieceGenerator);
+        score = 0;
+        level = 1;
+        tickDelay = START_TICK_DELAY;
+        piecesLocked = 0;
+        linesCleared = 0;
+        tickCount = 0;
+        gravityTimer = 0;
+        pendingGarbage = 0;
+        outgoingGarbage = 0;
+        gameOver = false;
+        GameEvents.pieceSpawned(currentPiece.getPieceType(), tickCount);
+    }
+
+    /**
+     * Resets the state of all elements back to their defaults and restarts
+     * the sequence of pieces from a new seed.
+     *
+     * @param seed The seed for selecting pieces.
+     */
+    public void restart(long seed) {
+        pieceGenerator.setSeed(seed);
+        restart();
+    }
+
+    /**
+     * Resets the state of all elements back to their defaults.
+     */
+    public void restart() {
+        score = 0;
+        level = 1;
+        tickDelay = START_TICK_DELAY;
+        piecesLocked = 0;
+        linesCleared = 0;
+        tickCount = 0;
+        gravityTimer = 0;
+        pendingGarbage = 0;
+        outgoingGarbage = 0;
+        currentPiece.reset();
+        nextPiece.reset();
+        tetrisBoard.reset();
+        gameOver = false;
+        GameEvents.pieceSpawned(currentPiece.getPieceType(), tickCount);
+    }
+
+    /**
+     * Performs a single gravity step. Removes any matched rows from the previous step,
+     * applies the input, then makes the piece move if possible, or otherwise locks in
+     * the piece where it is located. Left/right/down inputs replace the gravity move for
+     * this step, while hard drop and rotation are applied before gravity moves the piece down.
+     *
+     * @param input One of the INPUT_ constants to apply during this step.
+     */
+    public void step(int input) {
+        if(gameOver) return;
+
+        if(replayRecorder != null && input != INPUT_NONE)
+            replayRecorder.recordStep(tickCount, input);
+        tickCount++;
+        if(tetrisBoard.hasMatchedRows())
+            clearMatchedRows();
+        Position move = Position.DOWN;
+        if(input == INPUT_LEFT)
+            move = Position.LEFT;
+        else if(input == INPUT_RIGHT)
+            move = Position.RIGHT;
+        else if(input != INPUT_DOWN)
+            performAction(input);
+
+        if(gameOver) return;
+        if(tetrisBoard.isMoveValid(move, currentPiece))
+            currentPiece.move(move);
+        else if(move.x == 0)
+            lockInPiece();
+    }
+
+    /**
+     * Advances the game by an amount of time for a caller with its own fixed timestep.
+     * Gravity moves the piece a fraction of a cell each millisecond based on the delay
+     * for the current level, and a gravity step is performed each time it adds up to a whole cell.
+     *
+     * @param elapsedMillis Milliseconds of game time that have passed.
+     */
+    public void advance(int elapsedMillis) {
+        if(gameOver) return;
+
+        gravityTimer += elapsedMillis;
+        while(gravityTimer >= tickDelay && !gameOver) {
+            gravityTimer -= tickDelay;
+            step(INPUT_NONE);
+        }
+    }
+
+    /**
+     * Gets how far gravity has moved the piece toward the next cell, for drawing the piece
+     * part way between cells. Only changes when the game is driven by advance().
+     *
+     * @param extraMillis Milliseconds passed since the last call to advance().
+     * @return The fraction of a cell from 0 up to but not including 1.
+     */
+    public float getGravityProgress(float extraMillis) {
+        return Math.min(0.999f, (gravityTimer + extraMillis) / tickDelay);
+    }
+
+    /**
+     * Applies an input that takes effect immediately rather than waiting for the next
+     * step. Left/right/down move the piece a cell without locking it in, and hard drop
+     * and rotations are applied.
+     *
+     * @param input One of the INPUT_ constants to apply.
+     */
+    public void applyAction(int input) {
+        if(gameOver) return;
+
+        if(replayRecorder != null && input != INPUT_NONE)
+            replayRecorder.recordAction(tickCount, input);
+        performAction(input);
+    }
+
+    /**
+     * Applies move, hard drop and rotation inputs without passing them on to the recorder.
+     *
+     * @param input One of the INPUT_ constants to apply.
+     */
+    private void performAction(int input) {
+        if(input == INPUT_LEFT || input == INPUT_RIGHT || input == INPUT_DOWN) {
+            int dx = input == INPUT_LEFT ? -1 : input == INPUT_RIGHT ? 1 : 0;
+            int dy = input == INPUT_DOWN ? 1 : 0;
+            if(tetrisBoard.isMoveValid(dx, dy, currentPiece))
+                currentPiece.move(dx, dy);
+        } else if(input == INPUT_HARD_DROP)
+            hardDropCurrent();
+        else if(input == INPUT_ROTATE_LEFT)
+            currentPiece.rotateCounterClockwise(tetrisBoard);
+        else if(input == INPUT_ROTATE_RIGHT)
+            currentPiece.rotateClockwise(tetrisBoard);
+    }
+
+    /**
+     * Forces the piece to continually move down until it is locked in place.
+     */
+    public void hardDropCurrent() {
+        while(tetrisBoard.isMoveValid(0, 1, currentPiece))
+            currentPiece.move(0, 1);
+        lockInPiece();
+    }
+
+    /**
+     * Locks in the piece to the grid. If the piece is locked in outside of the grid
+     * it causes an instant game over. Once the piece is locked in it will check for matches,
+     * and change to the next piece. Score, level and the delay between steps are
+     * updated to reflect changes based on matches.
+     */
+    public void lockInPiece() {
+        if(currentPiece.getTop() < 0) {
+            gameOver = true;
+            return;
+        }
+
+        GameEvents.PieceLocked lockedEvent = GameEvents.beginPieceLocked(currentPiece);
+        int lockedType = currentPiece.getPieceType();
+        int lockedRotation = currentPiece.getRotation();
+        int lockedLeft = currentPiece.getLeft();
+        int lockedTop = currentPiece.getTop();
+        boolean matchedRowsPending = tetrisBoard.hasMatchedRows();
+        tetrisBoard.lockInPiece(currentPiece);
+        piecesLocked++;
+        // Reuse the locked piece object as the new next piece
+        TetrisPiece lockedPiece = currentPiece;
+        currentPiece = nextPiece;
+        nextPiece = lockedPiece;
+        nextPiece.reset();
+        long startTime = GameMetrics.ENABLED ? System.nanoTime() : 0;
+        int matches = tetrisBoard.checkForMatches();
+        if(GameMetrics.ENABLED)
+            GameMetrics.get().pieceLocked(startTime, matches);
+        GameEvents.endPieceLocked(lockedEvent, matches);
+        GameEvents.pieceSpawned(currentPiece.getPieceType(), tickCount);
+        if(matches > 0) {
+            int previousLevel = level;
+            linesCleared += matches;
+            score += matches * matches;
+            level = 1+score/SCORE_PER_LEVEL;
+            tickDelay = Math.max(MIN_TICK_DELAY, START_TICK_DELAY-(level-1)*30);
+            if(level != previousLevel)
+                GameEvents.levelUp(level, tickDelay);
+        }
+
+        int garbageRows = 0;
+        if(matches > 0) {
+            int cancelled = Math.min(pendingGarbage, getGarbageForLines(matches));
+            pendingGarbage -= cancelled;
+            outgoingGarbage += getGarbageForLines(matches) - cancelled;
+        } else if(pendingGarbage > 0) {
+            garbageRows = pendingGarbage;
+            pendingGarbage = 0;
+            if(tetrisBoard.hasMatchedRows())
+                clearMatchedRows();
+            if(!tetrisBoard.addGarbageRows(garbageRows, garbageGap))
+                gameOver = true;
+        }
+        if(pieceLockListener != null)
+            pieceLockListener.pieceLocked(this, lockedType, lockedRotation, lockedLeft, lockedTop,
+                    matchedRowsPending, garbageRows);
+    }
+
+    /**
+     * Gets the number of garbage rows sent to an opponent for clearing rows with one piece.
+     * A single row sends nothing, two rows send one, three send two, and four or more send them all.
+     *
+     * @param lines Number of rows cleared by the piece.
+     * @return The number of garbage rows to send.
+     */
+    public static int getGarbageForLines(int lines) {
+        return lines >= 4 ? lines : lines - 1;
+    }
+
+    /**
+     * Queues garbage rows from an opponent to be added to the bottom of the board when the
+     * next piece locks without clearing rows. The queue is limited to the grid height.
+     *
+     * @param rows Number of garbage rows to queue.
+     * @param gapColumn Column left empty in the garbage rows.
+     */
+    public void queueGarbage(int rows, int gapColumn) {
+        pendingGarbage = Math.min(tetrisBoard.getGridHeight(), pendingGarbage + rows);
+        garbageGap = gapColumn;
+    }
+
+    /**
+     * Gets the number of garbage rows waiting to be added to the board.
+     *
+     * @return The number of queued garbage rows.
+     */
+    public int getPendingGarbage() { return pendingGarbage; }
+
+    /**
+     * Gets the column left empty in the garbage rows most recently queued.
+     *
+     * @return The gap column.
+     */
+    public int getGarbageGap() { return garbageGap; }
+
+    /**
+     * Takes the garbage rows earned by clearing rows since the last call, to send to an opponent.
+     *
+     * @return The number of garbage rows to send.
+     */
+    public int takeOutgoingGarbage() {
+        int rows = outgoingGarbage;
+        outgoingGarbage = 0;
+        return rows;
+    }
+
+    /**
+     * Removes the full rows found when the last piece was locked in, timing the removal.
+     */
+    private void clearMatchedRows() {
+        long startTime = GameMetrics.ENABLED ? System.nanoTime() : 0;
+        GameEvents.LinesCleared clearedEvent = GameEvents.beginLinesCleared();
+        int rowsCleared = tetrisBoard.clearMatchedRows();
+        GameEvents.endLinesCleared(clearedEvent, rowsCleared);
+        if(GameMetrics.ENABLED)
+            GameMetrics.get().rowsCleared(startTime);
+    }
+
+    /**
+     * Gets the number of bytes writeState() writes for this game. The size only
+     * depends on the size of the board.
+     *
+     * @return The size of the saved state.
+     */
+    public int getStateSize() {
+        return getStateSize(tetrisBoard.getGridWidth(), tetrisBoard.getGridHeight());
+    }
+
+    /**
+     * Gets the number of bytes writeState() writes for a game on a board of any size.
+     *
+     * @param gridWidth Number of cells on the horizontal axis of the board.
+     * @param gridHeight Number of cells on the vertical axis of the board.
+     * @return The size of the saved state.
+     */
+    public static int getStateSize(int gridWidth, int gridHeight) {
+        return GENERATOR_NAME_SIZE + 7 * 4 + 1 + 3 * 4 + 2 * 6 + PieceGenerator.STATE_SIZE
+                + TetrisBoard.getStateSize(gridWidth, gridHeight);
+    }
+
+    /**
+     * Writes everything needed to continue the game exactly where it is with readState():
+     * the score, level, delay, counters and queued garbage, the current and next piece,
+     * the state of the piece generator and the board. The layout is fixed, so the state
+     * of a game always takes getStateSize() bytes.
+     *
+     * Layout:
+     *   8 bytes piece generator name, padded with 0s
+     *   int score, level, tick delay, pieces locked, lines cleared, tick count, gravity timer
+     *   byte game over
+     *   int pending garbage, garbage gap, outgoing garbage
+     *   current then next piece: byte type, byte rotation, short left, short top
+     *   PieceGenerator.STATE_SIZE bytes of the piece generator
+     *   TetrisBoard.getStateSize() bytes of the board
+     *
+     * @param buffer The buffer to write to at its position.
+     */
+    public void writeState(ByteBuffer buffer) {
+        String name = pieceGenerator.getName();
+        for(int i = 0; i < GENERATOR_NAME_SIZE; i++)
+            buffer.put(i < name.length() ? (byte)name.charAt(i) : 0);
+        buffer.putInt(score);
+        buffer.putInt(level);
+        buffer.putInt(tickDelay);
+        buffer.putInt(piecesLocked);
+        buffer.putInt(linesCleared);
+        buffer.putInt(tickCount);
+        buffer.putInt(gravityTimer);
+        buffer.put((byte)(gameOver ? 1 : 0));
+        buffer.putInt(pendingGarbage);
+        buffer.putInt(garbageGap);
+        buffer.putInt(outgoingGarbage);
+        writePieceState(buffer, currentPiece);
+        writePieceState(buffer, nextPiece);
+        pieceGenerator.writeState(buffer);
+        tetrisBoard.writeState(buffer);
+    }
+
+    /**
+     * Replaces the whole game with the state written by writeState(). The game must use
+     * the same type of piece generator and the same size of board as the saved game.
+     *
+     * @param buffer The buffer to read from at its position.
+     * @throws IllegalArgumentException If the state is for a different piece generator or board size.
+     */
+    public void readState(ByteBuffer buffer) {
+        String name = pieceGenerator.getName();
+        for(int i = 0; i < GENERATOR_NAME_SIZE; i++) {
+            int saved = buffer.get();
+            if(saved != (i < name.length() ? name.charAt(i) : 0))
+                throw new IllegalArgumentException("Cannot load a game using a different piece generator in to a game using the "
+                        + name + " piece generator");
+        }
+
+        // Check the board before changing anything
+        int boardStart = buffer.position() + getStateSize() - GENERATOR_NAME_SIZE - tetrisBoard.getStateSize();
+        int savedWidth = buffer.getShort(boardStart);
+        int savedHeight = buffer.getShort(boardStart + 2);
+        if(savedWidth != tetrisBoard.getGridWidth() || savedHeight != tetrisBoard.getGridHeight())
+            throw new IllegalArgumentException("Cannot load a game on a " + savedWidth + "x" + savedHeight
+                    + " board in to a game on a " + tetrisBoard.getGridWidth() + "x" + tetrisBoard.getGridHeight() + " board");
+
+        score = buffer.getInt();
+        level = buffer.getInt();
+        tickDelay = buffer.getInt();
+        piecesLocked = buffer.getInt();
+        linesCleared = buffer.getInt();
+        tickCount = buffer.getInt();
+        gravityTimer = buffer.getInt();
+        gameOver = buffer.get() != 0;
+        pendingGarbage = buffer.getInt();
+        garbageGap = buffer.getInt();
+        outgoingGarbage = buffer.getInt();
+        readPieceState(buffer, currentPiece);
+        readPieceState(buffer, nextPiece);
+        pieceGenerator.readState(buffer);
+        tetrisBoard.readState(buffer);
+    }
+
+    /**
+     * Writes the type, orientation and position of a piece.
+     *
+     * @param buffer The buffer to write to at its position.
+     * @param piece The piece to save.
+     */
+    private static void writePieceState(ByteBuffer buffer, TetrisPiece piece) {
+        buffer.put((byte)piece.getPieceType());
+        buffer.put((byte)piece.getRotation());
+        buffer.putShort((short)piece.getLeft());
+        buffer.putShort((short)piece.getTop());
+    }
+
+    /**
+     * Reads the type, orientation and position of a piece written by writePieceState().
+     *
+     * @param buffer The buffer to read from at its position.
+     * @param piece The piece to restore.
+     */
+    private static void readPieceState(ByteBuffer buffer, TetrisPiece piece) {
+        int pieceType = buffer.get();
+        int rotation = buffer.get();
+        int left = buffer.getShort();
+        int top = buffer.getShort();
+        piece.setState(pieceType, rotation, left, top);
+    }
+
+    /**
+     * Gets the tetris board containing the grid of placed pieces.
+     *
+     * @return The tetris board.
+     */
+    public TetrisBoard getBoard() { return tetrisBoard; }
+
+    /**
+     * Gets the piece that is currently moving down the board.
+     *
+     * @return The current piece.
+     */
+    public TetrisPiece getCurrentPiece() { return currentPiece; }
+
+    /**
+     * Gets the piece that will be used after the current piece.
+     *
+     * @return The next piece.
+     */
+    public TetrisPiece getNextPiece() { return nextPiece; }
+
+    /**
+     * Gets the generator that selects the pieces after the next piece.
+     * Use peek() on it to look further ahead without changing the sequence.
+     *
+     * @return The piece generator.
+     */
+    public PieceGenerator getPieceGenerator() { return pieceGenerator; }
+
+    /**
+     * Gets the current score.
+     *
+     * @return The current score.
+     */
+    public int getScore() { return score; }
+
+    /**
+     * Gets the current level.
+     *
+     * @return The current level.
+     */
+    public int getLevel() { return level; }
+
+    /**
+     * Gets the delay in milliseconds that should pass between steps at the current level.
+     *
+     * @return The delay between steps in milliseconds.
+     */
+    public int getTickDelay() { return tickDelay; }
+
+    /**
+     * Gets the total number of pieces locked in since the game started.
+     *
+     * @return The number of pieces locked in.
+     */
+    public int getPiecesLocked() { return piecesLocked; }
+
+    /**
+     * Gets the total number of rows matched since the game started.
+     *
+     * @return The number of rows matched.
+     */
+    public int getLinesCleared() { return linesCleared; }
+
+    /**
+     * Gets the number of steps performed since the game started.
+     *
+     * @return The number of steps.
+     */
+    public int getTickCount() { return tickCount; }
+
+    /**
+     * Sets a recorder that every input applied from now on is passed to.
+     *
+     * @param replayRecorder The recorder to use, or null to stop recording.
+     */
+    public void setReplayRecorder(ReplayRecorder replayRecorder) { this.replayRecorder = replayRecorder; }
+
+    /**
+     * Sets the listener told about every piece locked in.
+     *
+     * @param pieceLockListener The listener to use, or null for none.
+     */
+    public void setPieceLockListener(PieceLockListener pieceLockListener) { this.pieceLockListener = pieceLockListener; }
+
+    /**
+     * Checks if the game has been lost.
+     *
+     * @return True if the game is over.
+     */
+    public boolean isGameOver() { return gameOver; }
+}
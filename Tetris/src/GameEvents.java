@@ -0,0 +1,308 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * GameEvents class:
+ * Java Flight Recorder events for moments in a game, so a recording lines gameplay up against
+ * GC pauses, safepoints and the other JVM events. Every event is disabled by default and is
+ * turned on in a recording by name, for example with a .jfc file setting tetris.PieceLocked
+ * enabled. Each event is only created while a running recording has its type enabled, which
+ * is checked by a listener on the flight recorder whenever a recording changes state, so the
+ * game allocates nothing for events that are not being recorded. Enabling an event in a
+ * recording that is already running takes effect the next time a recording changes state.
+ * The begin methods return null when their event is not recorded, and the end methods accept null.
+ */
+public final class GameEvents {
+    /**
+     * True while a running flight recording has the matching event enabled.
+     */
+    private static volatile boolean pieceSpawnedEnabled, pieceLockedEnabled, linesClearedEnabled,
+            levelUpEnabled, repaintEnabled;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                updateEnabled(recorder);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                updateEnabled(FlightRecorder.getFlightRecorder());
+            }
+        });
+    }
+
+    /**
+     * Not used, the events are the nested classes.
+     */
+    private GameEvents() {}
+
+    /**
+     * Checks which events are enabled after a recording has changed state.
+     *
+     * @param recorder The flight recorder.
+     */
+    private static void updateEnabled(FlightRecorder recorder) {
+        boolean running = false;
+        for(Recording other : recorder.getRecordings()) {
+            if(other.getState() == RecordingState.RUNNING)
+                running = true;
+        }
+        pieceSpawnedEnabled = running && EventType.getEventType(PieceSpawned.class).isEnabled();
+        pieceLockedEnabled = running && EventType.getEventType(PieceLocked.class).isEnabled();
+        linesClearedEnabled = running && EventType.getEventType(LinesCleared.class).isEnabled();
+        levelUpEnabled = running && EventType.getEventType(LevelUp.class).isEnabled();
+        repaintEnabled = running && EventType.getEventType(Repaint.class).isEnabled();
+    }
+
+    /**
+     * Emits a PieceSpawned event.
+     *
+     * @param pieceType Type of the piece that started falling.
+     * @param tick Number of gravity steps since the game started.
+     */
+    public static void pieceSpawned(int pieceType, int tick) {
+        if(!pieceSpawnedEnabled) return;
+
+        PieceSpawned event = new PieceSpawned();
+        event.pieceType = pieceType;
+        event.tick = tick;
+        event.commit();
+    }
+
+    /**
+     * Starts timing a PieceLocked event for a piece about to be locked in.
+     *
+     * @param piece The piece being locked in.
+     * @return The started event, or null when the event is not recorded.
+     */
+    public static PieceLocked beginPieceLocked(TetrisPiece piece) {
+        if(!pieceLockedEnabled) return null;
+
+        PieceLocked event = new PieceLocked();
+        event.begin();
+        event.pieceType = piece.getPieceType();
+        event.rotation = piece.getRotation();
+        event.left = piece.getLeft();
+        event.top = piece.getTop();
+        return event;
+    }
+
+    /**
+     * Emits a PieceLocked event started by beginPieceLocked().
+     *
+     * @param event The started event, or null.
+     * @param matches Number of full rows the piece completed.
+     */
+    public static void endPieceLocked(PieceLocked event, int matches) {
+        if(event == null) return;
+
+        event.matches = matches;
+        event.commit();
+    }
+
+    /**
+     * Starts timing a LinesCleared event for full rows about to be removed.
+     *
+     * @return The started event, or null when the event is not recorded.
+     */
+    public static LinesCleared beginLinesCleared() {
+        if(!linesClearedEnabled) return null;
+
+        LinesCleared event = new LinesCleared();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Emits a LinesCleared event started by beginLinesCleared().
+     *
+     * @param event The started event, or null.
+     * @param count Number of rows removed.
+     */
+    public static void endLinesCleared(LinesCleared event, int count) {
+        if(event == null) return;
+
+        event.count = count;
+        event.commit();
+    }
+
+    /**
+     * Emits a LevelUp event.
+     *
+     * @param level The new level.
+     * @param tickDelay The new delay in milliseconds between gravity steps.
+     */
+    public static void levelUp(int level, int tickDelay) {
+        if(!levelUpEnabled) return;
+
+        LevelUp event = new LevelUp();
+        event.level = level;
+        event.tickDelay = tickDelay;
+        event.commit();
+    }
+
+    /**
+     * Starts timing a Repaint event.
+     *
+     * @return The started event, or null when the event is not recorded.
+     */
+    public static Repaint beginRepaint() {
+        if(!repaintEnabled) return null;
+
+        Repaint event = new Repaint();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Emits a Repaint event started by beginRepaint().
+     *
+     * @param event The started event, or null.
+     * @param width Width of the painted area in pixels.
+     * @param height Height of the painted area in pixels.
+     */
+    public static void endRepaint(Repaint event, int width, int height) {
+        if(event == null) return;
+
+        event.width = width;
+        event.height = height;
+        event.commit();
+    }
+
+    /**
+     * A new piece has started falling from the top of the board.
+     */
+    @Name("tetris.PieceSpawned")
+    @Label("Piece Spawned")
+    @Category("Tetris")
+    @Description("A new piece started falling from the top of the board")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class PieceSpawned extends Event {
+        /**
+         * Type of the piece.
+         */
+        @Label("Piece Type")
+        int pieceType;
+        /**
+         * Number of gravity steps since the game started.
+         */
+        @Label("Tick")
+        int tick;
+    }
+
+    /**
+     * A piece was locked in to the board, with the time taken to lock it and check for full rows.
+     */
+    @Name("tetris.PieceLocked")
+    @Label("Piece Locked")
+    @Category("Tetris")
+    @Description("A piece was locked in to the board and checked for full rows")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class PieceLocked extends Event {
+        /**
+         * Type of the piece.
+         */
+        @Label("Piece Type")
+        int pieceType;
+        /**
+         * Rotation of the piece.
+         */
+        @Label("Rotation")
+        int rotation;
+        /**
+         * Column of the left side of the piece.
+         */
+        @Label("Left")
+        int left;
+        /**
+         * Row of the top of the piece.
+         */
+        @Label("Top")
+        int top;
+        /**
+         * Number of full rows the piece completed.
+         */
+        @Label("Matches")
+        int matches;
+    }
+
+    /**
+     * Full rows were removed from the board, timed over the removal.
+     */
+    @Name("tetris.LinesCleared")
+    @Label("Lines Cleared")
+    @Category("Tetris")
+    @Description("Full rows were removed and the rows above moved down")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class LinesCleared extends Event {
+        /**
+         * Number of rows removed.
+         */
+        @Label("Count")
+        int count;
+    }
+
+    /**
+     * The level went up and gravity became faster.
+     */
+    @Name("tetris.LevelUp")
+    @Label("Level Up")
+    @Category("Tetris")
+    @Description("The level went up and the delay between gravity steps changed")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class LevelUp extends Event {
+        /**
+         * The new level.
+         */
+        @Label("Level")
+        int level;
+        /**
+         * The new delay between gravity steps.
+         */
+        @Label("Tick Delay")
+        @Timespan(Timespan.MILLISECONDS)
+        long tickDelay;
+    }
+
+    /**
+     * A frame or part of one was painted, timed over the painting.
+     */
+    @Name("tetris.Repaint")
+    @Label("Repaint")
+    @Category("Tetris")
+    @Description("Part or all of the board was painted")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class Repaint extends Event {
+        /**
+         * Width of the painted area in pixels.
+         */
+        @Label("Width")
+        int width;
+        /**
+         * Height of the painted area in pixels.
+         */
+        @Label("Height")
+        int height;
+    }
+}
@@ -0,0 +1,315 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferStrategy;
+import java.io.IOException;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * GameLoop class:
+ * Runs the game on its own thread instead of a Swing timer. The game engine is advanced
+ * in fixed logic steps of LOGIC_STEP_MILLIS regardless of the frame rate, and every
+ * frame is drawn straight to a canvas through a BufferStrategy with the falling piece
+ * interpolated between cells. Keyboard input from the event dispatch thread is queued
+ * in the InputController and applied at the start of the next logic step, so it never
+ * waits for gravity.
+ */
+public class GameLoop implements Runnable {
+    /**
+     * Milliseconds of game time covered by each logic step.
+     */
+    public static final int LOGIC_STEP_MILLIS = 5;
+    /**
+     * Longest time in nanoseconds caught up on after a stall, so a long pause
+     * such as the window being dragged does not run hundreds of steps at once.
+     */
+    private static final long MAX_CATCH_UP_NANOS = 250_000_000L;
+
+    /**
+     * Reference to the Game for passing changes to score/level/nextpiece.
+     */
+    private final Game game;
+    /**
+     * Canvas in the game frame that every frame is drawn to.
+     */
+    private final Canvas canvas;
+    /**
+     * The headless game engine holding the board, pieces, score and level.
+     * Only used from the game loop thread once the loop has started.
+     */
+    private final GameEngine gameEngine;
+    /**
+     * Nanoseconds between frames, or 0 to draw frames as fast as possible.
+     */
+    private final long frameNanos;
+    /**
+     * Key presses and releases controlling the piece waiting for the next logic step.
+     */
+    private final InputController inputController;
+    /**
+     * True while the game is paused and logic steps are not performed.
+     */
+    private volatile boolean paused;
+    /**
+     * True when a restart has been requested for the next logic step.
+     */
+    private volatile boolean restartRequested;
+    /**
+     * True when a quick save or quick load has been requested for the next logic step.
+     */
+    private volatile boolean saveRequested, loadRequested;
+    /**
+     * Quick save file opened on the first save or load, or null before then.
+     */
+    private SaveFile saveFile;
+    /**
+     * The number of locked pieces when the status panel was last updated.
+     * Used to detect when the next piece has changed.
+     */
+    private int lastPiecesLocked;
+
+    /**
+     * Creates a game loop drawing to the canvas that is started with start().
+     *
+     * @param game Reference to the Game object to pass updates to status panel.
+     * @param canvas Canvas in the game frame to draw to, sized to the board of the game engine.
+     * @param gameEngine The new game engine to play.
+     * @param targetFrameRate Frames drawn per second, or 0 to draw as fast as possible.
+     */
+    public GameLoop(Game game, Canvas canvas, GameEngine gameEngine, int targetFrameRate) {
+        this.game = game;
+        this.canvas = canvas;
+        this.gameEngine = gameEngine;
+        frameNanos = targetFrameRate > 0 ? 1_000_000_000L / targetFrameRate : 0;
+        inputController = game.getInputController();
+        game.setNextPiece(gameEngine.getNextPiece().getPieceType());
+        lastPiecesLocked = gameEngine.getPiecesLocked();
+    }
+
+    /**
+     * Starts the game loop thread. The canvas must already be displayable.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "GameLoop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Performs logic steps to catch up with the time passed since the last frame,
+     * then draws a frame and waits for the time of the next frame.
+     */
+    @Override
+    public void run() {
+        canvas.createBufferStrategy(2);
+        BufferStrategy bufferStrategy = canvas.getBufferStrategy();
+        long stepNanos = LOGIC_STEP_MILLIS * 1_000_000L;
+        long previousTime = System.nanoTime();
+        long accumulator = 0;
+        while(true) {
+            long frameStart = System.nanoTime();
+            accumulator += Math.min(MAX_CATCH_UP_NANOS, frameStart - previousTime);
+            previousTime = frameStart;
+            while(accumulator >= stepNanos) {
+                update();
+                accumulator -= stepNanos;
+            }
+
+            float extraMillis = paused ? 0 : (float)accumulator / 1_000_000L;
+            render(bufferStrategy, extraMillis);
+            waitForNextFrame(frameStart);
+        }
+    }
+
+    /**
+     * Performs a single logic step. Applies a requested restart and any queued
+     * inputs, advances the game engine, and passes changes on to the status panel.
+     */
+    private void update() {
+        long startTime = GameMetrics.ENABLED ? System.nanoTime() : 0;
+        long startAllocated = GameMetrics.ENABLED ? GameMetrics.get().getAllocatedBytes() : 0;
+        if(restartRequested) {
+            restartRequested = false;
+            inputController.clear();
+            gameEngine.restart(System.nanoTime());
+            lastPiecesLocked = -1;
+        }
+        if(saveRequested) {
+            saveRequested = false;
+            quickSave();
+        }
+        if(loadRequested) {
+            loadRequested = false;
+            quickLoad();
+        }
+
+        if(paused || gameEngine.isGameOver()) {
+            inputController.clear();
+        } else {
+            inputController.update(gameEngine, LOGIC_STEP_MILLIS);
+            gameEngine.advance(LOGIC_STEP_MILLIS);
+        }
+        updateStatus();
+        if(GameMetrics.ENABLED)
+            GameMetrics.get().endTick(startTime, startAllocated);
+    }
+
+    /**
+     * Saves the whole state of the game to the quick save file, replacing any earlier save.
+     */
+    private void quickSave() {
+        if(!openSaveFile()) return;
+
+        saveFile.save(0, gameEngine);
+        saveFile.force();
+    }
+
+    /**
+     * Replaces the game with the one in the quick save file if there is one.
+     */
+    private void quickLoad() {
+        if(!openSaveFile()) return;
+
+        try {
+            if(!saveFile.load(0, gameEngine)) return;
+        } catch(IllegalArgumentException e) {
+            System.err.println("Could not load game: " + e.getMessage());
+            return;
+        }
+        inputController.clear();
+        lastPiecesLocked = -1;
+    }
+
+    /**
+     * Opens the quick save file for the size of the board if it is not open already.
+     *
+     * @return False if the file could not be opened.
+     */
+    private boolean openSaveFile() {
+        if(saveFile != null) return true;
+
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        try {
+            saveFile = new SaveFile(SaveFile.QUICK_SAVE_FILE, 1, tetrisBoard.getGridWidth(), tetrisBoard.getGridHeight());
+            return true;
+        } catch(IOException e) {
+            System.err.println("Could not open " + SaveFile.QUICK_SAVE_FILE + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Draws a frame to the back buffer and shows it, drawing it again
+     * if the contents of the buffer are lost.
+     *
+     * @param bufferStrategy The buffers of the canvas.
+     * @param extraMillis Milliseconds passed since the last logic step.
+     */
+    private void render(BufferStrategy bufferStrategy, float extraMillis) {
+        long startTime = GameMetrics.ENABLED ? System.nanoTime() : 0;
+        GameEvents.Repaint repaintEvent = GameEvents.beginRepaint();
+        do {
+            do {
+                Graphics g = bufferStrategy.getDrawGraphics();
+                draw(g, extraMillis);
+                g.dispose();
+            } while(bufferStrategy.contentsRestored());
+            bufferStrategy.show();
+        } while(bufferStrategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+        if(GameMetrics.ENABLED)
+            GameMetrics.get().endPaint(startTime);
+        GameEvents.endRepaint(repaintEvent, gameEngine.getBoard().getWidth(), gameEngine.getBoard().getHeight());
+    }
+
+    /**
+     * Draws the grid, any filled cells on the grid, the current piece part way to the
+     * next cell based on gravity, and a message relevant to any game over or paused state.
+     *
+     * @param g Reference to the Graphics object for drawing.
+     * @param extraMillis Milliseconds passed since the last logic step.
+     */
+    private void draw(Graphics g, float extraMillis) {
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, tetrisBoard.getWidth(), tetrisBoard.getHeight());
+        TetrisPanel.drawGrid(g, tetrisBoard, null);
+        tetrisBoard.paint(g);
+
+        TetrisPiece currentPiece = gameEngine.getCurrentPiece();
+        int offsetY = 0;
+        if(!gameEngine.isGameOver() && tetrisBoard.isMoveValid(0, 1, currentPiece))
+            offsetY = (int)(gameEngine.getGravityProgress(extraMillis) * tetrisBoard.getCellDim());
+        currentPiece.paint(g, tetrisBoard.getCellDim(), offsetY);
+
+        if(gameEngine.isGameOver())
+            TetrisPanel.drawCenteredMessage(g, tetrisBoard, "GAME OVER. R to restart!");
+        else if(paused)
+            TetrisPanel.drawCenteredMessage(g, tetrisBoard, "PAUSED. P to unpause!");
+    }
+
+    /**
+     * Sleeps until the next frame is due when the frame rate is limited.
+     *
+     * @param frameStart Time in nanoseconds the current frame started.
+     */
+    private void waitForNextFrame(long frameStart) {
+        if(frameNanos == 0) {
+            Thread.yield();
+            return;
+        }
+        long remaining = frameStart + frameNanos - System.nanoTime();
+        if(remaining <= 0) return;
+        try {
+            Thread.sleep(remaining / 1_000_000L, (int)(remaining % 1_000_000L));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Passes changes to the score, level and next piece from the game engine
+     * on to the status panel on the event dispatch thread.
+     */
+    private void updateStatus() {
+        if(gameEngine.getPiecesLocked() == lastPiecesLocked) return;
+
+        lastPiecesLocked = gameEngine.getPiecesLocked();
+        // Only the type is passed, as the engine reuses the piece on this thread
+        int nextPieceType = gameEngine.getNextPiece().getPieceType();
+        int score = gameEngine.getScore();
+        int level = gameEngine.getLevel();
+        SwingUtilities.invokeLater(() -> {
+            game.setNextPiece(nextPieceType);
+            game.setScore(score);
+            game.setLevel(level);
+        });
+    }
+
+    /**
+     * Checks for input from the user to apply game changes. The keys controlling the
+     * piece are queued by the Game in the InputController before this is called.
+     *
+     * At any time the game can be paused/unpaused by pressing P to toggle.
+     * At any time the game can be restarted by pressing R.
+     * At any time the game can be saved by pressing F5 and loaded again by pressing F9.
+     * At any time the game can be quit by pressing Escape.
+     *
+     * @param e Information about the key that was pressed.
+     */
+    public void handleKeyEvent(KeyEvent e) {
+        if(e.getKeyCode() == KeyEvent.VK_P) {
+            paused = !paused;
+        } else if(e.getKeyCode() == KeyEvent.VK_R) {
+            restartRequested = true;
+        } else if(e.getKeyCode() == KeyEvent.VK_F5) {
+            saveRequested = true;
+        } else if(e.getKeyCode() == KeyEvent.VK_F9) {
+            loadRequested = true;
+        } else if(e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+            System.exit(0);
+        }
+    }
+}
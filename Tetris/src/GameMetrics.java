@@ -0,0 +1,296 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * GameMetrics class:
+ * Built in instrumentation of where frame time goes. Records latency histograms of tick,
+ * paint, key to screen, match check and row clear durations, and counts pieces locked,
+ * lines cleared and ticks that allocated no memory. Metrics are only collected when the JVM is started
+ * with -Dtetris.metrics=true, in which case they are registered as a JMX MBean and printed
+ * to standard error every -Dtetris.metrics.dumpSeconds (10 by default, 0 to not print).
+ * When disabled, every hook is a check of a static final flag that the JIT removes.
+ */
+public class GameMetrics implements GameMetricsMBean {
+    /**
+     * True when metrics are being collected.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("tetris.metrics");
+    /**
+     * The metrics shared by every part of the game, or null when metrics are not enabled.
+     */
+    private static final GameMetrics INSTANCE = ENABLED ? new GameMetrics() : null;
+    /**
+     * Name the metrics are registered under with JMX.
+     */
+    private static final String OBJECT_NAME = "tetris:type=GameMetrics";
+
+    static {
+        if(ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch(JMException e) {
+                System.err.println("Could not register game metrics with JMX: " + e.getMessage());
+            }
+            int dumpSeconds = Integer.getInteger("tetris.metrics.dumpSeconds", 10);
+            if(dumpSeconds > 0)
+                INSTANCE.startDumping(dumpSeconds);
+        }
+    }
+
+    /**
+     * Gets the shared metrics. Callers must check ENABLED first.
+     *
+     * @return The metrics, or null when metrics are not enabled.
+     */
+    public static GameMetrics get() { return INSTANCE; }
+
+    /**
+     * Durations of timer ticks or logic steps.
+     */
+    private final LatencyHistogram tickTime;
+    /**
+     * Durations of painting a frame.
+     */
+    private final LatencyHistogram paintTime;
+    /**
+     * Times from a key controlling the piece being pressed until the next frame was painted.
+     */
+    private final LatencyHistogram keyToScreenTime;
+    /**
+     * Durations of checking for full rows after a piece locks.
+     */
+    private final LatencyHistogram matchCheckTime;
+    /**
+     * Durations of removing full rows and moving the rows above them down.
+     */
+    private final LatencyHistogram rowClearTime;
+    /**
+     * Number of pieces locked in.
+     */
+    private final AtomicLong piecesLocked;
+    /**
+     * Number of full rows cleared.
+     */
+    private final AtomicLong linesCleared;
+    /**
+     * Number of ticks that allocated no memory on the heap.
+     */
+    private final AtomicLong allocationFreeTicks;
+    /**
+     * Time from System.nanoTime() of the earliest key press not yet shown on screen, or 0 if there is none.
+     */
+    private final AtomicLong pendingKeyTime;
+    /**
+     * Used to measure memory allocated by the current thread, or null if the JVM cannot measure it.
+     */
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * Creates empty metrics.
+     */
+    private GameMetrics() {
+        tickTime = new LatencyHistogram();
+        paintTime = new LatencyHistogram();
+        keyToScreenTime = new LatencyHistogram();
+        matchCheckTime = new LatencyHistogram();
+        rowClearTime = new LatencyHistogram();
+        piecesLocked = new AtomicLong();
+        linesCleared = new AtomicLong();
+        allocationFreeTicks = new AtomicLong();
+        pendingKeyTime = new AtomicLong();
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadBean = null;
+        }
+    }
+
+    /**
+     * Gets a mark to pass to endTick() when a tick starts.
+     *
+     * @return The bytes allocated by the current thread so far, or 0 if that cannot be measured.
+     */
+    public long getAllocatedBytes() {
+        return threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Records the end of a tick started at a time from System.nanoTime().
+     *
+     * @param startNanos The time the tick started.
+     * @param startAllocatedBytes The value of getAllocatedBytes() when the tick started.
+     */
+    public void endTick(long startNanos, long startAllocatedBytes) {
+        tickTime.recordSince(startNanos);
+        if(threadBean != null && threadBean.getCurrentThreadAllocatedBytes() == startAllocatedBytes)
+            allocationFreeTicks.incrementAndGet();
+    }
+
+    /**
+     * Records the end of painting a frame started at a time from System.nanoTime(),
+     * and the latency of the earliest key press waiting to be shown.
+     *
+     * @param startNanos The time painting started.
+     */
+    public void endPaint(long startNanos) {
+        long now = System.nanoTime();
+        paintTime.record(now - startNanos);
+        long keyTime = pendingKeyTime.getAndSet(0);
+        if(keyTime != 0)
+            keyToScreenTime.record(now - keyTime);
+    }
+
+    /**
+     * Records that a key controlling the piece was pressed. Only the earliest key
+     * pressed since the last frame painted is timed.
+     */
+    public void keyPressed() {
+        pendingKeyTime.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Records checking for full rows after a piece was locked.
+     *
+     * @param startNanos The time the check started.
+     * @param lines The number of full rows found.
+     */
+    public void pieceLocked(long startNanos, int lines) {
+        matchCheckTime.recordSince(startNanos);
+        piecesLocked.incrementAndGet();
+        if(lines > 0)
+            linesCleared.addAndGet(lines);
+    }
+
+    /**
+     * Records removing full rows from the board.
+     *
+     * @param startNanos The time removing the rows started.
+     */
+    public void rowsCleared(long startNanos) {
+        rowClearTime.recordSince(startNanos);
+    }
+
+    /**
+     * Starts a daemon thread printing the summary to standard error at a fixed interval.
+     *
+     * @param seconds Seconds between each summary.
+     */
+    private void startDumping(int seconds) {
+        Thread thread = new Thread(() -> {
+            try {
+                while(true) {
+                    Thread.sleep(seconds * 1000L);
+                    System.err.print(getSummary());
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "GameMetricsDump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Formats a histogram as one line of the summary.
+     *
+     * @param builder The summary being built.
+     * @param name Name of the histogram.
+     * @param histogram The histogram to format.
+     */
+    private static void appendHistogram(StringBuilder builder, String name, LatencyHistogram histogram) {
+        builder.append(String.format("%-13s count %8d  mean %8.1f  p50 %7d  p90 %7d  p99 %7d  p99.9 %7d  max %7d us%n",
+                name, histogram.getCount(), histogram.getMean() / 1000,
+                toMicros(histogram.getValueAtPercentile(50)), toMicros(histogram.getValueAtPercentile(90)),
+                toMicros(histogram.getValueAtPercentile(99)), toMicros(histogram.getValueAtPercentile(99.9)),
+                toMicros(histogram.getMax())));
+    }
+
+    /**
+     * Converts nanoseconds to whole microseconds, rounding up so short durations are not shown as 0.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The duration in microseconds.
+     */
+    private static long toMicros(long nanos) {
+        return (nanos + 999) / 1000;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder builder = new StringBuilder("Tetris metrics\n");
+        appendHistogram(builder, "tick", tickTime);
+        appendHistogram(builder, "paint", paintTime);
+        appendHistogram(builder, "key to screen", keyToScreenTime);
+        appendHistogram(builder, "match check", matchCheckTime);
+        appendHistogram(builder, "row clear", rowClearTime);
+        builder.append(String.format("pieces locked %d  lines cleared %d  allocation free ticks %d%n",
+                getPiecesLocked(), getLinesCleared(), getAllocationFreeTicks()));
+        return builder.toString();
+    }
+
+    @Override
+    public long getTickCount() { return tickTime.getCount(); }
+
+    @Override
+    public long getTickP50Micros() { return toMicros(tickTime.getValueAtPercentile(50)); }
+
+    @Override
+    public long getTickP99Micros() { return toMicros(tickTime.getValueAtPercentile(99)); }
+
+    @Override
+    public long getTickMaxMicros() { return toMicros(tickTime.getMax()); }
+
+    @Override
+    public long getPaintCount() { return paintTime.getCount(); }
+
+    @Override
+    public long getPaintP50Micros() { return toMicros(paintTime.getValueAtPercentile(50)); }
+
+    @Override
+    public long getPaintP99Micros() { return toMicros(paintTime.getValueAtPercentile(99)); }
+
+    @Override
+    public long getPaintMaxMicros() { return toMicros(paintTime.getMax()); }
+
+    @Override
+    public long getKeyToScreenP50Micros() { return toMicros(keyToScreenTime.getValueAtPercentile(50)); }
+
+    @Override
+    public long getKeyToScreenP99Micros() { return toMicros(keyToScreenTime.getValueAtPercentile(99)); }
+
+    @Override
+    public long getMatchCheckP99Micros() { return toMicros(matchCheckTime.getValueAtPercentile(99)); }
+
+    @Override
+    public long getRowClearP99Micros() { return toMicros(rowClearTime.getValueAtPercentile(99)); }
+
+    @Override
+    public long getPiecesLocked() { return piecesLocked.get(); }
+
+    @Override
+    public long getLinesCleared() { return linesCleared.get(); }
+
+    @Override
+    public long getAllocationFreeTicks() { return threadBean == null ? -1 : allocationFreeTicks.get(); }
+
+    @Override
+    public void reset() {
+        tickTime.reset();
+        paintTime.reset();
+        keyToScreenTime.reset();
+        matchCheckTime.reset();
+        rowClearTime.reset();
+        piecesLocked.set(0);
+        linesCleared.set(0);
+        allocationFreeTicks.set(0);
+        pendingKeyTime.set(0);
+    }
+}
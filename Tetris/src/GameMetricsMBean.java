@@ -0,0 +1,126 @@
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * GameMetricsMBean interface:
+ * Management interface exposing the GameMetrics over JMX, for example in JConsole
+ * under tetris:type=GameMetrics. Durations are in microseconds.
+ */
+public interface GameMetricsMBean {
+    /**
+     * Gets the number of timer ticks or logic steps timed.
+     *
+     * @return The number of ticks.
+     */
+    long getTickCount();
+
+    /**
+     * Gets the median duration of a tick.
+     *
+     * @return The median tick duration in microseconds.
+     */
+    long getTickP50Micros();
+
+    /**
+     * Gets the 99th percentile duration of a tick.
+     *
+     * @return The 99th percentile tick duration in microseconds.
+     */
+    long getTickP99Micros();
+
+    /**
+     * Gets the longest duration of a tick.
+     *
+     * @return The longest tick duration in microseconds.
+     */
+    long getTickMaxMicros();
+
+    /**
+     * Gets the number of frames painted.
+     *
+     * @return The number of paints.
+     */
+    long getPaintCount();
+
+    /**
+     * Gets the median duration of painting a frame.
+     *
+     * @return The median paint duration in microseconds.
+     */
+    long getPaintP50Micros();
+
+    /**
+     * Gets the 99th percentile duration of painting a frame.
+     *
+     * @return The 99th percentile paint duration in microseconds.
+     */
+    long getPaintP99Micros();
+
+    /**
+     * Gets the longest duration of painting a frame.
+     *
+     * @return The longest paint duration in microseconds.
+     */
+    long getPaintMaxMicros();
+
+    /**
+     * Gets the median time from a key controlling the piece being pressed to the next frame painted.
+     *
+     * @return The median key to screen latency in microseconds.
+     */
+    long getKeyToScreenP50Micros();
+
+    /**
+     * Gets the 99th percentile time from a key controlling the piece being pressed to the next frame painted.
+     *
+     * @return The 99th percentile key to screen latency in microseconds.
+     */
+    long getKeyToScreenP99Micros();
+
+    /**
+     * Gets the 99th percentile duration of checking for full rows after a piece locks.
+     *
+     * @return The 99th percentile match check duration in microseconds.
+     */
+    long getMatchCheckP99Micros();
+
+    /**
+     * Gets the 99th percentile duration of removing full rows from the board.
+     *
+     * @return The 99th percentile row clear duration in microseconds.
+     */
+    long getRowClearP99Micros();
+
+    /**
+     * Gets the number of pieces locked in.
+     *
+     * @return The number of pieces locked.
+     */
+    long getPiecesLocked();
+
+    /**
+     * Gets the number of full rows cleared.
+     *
+     * @return The number of lines cleared.
+     */
+    long getLinesCleared();
+
+    /**
+     * Gets the number of ticks that allocated no memory on the heap.
+     *
+     * @return The number of allocation free ticks, or -1 if allocations cannot be measured.
+     */
+    long getAllocationFreeTicks();
+
+    /**
+     * Gets every metric as the text printed by the periodic dump.
+     *
+     * @return The metrics as text.
+     */
+    String getSummary();
+
+    /**
+     * Removes every recorded duration and resets the counters.
+     */
+    void reset();
+}
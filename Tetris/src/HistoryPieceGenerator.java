@@ -0,0 +1,113 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * HistoryPieceGenerator class:
+ * Selects random pieces while avoiding recently seen piece types. A piece type found
+ * in the history of the last few pieces is rerolled up to a fixed number of times
+ * before it is accepted anyway, making long droughts and repeats unlikely.
+ */
+public class HistoryPieceGenerator extends PieceGenerator {
+    /**
+     * Number of previous pieces remembered.
+     */
+    private static final int HISTORY_SIZE = 4;
+    /**
+     * Number of times a piece is rolled before it is accepted even if it is in the history.
+     */
+    private static final int MAX_ROLLS = 6;
+
+    /**
+     * The most recent pieces with -1 for entries that are not filled yet.
+     */
+    private final int[] history;
+    /**
+     * Index in the history that will be replaced by the next piece.
+     */
+    private int historyIndex;
+
+    /**
+     * Creates the generator with the specified seed.
+     *
+     * @param seed The seed for the generator.
+     */
+    public HistoryPieceGenerator(long seed) {
+        super(seed);
+        history = new int[HISTORY_SIZE];
+        resetState();
+    }
+
+    /**
+     * Rolls for a piece that is not in the history, then records it in the history.
+     *
+     * @return The piece type.
+     */
+    @Override
+    protected int generate() {
+        int pieceType = nextRandom(TetrisPiece.PIECE_TYPE_COUNT);
+        for(int roll = 1; roll < MAX_ROLLS && isInHistory(pieceType); roll++)
+            pieceType = nextRandom(TetrisPiece.PIECE_TYPE_COUNT);
+
+        history[historyIndex] = pieceType;
+        historyIndex = (historyIndex + 1) % HISTORY_SIZE;
+        return pieceType;
+    }
+
+    /**
+     * Clears the history.
+     */
+    @Override
+    protected void resetState() {
+        for(int i = 0; i < HISTORY_SIZE; i++)
+            history[i] = -1;
+        historyIndex = 0;
+    }
+
+    /**
+     * Checks if the piece type is one of the recent pieces.
+     *
+     * @param pieceType The piece type to look for.
+     * @return True if the piece type is in the history.
+     */
+    private boolean isInHistory(int pieceType) {
+        for(int i = 0; i < HISTORY_SIZE; i++) {
+            if(history[i] == pieceType)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the history and the index of the entry replaced next.
+     *
+     * @param buffer The buffer to write to at its position.
+     */
+    @Override
+    protected void writeGeneratorState(ByteBuffer buffer) {
+        buffer.put((byte)historyIndex);
+        for(int i = 0; i < history.length; i++)
+            buffer.put((byte)history[i]);
+    }
+
+    /**
+     * Reads the history and the index of the entry replaced next.
+     *
+     * @param buffer The buffer to read from at its position.
+     */
+    @Override
+    protected void readGeneratorState(ByteBuffer buffer) {
+        historyIndex = buffer.get();
+        for(int i = 0; i < history.length; i++)
+            history[i] = buffer.get();
+    }
+
+    /**
+     * Gets the name of the generator as used by PieceGenerator.create().
+     *
+     * @return The name "history".
+     */
+    @Override
+    public String getName() { return "history"; }
+}
@@ -0,0 +1,297 @@
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * InputController class:
+ * Turns key presses and releases into piece movement on a game engine. Key events are
+ * queued in an InputQueue from the event dispatch thread and applied by update() on the
+ * thread running the game. Every press is applied as soon as it is taken from the queue,
+ * so quick presses are never lost. Holding left or right moves the piece again after the
+ * delayed auto shift (DAS) and then repeatedly at the auto repeat rate (ARR).
+ * Holding down moves the piece down at the auto repeat rate.
+ * A release that does not fit in a full queue is kept as a bit in lostReleases and
+ * queued ahead of the next key event, or applied by update() if no more events come,
+ * so a key is never left held after it was released.
+ */
+public class InputController {
+    /**
+     * Default milliseconds left or right must be held before the piece starts to auto shift.
+     */
+    public static final int DEFAULT_DAS_MILLIS = 170;
+    /**
+     * Default milliseconds between moves while auto shifting or soft dropping.
+     */
+    public static final int DEFAULT_ARR_MILLIS = 50;
+    /**
+     * Number of key events that can wait in the queue.
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * Key events waiting to be applied.
+     */
+    private final InputQueue inputQueue;
+    /**
+     * Bit 1 << input is set for each key released while the queue was full, until the
+     * release is queued by the event dispatch thread or applied by update().
+     */
+    private final AtomicInteger lostReleases;
+    /**
+     * Milliseconds left or right must be held before the piece starts to auto shift.
+     */
+    private final int dasMillis;
+    /**
+     * Milliseconds between moves while auto shifting or soft dropping.
+     * 0 moves the piece as far as it can go as soon as auto shift starts.
+     */
+    private final int arrMillis;
+    /**
+     * True while the matching key is held down.
+     */
+    private boolean leftHeld, rightHeld, downHeld;
+    /**
+     * The INPUT_LEFT or INPUT_RIGHT direction being auto shifted, or INPUT_NONE.
+     * The most recently pressed direction wins when both are held.
+     */
+    private int shiftInput;
+    /**
+     * True once the shift direction has been held longer than the delayed auto shift.
+     */
+    private boolean shiftCharged;
+    /**
+     * Milliseconds the shift direction has been held since it was pressed or last repeated.
+     */
+    private int shiftTimer;
+    /**
+     * Milliseconds down has been held since it was pressed or last repeated.
+     */
+    private int softDropTimer;
+
+    /**
+     * Creates a controller with an empty queue and no keys held.
+     *
+     * @param dasMillis Milliseconds left or right must be held before auto shift starts.
+     * @param arrMillis Milliseconds between moves while auto shifting, or 0 to move instantly.
+     */
+    public InputController(int dasMillis, int arrMillis) {
+        this.dasMillis = dasMillis;
+        this.arrMillis = arrMillis;
+        inputQueue = new InputQueue(QUEUE_CAPACITY);
+        lostReleases = new AtomicInteger();
+        shiftInput = GameEngine.INPUT_NONE;
+    }
+
+    /**
+     * Gets the input controlled by a key.
+     *
+     * @param keyCode The KeyEvent key code.
+     * @return One of the GameEngine INPUT_ constants, or INPUT_NONE if the key does not control the piece.
+     */
+    public static int getInputForKey(int keyCode) {
+        switch(keyCode) {
+            case KeyEvent.VK_LEFT: return GameEngine.INPUT_LEFT;
+            case KeyEvent.VK_RIGHT: return GameEngine.INPUT_RIGHT;
+            case KeyEvent.VK_DOWN: return GameEngine.INPUT_DOWN;
+            case KeyEvent.VK_SPACE: return GameEngine.INPUT_HARD_DROP;
+            case KeyEvent.VK_Z: return GameEngine.INPUT_ROTATE_LEFT;
+            case KeyEvent.VK_X: return GameEngine.INPUT_ROTATE_RIGHT;
+            default: return GameEngine.INPUT_NONE;
+        }
+    }
+
+    /**
+     * Queues a key press. Called from the event dispatch thread.
+     * The press is dropped if the queue is full.
+     *
+     * @param keyCode The KeyEvent key code.
+     * @return True if the key controls the piece.
+     */
+    public boolean offerKeyPressed(int keyCode) {
+        int input = getInputForKey(keyCode);
+        if(input == GameEngine.INPUT_NONE) return false;
+
+        // A press must not be applied before an earlier release of the same key
+        if(offerLostReleases())
+            inputQueue.offer(input);
+        return true;
+    }
+
+    /**
+     * Queues a key release. Called from the event dispatch thread.
+     * If the queue is full the release is kept until it can be queued or applied.
+     *
+     * @param keyCode The KeyEvent key code.
+     * @return True if the key controls the piece.
+     */
+    public boolean offerKeyReleased(int keyCode) {
+        int input = getInputForKey(keyCode);
+        if(input == GameEngine.INPUT_NONE) return false;
+
+        if(!offerLostReleases() || !inputQueue.offer(input | InputQueue.KEY_RELEASED))
+            lostReleases.accumulateAndGet(1 << input, (lost, bit) -> lost | bit);
+        return true;
+    }
+
+    /**
+     * Queues every release that did not fit in the queue before. Releases that
+     * still do not fit are kept. Called from the event dispatch thread.
+     *
+     * @return True if there are no releases left waiting.
+     */
+    private boolean offerLostReleases() {
+        int lost = lostReleases.getAndSet(0);
+        if(lost == 0) return true;
+
+        int remaining = 0;
+        for(int input = GameEngine.INPUT_LEFT; input <= GameEngine.INPUT_ROTATE_RIGHT; input++) {
+            if((lost & (1 << input)) != 0 && !inputQueue.offer(input | InputQueue.KEY_RELEASED))
+                remaining |= 1 << input;
+        }
+        if(remaining == 0) return true;
+
+        lostReleases.accumulateAndGet(remaining, (current, bits) -> current | bits);
+        return false;
+    }
+
+    /**
+     * Applies every queued key event to the game engine, then moves the piece for
+     * any held keys based on the time passed. Called from the thread running the game.
+     *
+     * @param gameEngine The game engine to move the piece in.
+     * @param elapsedMillis Milliseconds passed since the last update.
+     * @return True if any input was applied.
+     */
+    public boolean update(GameEngine gameEngine, int elapsedMillis) {
+        boolean applied = false;
+        int event;
+        while((event = inputQueue.poll()) != InputQueue.EMPTY) {
+            if((event & InputQueue.KEY_RELEASED) != 0)
+                keyReleased(event & ~InputQueue.KEY_RELEASED);
+            else
+                applied |= keyPressed(gameEngine, event);
+        }
+        // Releases that never fit in the queue came after every event in it
+        int lost = lostReleases.getAndSet(0);
+        for(int input = GameEngine.INPUT_LEFT; lost != 0 && input <= GameEngine.INPUT_ROTATE_RIGHT; input++) {
+            if((lost & (1 << input)) != 0)
+                keyReleased(input);
+        }
+
+        if(shiftInput != GameEngine.INPUT_NONE) {
+            shiftTimer += elapsedMillis;
+            if(!shiftCharged && shiftTimer >= dasMillis) {
+                shiftCharged = true;
+                shiftTimer -= dasMillis;
+                applied |= autoShift(gameEngine);
+            }
+            while(shiftCharged && arrMillis > 0 && shiftTimer >= arrMillis) {
+                shiftTimer -= arrMillis;
+                applied |= autoShift(gameEngine);
+            }
+        }
+        if(downHeld) {
+            softDropTimer += elapsedMillis;
+            while(softDropTimer >= Math.max(1, arrMillis)) {
+                softDropTimer -= Math.max(1, arrMillis);
+                gameEngine.applyAction(GameEngine.INPUT_DOWN);
+                applied = true;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Forgets every queued key event and held key, for when the game is restarted or
+     * inputs are being ignored. Called from the thread running the game.
+     */
+    public void clear() {
+        inputQueue.clear();
+        lostReleases.set(0);
+        leftHeld = rightHeld = downHeld = false;
+        shiftInput = GameEngine.INPUT_NONE;
+    }
+
+    /**
+     * Applies a key press. Repeated presses from the keyboard's own auto repeat
+     * while a movement key is already held are ignored.
+     *
+     * @param gameEngine The game engine to move the piece in.
+     * @param input The input that was pressed.
+     * @return True if the input was applied.
+     */
+    private boolean keyPressed(GameEngine gameEngine, int input) {
+        if(input == GameEngine.INPUT_LEFT || input == GameEngine.INPUT_RIGHT) {
+            if(input == GameEngine.INPUT_LEFT ? leftHeld : rightHeld) return false;
+
+            if(input == GameEngine.INPUT_LEFT)
+                leftHeld = true;
+            else
+                rightHeld = true;
+            startShift(input);
+        } else if(input == GameEngine.INPUT_DOWN) {
+            if(downHeld) return false;
+
+            downHeld = true;
+            softDropTimer = 0;
+        }
+        gameEngine.applyAction(input);
+        return true;
+    }
+
+    /**
+     * Applies a key release. Releasing the shift direction while the other direction
+     * is still held starts shifting in the other direction.
+     *
+     * @param input The input that was released.
+     */
+    private void keyReleased(int input) {
+        if(input == GameEngine.INPUT_LEFT)
+            leftHeld = false;
+        else if(input == GameEngine.INPUT_RIGHT)
+            rightHeld = false;
+        else if(input == GameEngine.INPUT_DOWN)
+            downHeld = false;
+
+        if(input == shiftInput) {
+            if(leftHeld)
+                startShift(GameEngine.INPUT_LEFT);
+            else if(rightHeld)
+                startShift(GameEngine.INPUT_RIGHT);
+            else
+                shiftInput = GameEngine.INPUT_NONE;
+        }
+    }
+
+    /**
+     * Starts waiting for the delayed auto shift in a direction.
+     *
+     * @param input INPUT_LEFT or INPUT_RIGHT.
+     */
+    private void startShift(int input) {
+        shiftInput = input;
+        shiftCharged = false;
+        shiftTimer = 0;
+    }
+
+    /**
+     * Moves the piece once in the shift direction, or as far as it can go when
+     * the auto repeat rate is 0.
+     *
+     * @param gameEngine The game engine to move the piece in.
+     * @return True if the piece was moved.
+     */
+    private boolean autoShift(GameEngine gameEngine) {
+        int dx = shiftInput == GameEngine.INPUT_LEFT ? -1 : 1;
+        boolean moved = false;
+        do {
+            if(gameEngine.isGameOver() || !gameEngine.getBoard().isMoveValid(dx, 0, gameEngine.getCurrentPiece()))
+                return moved;
+            gameEngine.applyAction(shiftInput);
+            moved = true;
+        } while(arrMillis == 0);
+        return moved;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * InputQueue class:
+ * Lock-free single producer, single consumer ring buffer of input events.
+ * The event dispatch thread offers key presses and releases, and the thread running
+ * the game polls them, without either thread blocking or allocating. Each event is a
+ * GameEngine INPUT_ constant, with KEY_RELEASED added when the key was released.
+ */
+public class InputQueue {
+    /**
+     * Flag added to an input when the event is the key being released.
+     */
+    public static final int KEY_RELEASED = 0x80;
+    /**
+     * Value returned by poll() when there are no events waiting.
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * Ring buffer of events with a power of two length.
+     */
+    private final int[] events;
+    /**
+     * Mask applied to an index to find its slot in the ring buffer.
+     */
+    private final int indexMask;
+    /**
+     * Total number of events offered. Only written by the producer.
+     */
+    private final AtomicLong writeIndex;
+    /**
+     * Total number of events polled. Only written by the consumer.
+     */
+    private final AtomicLong readIndex;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity Maximum number of waiting events, rounded up to a power of two.
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        events = new int[size];
+        indexMask = size - 1;
+        writeIndex = new AtomicLong();
+        readIndex = new AtomicLong();
+    }
+
+    /**
+     * Adds an event to the end of the queue. Must only be called from the producer thread.
+     *
+     * @param event The event to add.
+     * @return False if the queue is full and the event was dropped.
+     */
+    public boolean offer(int event) {
+        long write = writeIndex.get();
+        if(write - readIndex.get() == events.length) return false;
+
+        events[(int)write & indexMask] = event;
+        // Publishes the event before the new index is seen by the consumer
+        writeIndex.lazySet(write + 1);
+        return true;
+    }
+
+    /**
+     * Removes the event at the front of the queue. Must only be called from the consumer thread.
+     *
+     * @return The event, or EMPTY if there are no events waiting.
+     */
+    public int poll() {
+        long read = readIndex.get();
+        if(read == writeIndex.get()) return EMPTY;
+
+        int event = events[(int)read & indexMask];
+        readIndex.lazySet(read + 1);
+        return event;
+    }
+
+    /**
+     * Removes every waiting event. Must only be called from the consumer thread.
+     */
+    public void clear() {
+        readIndex.lazySet(writeIndex.get());
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * LatencyHistogram class:
+ * Counts durations in nanoseconds in log-linear buckets, in the same way as HdrHistogram.
+ * Values below SUB_BUCKET_COUNT have a bucket each, and every power of two above that is
+ * split into SUB_BUCKET_COUNT equal buckets, so any recorded value is known to within about
+ * 3% while the whole range of a long fits in under two thousand counters. Recording is a
+ * single atomic increment without allocation, and can be done from any thread.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of bits of a value kept exactly when it is put in a bucket.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * Number of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * Number of buckets needed to hold any positive long.
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /**
+     * Number of values recorded in each bucket.
+     */
+    private final AtomicLongArray counts;
+    /**
+     * Number of values recorded.
+     */
+    private final AtomicLong totalCount;
+    /**
+     * Sum of every value recorded, for the mean.
+     */
+    private final AtomicLong totalValue;
+    /**
+     * Largest value recorded.
+     */
+    private final AtomicLong maxValue;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKET_COUNT);
+        totalCount = new AtomicLong();
+        totalValue = new AtomicLong();
+        maxValue = new AtomicLong();
+    }
+
+    /**
+     * Records a duration. Negative durations are recorded as 0.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(getBucket(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long max = maxValue.get();
+        while(value > max && !maxValue.compareAndSet(max, value))
+            max = maxValue.get();
+    }
+
+    /**
+     * Records the time passed since a start time taken from System.nanoTime().
+     *
+     * @param startNanos The time the duration started.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Finds the bucket a value is counted in.
+     *
+     * @param value A value that is not negative.
+     * @return Index of the bucket.
+     */
+    private static int getBucket(long value) {
+        if(value < SUB_BUCKET_COUNT) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Gets the largest value counted in a bucket.
+     *
+     * @param bucket Index of the bucket.
+     * @return The largest value the bucket holds.
+     */
+    private static long getBucketMaxValue(int bucket) {
+        if(bucket < SUB_BUCKET_COUNT) return bucket;
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = (long)(SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the value that the given percentage of recorded values are at or below. The value
+     * is the top of the bucket it falls in, capped at the largest value recorded. Values being
+     * recorded at the same time may or may not be included.
+     *
+     * @param percentile Percentage between 0 and 100.
+     * @return The value at the percentile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if(count == 0) return 0;
+        long target = Math.max(1, (long)Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for(int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if(seen >= target)
+                return Math.min(getBucketMaxValue(bucket), maxValue.get());
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The number of values.
+     */
+    public long getCount() { return totalCount.get(); }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return The largest value, or 0 if nothing has been recorded.
+     */
+    public long getMax() { return maxValue.get(); }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @return The mean value, or 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double)totalValue.get() / count;
+    }
+
+    /**
+     * Removes every recorded value. Values being recorded at the same time may be kept.
+     */
+    public void reset() {
+        for(int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+            counts.set(bucket, 0);
+        totalCount.set(0);
+        totalValue.set(0);
+        maxValue.set(0);
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * MatchClient class:
+ * Load generator for the MatchServer. Keeps a number of connections open at once, each
+ * played by a TetrisBot, and opens a new connection whenever a match ends. Each connection
+ * keeps a copy of its board by repeating every lock the server reports, so the bot always
+ * searches the same board the server plays on. The bot waits a think time after each piece
+ * appears before sending its inputs, to play at a human pace rather than as fast as the
+ * server can answer. All connections share a single thread and selector.
+ */
+public class MatchClient {
+    /**
+     * Runs the load generator from the command line and prints the results.
+     * Usage: MatchClient [connections] [seconds] [thinkMillis] [port]
+     *
+     * @param args Number of connections kept open, how long to run for, milliseconds the bot
+     *             waits before moving each piece, and the port of the server on the loopback address.
+     * @throws IOException If the server could not be connected to.
+     */
+    public static void main(String[] args) throws IOException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int thinkMillis = args.length > 2 ? Integer.parseInt(args[2]) : 250;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : MatchServer.DEFAULT_PORT;
+
+        MatchClient client = new MatchClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                connections, thinkMillis);
+        client.run(seconds * 1000L);
+        System.out.print(client.getSummary());
+    }
+
+    /**
+     * Address of the server.
+     */
+    private final InetSocketAddress serverAddress;
+    /**
+     * Number of connections kept open.
+     */
+    private final int connectionCount;
+    /**
+     * Milliseconds the bot waits after a piece appears before sending its inputs.
+     */
+    private final int thinkMillis;
+    /**
+     * Selector shared by every connection.
+     */
+    private Selector selector;
+    /**
+     * Number of matches finished with each result, indexed by the MatchServer RESULT_ constants.
+     */
+    private final long[] results;
+    /**
+     * Number of pieces locked in across every connection.
+     */
+    private long piecesLocked;
+    /**
+     * Number of connections the server closed without sending a result.
+     */
+    private long connectionsDropped;
+    /**
+     * Time from sending the inputs for a piece until the server reported the piece locked.
+     */
+    private final LatencyHistogram lockLatency;
+
+    /**
+     * Creates the load generator.
+     *
+     * @param serverAddress Address of the server.
+     * @param connectionCount Number of connections kept open.
+     * @param thinkMillis Milliseconds the bot waits after a piece appears before sending its inputs.
+     */
+    public MatchClient(InetSocketAddress serverAddress, int connectionCount, int thinkMillis) {
+        this.serverAddress = serverAddress;
+        this.connectionCount = connectionCount;
+        this.thinkMillis = thinkMillis;
+        results = new long[MatchServer.RESULT_DRAW + 1];
+        lockLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Plays matches until the duration has passed, then closes every connection.
+     *
+     * @param durationMillis Milliseconds to run for.
+     * @throws IOException If a connection could not be opened.
+     */
+    public void run(long durationMillis) throws IOException {
+        selector = Selector.open();
+        for(int i = 0; i < connectionCount; i++)
+            connect();
+
+        long end = System.currentTimeMillis() + durationMillis;
+        while(System.currentTimeMillis() < end) {
+            selector.select(Math.max(1, Math.min(thinkMillis, 100)));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if(key.isValid() && key.isReadable())
+                    ((Connection)key.attachment()).read();
+            }
+            long now = System.nanoTime();
+            // Copied as reconnecting registers new keys
+            for(SelectionKey key : selector.keys().toArray(new SelectionKey[0])) {
+                if(key.isValid())
+                    ((Connection)key.attachment()).sendMovesIfDue(now);
+            }
+        }
+        for(SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+    }
+
+    /**
+     * Opens a new connection and registers it with the selector.
+     *
+     * @throws IOException If the connection could not be opened.
+     */
+    private void connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(serverAddress);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Gets the results as text.
+     *
+     * @return The number of matches with each result, pieces locked, and lock latency.
+     */
+    public String getSummary() {
+        return String.format("matches won %d  lost %d  drawn %d  dropped %d  pieces locked %d%n"
+                        + "send to lock p50 %d us  p99 %d us  max %d us%n",
+                results[MatchServer.RESULT_WIN], results[MatchServer.RESULT_LOSS], results[MatchServer.RESULT_DRAW],
+                connectionsDropped, piecesLocked,
+                lockLatency.getValueAtPercentile(50) / 1000, lockLatency.getValueAtPercentile(99) / 1000,
+                lockLatency.getMax() / 1000);
+    }
+
+    /**
+     * A connection to the server playing one match, with the bot's copy of the board.
+     */
+    private class Connection {
+        /**
+         * Connection to the server.
+         */
+        private final SocketChannel channel;
+        /**
+         * Registration of the connection with the selector.
+         */
+        private SelectionKey key;
+        /**
+         * Messages read from the server, including any partial message.
+         */
+        private final ByteBuffer input;
+        /**
+         * Inputs being sent to the server.
+         */
+        private final ByteBuffer output;
+        /**
+         * Copy of the board kept the same as the server's, or null before the match starts.
+         */
+        private TetrisBoard board;
+        /**
+         * The bot choosing the moves.
+         */
+        private final TetrisBot bot;
+        /**
+         * The piece falling and the piece after it, placed at their start position.
+         */
+        private TetrisPiece currentPiece, nextPiece;
+        /**
+         * Inputs found by the bot.
+         */
+        private int[] moves;
+        /**
+         * Time from System.nanoTime() at which to send the moves for the current piece, or 0 if sent.
+         */
+        private long movesDue;
+        /**
+         * Time from System.nanoTime() the moves for the current piece were sent.
+         */
+        private long movesSent;
+
+        /**
+         * Creates a connection waiting for its match to start.
+         *
+         * @param channel Connection to the server.
+         */
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            input = ByteBuffer.allocate(1024);
+            output = ByteBuffer.allocate(256);
+            bot = new TetrisBot();
+        }
+
+        /**
+         * Reads and handles every complete message from the server.
+         */
+        private void read() {
+            int count;
+            try {
+                count = channel.read(input);
+            } catch(IOException e) {
+                count = -1;
+            }
+            if(count < 0) {
+                connectionsDropped++;
+                reconnect();
+                return;
+            }
+            input.flip();
+            while(input.hasRemaining()) {
+                int type = input.get(input.position());
+                int size = type == MatchServer.MSG_MATCH_START ? MatchServer.MATCH_START_SIZE
+                        : type == MatchServer.MSG_PIECE_LOCKED ? MatchServer.PIECE_LOCKED_SIZE
+                        : MatchServer.MATCH_OVER_SIZE;
+                if(input.remaining() < size) break;
+                input.get();
+                if(type == MatchServer.MSG_MATCH_START)
+                    readMatchStart();
+                else if(type == MatchServer.MSG_PIECE_LOCKED)
+                    readPieceLocked();
+                else {
+                    results[input.get()]++;
+                    reconnect();
+                    return;
+                }
+            }
+            input.compact();
+        }
+
+        /**
+         * Creates the board and the first two pieces.
+         */
+        private void readMatchStart() {
+            int gridWidth = input.getShort();
+            int gridHeight = input.getShort();
+            board = new TetrisBoard(gridWidth, gridHeight, TetrisBoard.DEFAULT_CELL_DIM);
+            Position start = new Position(gridWidth / 2, -2);
+            currentPiece = new TetrisPiece(start);
+            nextPiece = new TetrisPiece(start);
+            moves = new int[TetrisBot.getMaxInputs(board)];
+            setPieces(input.get(), input.get());
+        }
+
+        /**
+         * Repeats a lock on the copy of the board in the same order as GameEngine.lockInPiece().
+         */
+        private void readPieceLocked() {
+            int pieceType = input.get();
+            int rotation = input.get();
+            int left = input.getShort();
+            int top = input.getShort();
+            boolean matchedRowsPending = input.get() != 0;
+            int garbageRows = input.getShort();
+            int garbageGap = input.getShort();
+            int current = input.get();
+            int next = input.get();
+            input.getInt();
+
+            if(movesSent != 0) {
+                lockLatency.recordSince(movesSent);
+                movesSent = 0;
+            }
+            piecesLocked++;
+            if(!matchedRowsPending && board.hasMatchedRows())
+                board.clearMatchedRows();
+            board.lockInPiece(pieceType, rotation, left, top);
+            board.checkForMatches();
+            if(garbageRows > 0) {
+                if(board.hasMatchedRows())
+                    board.clearMatchedRows();
+                board.addGarbageRows(garbageRows, garbageGap);
+            }
+            setPieces(current, next);
+        }
+
+        /**
+         * Resets the pieces to their start position and schedules the moves for the new current piece.
+         *
+         * @param current Type of the piece now falling.
+         * @param next Type of the piece after it.
+         */
+        private void setPieces(int current, int next) {
+            currentPiece.reset(current);
+            nextPiece.reset(next);
+            movesDue = System.nanoTime() + thinkMillis * 1000000L;
+        }
+
+        /**
+         * Sends the bot's inputs for the current piece once the think time has passed.
+         *
+         * @param now The current time from System.nanoTime().
+         */
+        private void sendMovesIfDue(long now) {
+            if(movesDue == 0 || now - movesDue < 0) return;
+            movesDue = 0;
+            int count = bot.findMoves(board, currentPiece, nextPiece, moves);
+            output.clear();
+            for(int i = 0; i < count; i++)
+                output.put((byte)moves[i]);
+            output.flip();
+            try {
+                // Small enough to always fit in the socket's send buffer
+                channel.write(output);
+                movesSent = now;
+            } catch(IOException e) {
+                connectionsDropped++;
+                reconnect();
+            }
+        }
+
+        /**
+         * Closes the connection and opens a new one for the next match.
+         */
+        private void reconnect() {
+            key.cancel();
+            try {
+                channel.close();
+                connect();
+            } catch(IOException e) {
+                System.err.println("Could not reconnect: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,776 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * MatchServer class:
+ * Hosts two player matches over TCP on the loopback address. Every match runs both games
+ * authoritatively on headless GameEngines, and the clients only send the same INPUT_ actions
+ * the tetris panel applies for key presses. Clearing rows sends garbage rows to the opponent,
+ * and the first player to top out or disconnect loses.
+ *
+ * Connections are paired in the order they arrive, and each match is owned by one of a
+ * fixed pool of event loop threads. A loop waits on a selector for input from all of its
+ * connections and advances every one of its matches at a fixed tick, so thousands of matches
+ * share a few threads and no match state is ever touched by two threads. Each player has
+ * fixed size input and output buffers, and a client that does not read its messages fast
+ * enough to fit in the output buffer is disconnected, so the memory of a match never grows.
+ * A finished match is only closed once both players have been sent all of their messages,
+ * or CLOSE_TIMEOUT_MILLIS after it finished if a client stops reading.
+ *
+ * Messages from the server start with a MSG_ byte:
+ *   MSG_MATCH_START, short grid width, short grid height, byte current piece, byte next piece
+ *   MSG_PIECE_LOCKED, byte piece type, byte rotation, short left, short top,
+ *                     byte 1 if full rows from the previous piece were still on the board,
+ *                     short garbage rows added, short garbage gap column,
+ *                     byte current piece, byte next piece, int score
+ *   MSG_MATCH_OVER, byte RESULT_ constant
+ * Clients send one byte per GameEngine INPUT_ constant from INPUT_LEFT to INPUT_ROTATE_RIGHT.
+ */
+public class MatchServer implements Closeable {
+    /**
+     * Starts a server from the command line and prints statistics every ten seconds.
+     * Usage: MatchServer [port] [threads] [tickMillis] [gridWidth] [gridHeight]
+     *
+     * @param args Port to listen on (0 for any free port), number of event loop threads,
+     *             milliseconds between ticks and the board size of every match.
+     * @throws IOException If the server could not listen on the port.
+     * @throws InterruptedException If interrupted while waiting to print statistics.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int tickMillis = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TICK_MILLIS;
+        int gridWidth = args.length > 3 ? Integer.parseInt(args[3]) : TetrisBoard.DEFAULT_GRID_WIDTH;
+        int gridHeight = args.length > 4 ? Integer.parseInt(args[4]) : TetrisBoard.DEFAULT_GRID_HEIGHT;
+
+        MatchServer server = new MatchServer(port, threads, tickMillis, gridWidth, gridHeight);
+        server.start();
+        System.out.println("Listening on " + server.getAddress() + " with " + threads + " event loops");
+        while(true) {
+            Thread.sleep(10000);
+            System.out.print(server.getSummary());
+        }
+    }
+
+    /**
+     * Port listened on when none is given.
+     */
+    public static final int DEFAULT_PORT = 7390;
+    /**
+     * Milliseconds between each tick of the matches when none is given.
+     */
+    public static final int DEFAULT_TICK_MILLIS = 16;
+    /**
+     * Sent to both players when a match starts.
+     */
+    public static final int MSG_MATCH_START = 1;
+    /**
+     * Sent to a player every time one of their pieces is locked in.
+     */
+    public static final int MSG_PIECE_LOCKED = 2;
+    /**
+     * Sent to each connected player when the match ends.
+     */
+    public static final int MSG_MATCH_OVER = 3;
+    /**
+     * Size in bytes of a MSG_MATCH_START message.
+     */
+    public static final int MATCH_START_SIZE = 7;
+    /**
+     * Size in bytes of a MSG_PIECE_LOCKED message.
+     */
+    public static final int PIECE_LOCKED_SIZE = 18;
+    /**
+     * Size in bytes of a MSG_MATCH_OVER message.
+     */
+    public static final int MATCH_OVER_SIZE = 2;
+    /**
+     * Result for a player whose opponent lost first.
+     */
+    public static final int RESULT_WIN = 1;
+    /**
+     * Result for a player who topped out or disconnected.
+     */
+    public static final int RESULT_LOSS = 2;
+    /**
+     * Result when both players lost in the same tick.
+     */
+    public static final int RESULT_DRAW = 3;
+
+    /**
+     * Bytes of input read from a client at once.
+     */
+    private static final int INPUT_BUFFER_SIZE = 64;
+    /**
+     * Bytes of messages waiting to be sent to a client before the client is disconnected.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1024;
+    /**
+     * Milliseconds a finished match waits for its last messages to be sent before it is closed anyway.
+     */
+    private static final int CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Channel accepting new connections.
+     */
+    private final ServerSocketChannel serverChannel;
+    /**
+     * Loops running the matches.
+     */
+    private final EventLoop[] eventLoops;
+    /**
+     * Milliseconds between each tick of the matches.
+     */
+    private final int tickMillis;
+    /**
+     * Size of the board in every match.
+     */
+    private final int gridWidth, gridHeight;
+    /**
+     * Thread accepting connections and pairing them into matches.
+     */
+    private final Thread acceptThread;
+    /**
+     * Number of matches started and finished since the server started.
+     */
+    private final AtomicLong matchesStarted, matchesFinished;
+    /**
+     * Number of pieces locked in across every match.
+     */
+    private final AtomicLong piecesLocked;
+    /**
+     * Time taken by each event loop to tick all of its matches.
+     */
+    private final LatencyHistogram tickTime;
+    /**
+     * Set once the server is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a server listening on the loopback address. Matches are not run until start() is called.
+     *
+     * @param port Port to listen on, or 0 for any free port.
+     * @param threads Number of event loop threads to run the matches on.
+     * @param tickMillis Milliseconds between each tick of the matches.
+     * @param gridWidth Number of columns on the board in every match.
+     * @param gridHeight Number of rows on the board in every match.
+     * @throws IOException If the server could not listen on the port.
+     */
+    public MatchServer(int port, int threads, int tickMillis, int gridWidth, int gridHeight) throws IOException {
+        // Fail now rather than in every match
+        new TetrisBoard(gridWidth, gridHeight, TetrisBoard.DEFAULT_CELL_DIM);
+        this.tickMillis = tickMillis;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        matchesStarted = new AtomicLong();
+        matchesFinished = new AtomicLong();
+        piecesLocked = new AtomicLong();
+        tickTime = new LatencyHistogram();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        eventLoops = new EventLoop[threads];
+        for(int i = 0; i < threads; i++)
+            eventLoops[i] = new EventLoop(Selector.open());
+        acceptThread = new Thread(this::acceptConnections, "MatchServerAccept");
+    }
+
+    /**
+     * Starts accepting connections and running matches.
+     */
+    public void start() {
+        for(int i = 0; i < eventLoops.length; i++) {
+            Thread thread = new Thread(eventLoops[i], "MatchServerLoop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Gets the address the server is listening on.
+     *
+     * @return The local address and port.
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress)serverChannel.getLocalAddress();
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of matches started since the server started.
+     *
+     * @return The number of matches started.
+     */
+    public long getMatchesStarted() { return matchesStarted.get(); }
+
+    /**
+     * Gets the number of matches finished since the server started.
+     *
+     * @return The number of matches finished.
+     */
+    public long getMatchesFinished() { return matchesFinished.get(); }
+
+    /**
+     * Gets the number of pieces locked in across every match.
+     *
+     * @return The number of pieces locked.
+     */
+    public long getPiecesLocked() { return piecesLocked.get(); }
+
+    /**
+     * Gets the statistics printed by main() as text.
+     *
+     * @return The number of matches and pieces, and the time taken to tick the matches.
+     */
+    public String getSummary() {
+        long started = matchesStarted.get();
+        long finished = matchesFinished.get();
+        return String.format("matches active %d  started %d  finished %d  pieces locked %d  "
+                        + "tick p50 %d us  p99 %d us  max %d us%n",
+                started - finished, started, finished, piecesLocked.get(),
+                tickTime.getValueAtPercentile(50) / 1000, tickTime.getValueAtPercentile(99) / 1000,
+                tickTime.getMax() / 1000);
+    }
+
+    /**
+     * Stops accepting connections and closes every match.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        for(EventLoop eventLoop : eventLoops)
+            eventLoop.selector.wakeup();
+    }
+
+    /**
+     * Accepts connections until the server is closed, pairing each connection with the
+     * next one into a match. Matches are handed to the event loops in turn.
+     */
+    private void acceptConnections() {
+        SplittableRandom seeds = new SplittableRandom();
+        SocketChannel waiting = null;
+        int nextLoop = 0;
+        try {
+            while(!closed) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if(waiting == null) {
+                    waiting = channel;
+                    continue;
+                }
+                eventLoops[nextLoop].addMatch(waiting, channel, seeds.nextLong());
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+                waiting = null;
+            }
+        } catch(ClosedChannelException e) {
+            // Server closed
+        } catch(IOException e) {
+            if(!closed)
+                System.err.println("Stopped accepting connections: " + e.getMessage());
+        }
+        closeQuietly(waiting);
+    }
+
+    /**
+     * Closes a channel ignoring any error.
+     *
+     * @param channel The channel to close, or null.
+     */
+    private static void closeQuietly(SocketChannel channel) {
+        if(channel == null) return;
+        try {
+            channel.close();
+        } catch(IOException e) {
+            // Already closed by the client
+        }
+    }
+
+    /**
+     * Thread running every match given to it. Waits on the selector for input until
+     * the next tick is due, then advances every match and sends the messages they produced.
+     */
+    private class EventLoop implements Runnable {
+        /**
+         * Selector with the connection of every player in the loop's matches.
+         */
+        private final Selector selector;
+        /**
+         * Pairs of connections waiting to be started as matches by the loop thread.
+         */
+        private final ConcurrentLinkedQueue<Match> newMatches;
+        /**
+         * Matches being played on this loop.
+         */
+        private final List<Match> matches;
+
+        /**
+         * Creates an event loop without any matches.
+         *
+         * @param selector Selector to wait for input on.
+         */
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+            newMatches = new ConcurrentLinkedQueue<>();
+            matches = new ArrayList<>();
+        }
+
+        /**
+         * Hands a pair of connections to the loop to start a match with. Called by the accept thread.
+         *
+         * @param first Connection of the first player.
+         * @param second Connection of the second player.
+         * @param seed Seed of the piece sequence, which is the same for both players.
+         */
+        private void addMatch(SocketChannel first, SocketChannel second, long seed) {
+            newMatches.add(new Match(first, second, seed));
+            selector.wakeup();
+        }
+
+        /**
+         * Runs the matches until the server is closed.
+         */
+        @Override
+        public void run() {
+            long tickNanos = tickMillis * 1000000L;
+            long lastTick = System.nanoTime();
+            try {
+                while(!closed) {
+                    long waitMillis = (lastTick + tickNanos - System.nanoTime()) / 1000000;
+                    if(waitMillis > 0)
+                        selector.select(waitMillis);
+                    else
+                        selector.selectNow();
+                    startNewMatches();
+                    handleSelectedKeys();
+
+                    long now = System.nanoTime();
+                    int elapsedMillis = (int)((now - lastTick) / 1000000);
+                    if(elapsedMillis >= tickMillis) {
+                        lastTick += elapsedMillis * 1000000L;
+                        tickMatches(elapsedMillis);
+                        tickTime.recordSince(now);
+                    }
+                }
+            } catch(IOException e) {
+                System.err.println("Event loop stopped: " + e.getMessage());
+            }
+            for(Match match : matches)
+                match.close();
+            try {
+                selector.close();
+            } catch(IOException e) {
+                // Closing anyway
+            }
+        }
+
+        /**
+         * Registers the connections of matches handed over by the accept thread and starts them.
+         *
+         * @throws IOException If the selector is closed.
+         */
+        private void startNewMatches() throws IOException {
+            Match match;
+            while((match = newMatches.poll()) != null) {
+                match.start(selector);
+                matches.add(match);
+                matchesStarted.incrementAndGet();
+            }
+        }
+
+        /**
+         * Reads input from and sends waiting messages to every connection that is ready.
+         */
+        private void handleSelectedKeys() {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if(!key.isValid()) continue;
+                Player player = (Player)key.attachment();
+                if(key.isReadable())
+                    player.match.readInput(player);
+                if(key.isValid() && key.isWritable())
+                    player.flush();
+            }
+        }
+
+        /**
+         * Advances every match, sends the messages produced and removes finished matches
+         * once their last messages have been sent or the close timeout has passed.
+         *
+         * @param elapsedMillis Milliseconds since the last tick.
+         */
+        private void tickMatches(int elapsedMillis) {
+            for(int i = matches.size() - 1; i >= 0; i--) {
+                Match match = matches.get(i);
+                match.tick(elapsedMillis);
+                if(match.isReadyToClose(elapsedMillis)) {
+                    match.close();
+                    // Order does not matter, so swap the last match into the gap
+                    matches.set(i, matches.get(matches.size() - 1));
+                    matches.remove(matches.size() - 1);
+                    matchesFinished.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Two players playing against each other. Only used by the event loop that owns it.
+     */
+    private class Match {
+        /**
+         * The two players.
+         */
+        private final Player first, second;
+        /**
+         * State of the xorshift generator choosing the gap column of garbage rows.
+         */
+        private long gapState;
+        /**
+         * Set once either player has lost.
+         */
+        private boolean finished;
+        /**
+         * Milliseconds since the match finished.
+         */
+        private int finishedMillis;
+
+        /**
+         * Creates a match between two connections with the same piece sequence for both players.
+         *
+         * @param firstChannel Connection of the first player.
+         * @param secondChannel Connection of the second player.
+         * @param seed Seed of the piece sequence and garbage gaps.
+         */
+        private Match(SocketChannel firstChannel, SocketChannel secondChannel, long seed) {
+            first = new Player(this, firstChannel, seed);
+            second = new Player(this, secondChannel, seed);
+            first.opponent = second;
+            second.opponent = first;
+            gapState = seed | 1;
+        }
+
+        /**
+         * Registers both connections with the loop's selector and sends the start message.
+         *
+         * @param selector The selector of the event loop.
+         */
+        private void start(Selector selector) {
+            first.start(selector);
+            second.start(selector);
+            endUpdate();
+        }
+
+        /**
+         * Applies every input waiting from a player.
+         *
+         * @param player The player with input waiting.
+         */
+        private void readInput(Player player) {
+            if(finished) return;
+            player.readInput();
+            exchangeGarbage();
+            endUpdate();
+        }
+
+        /**
+         * Advances gravity for both players.
+         *
+         * @param elapsedMillis Milliseconds since the last tick.
+         */
+        private void tick(int elapsedMillis) {
+            if(finished) return;
+            first.engine.advance(elapsedMillis);
+            second.engine.advance(elapsedMillis);
+            exchangeGarbage();
+            endUpdate();
+        }
+
+        /**
+         * Checks if a finished match can be closed, which is once both players have been sent
+         * every waiting message or have disconnected, or once the close timeout has passed.
+         *
+         * @param elapsedMillis Milliseconds since the last tick, added to the time since the match finished.
+         * @return True if the match has finished and can be closed.
+         */
+        private boolean isReadyToClose(int elapsedMillis) {
+            if(!finished) return false;
+            finishedMillis += elapsedMillis;
+            return (first.isOutputSent() && second.isOutputSent()) || finishedMillis >= CLOSE_TIMEOUT_MILLIS;
+        }
+
+        /**
+         * Queues the garbage each player earned on the opponent's board.
+         */
+        private void exchangeGarbage() {
+            sendGarbage(first);
+            sendGarbage(second);
+        }
+
+        /**
+         * Queues the garbage a player earned on the opponent's board with a random gap column.
+         *
+         * @param player The player that cleared rows.
+         */
+        private void sendGarbage(Player player) {
+            int rows = player.engine.takeOutgoingGarbage();
+            if(rows == 0) return;
+            gapState ^= gapState << 13;
+            gapState ^= gapState >>> 7;
+            gapState ^= gapState << 17;
+            player.opponent.engine.queueGarbage(rows, (int)Math.floorMod(gapState, (long)gridWidth));
+        }
+
+        /**
+         * Ends the match if either player has lost, then sends the waiting messages to both players.
+         * Once the match has ended no more input is read, and the event loop closes it once the
+         * messages have been sent.
+         */
+        private void endUpdate() {
+            boolean firstLost = first.hasLost();
+            boolean secondLost = second.hasLost();
+            if(firstLost || secondLost) {
+                finished = true;
+                first.writeMatchOver(firstLost && secondLost ? RESULT_DRAW : firstLost ? RESULT_LOSS : RESULT_WIN);
+                second.writeMatchOver(firstLost && secondLost ? RESULT_DRAW : secondLost ? RESULT_LOSS : RESULT_WIN);
+            }
+            first.flush();
+            second.flush();
+        }
+
+        /**
+         * Closes both connections.
+         */
+        private void close() {
+            closeQuietly(first.channel);
+            closeQuietly(second.channel);
+        }
+    }
+
+    /**
+     * One side of a match: a connection and the game being played over it.
+     */
+    private class Player implements PieceLockListener {
+        /**
+         * The match the player is in.
+         */
+        private final Match match;
+        /**
+         * Connection to the player's client.
+         */
+        private final SocketChannel channel;
+        /**
+         * The player's game.
+         */
+        private final GameEngine engine;
+        /**
+         * Input read from the client.
+         */
+        private final ByteBuffer input;
+        /**
+         * Messages waiting to be sent to the client.
+         */
+        private final ByteBuffer output;
+        /**
+         * The other player in the match.
+         */
+        private Player opponent;
+        /**
+         * Registration of the connection with the event loop's selector.
+         */
+        private SelectionKey key;
+        /**
+         * Set when the connection was closed, failed, broke the protocol or fell too far behind.
+         */
+        private boolean disconnected;
+
+        /**
+         * Creates a player with a new game.
+         *
+         * @param match The match the player is in.
+         * @param channel Connection to the player's client.
+         * @param seed Seed of the piece sequence.
+         */
+        private Player(Match match, SocketChannel channel, long seed) {
+            this.match = match;
+            this.channel = channel;
+            engine = new GameEngine(new UniformPieceGenerator(seed),
+                    new TetrisBoard(gridWidth, gridHeight, TetrisBoard.DEFAULT_CELL_DIM));
+            engine.setPieceLockListener(this);
+            input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+            output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+        }
+
+        /**
+         * Registers the connection for input and queues the start message.
+         *
+         * @param selector The selector of the event loop.
+         */
+        private void start(Selector selector) {
+            try {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+            } catch(ClosedChannelException e) {
+                disconnected = true;
+                return;
+            }
+            if(!reserve(MATCH_START_SIZE)) return;
+            output.put((byte)MSG_MATCH_START);
+            output.putShort((short)gridWidth);
+            output.putShort((short)gridHeight);
+            output.put((byte)engine.getCurrentPiece().getPieceType());
+            output.put((byte)engine.getNextPiece().getPieceType());
+        }
+
+        /**
+         * Checks if the player has lost by topping out or disconnecting.
+         *
+         * @return True if the player has lost.
+         */
+        private boolean hasLost() {
+            return disconnected || engine.isGameOver();
+        }
+
+        /**
+         * Reads the waiting input and applies each action to the game in order.
+         * Anything other than an action from INPUT_LEFT to INPUT_ROTATE_RIGHT disconnects the player.
+         */
+        private void readInput() {
+            int count;
+            try {
+                count = channel.read(input);
+            } catch(IOException e) {
+                count = -1;
+            }
+            if(count < 0) {
+                disconnect();
+                return;
+            }
+            input.flip();
+            while(input.hasRemaining() && !engine.isGameOver()) {
+                int action = input.get();
+                if(action < GameEngine.INPUT_LEFT || action > GameEngine.INPUT_ROTATE_RIGHT) {
+                    disconnect();
+                    break;
+                }
+                engine.applyAction(action);
+            }
+            input.clear();
+        }
+
+        /**
+         * Queues the message telling the client where a piece was locked in.
+         */
+        @Override
+        public void pieceLocked(GameEngine engine, int pieceType, int rotation, int left, int top,
+                                boolean matchedRowsPending, int garbageRows) {
+            piecesLocked.incrementAndGet();
+            if(!reserve(PIECE_LOCKED_SIZE)) return;
+            output.put((byte)MSG_PIECE_LOCKED);
+            output.put((byte)pieceType);
+            output.put((byte)rotation);
+            output.putShort((short)left);
+            output.putShort((short)top);
+            output.put((byte)(matchedRowsPending ? 1 : 0));
+            output.putShort((short)garbageRows);
+            output.putShort((short)engine.getGarbageGap());
+            output.put((byte)engine.getCurrentPiece().getPieceType());
+            output.put((byte)engine.getNextPiece().getPieceType());
+            output.putInt(engine.getScore());
+        }
+
+        /**
+         * Queues the message telling the client how the match ended.
+         *
+         * @param result One of the RESULT_ constants.
+         */
+        private void writeMatchOver(int result) {
+            if(!reserve(MATCH_OVER_SIZE)) return;
+            output.put((byte)MSG_MATCH_OVER);
+            output.put((byte)result);
+        }
+
+        /**
+         * Checks there is room for a message in the output buffer, disconnecting
+         * the player if the client has fallen so far behind that there is not.
+         *
+         * @param size Size of the message in bytes.
+         * @return True if the message can be written.
+         */
+        private boolean reserve(int size) {
+            if(disconnected) return false;
+            if(output.remaining() < size)
+                disconnect();
+            return !disconnected;
+        }
+
+        /**
+         * Marks the player as disconnected and stops waiting for the connection to become
+         * readable or writable, so a closed connection does not wake the event loop again
+         * before the match is closed.
+         */
+        private void disconnect() {
+            disconnected = true;
+            if(key != null && key.isValid())
+                key.interestOps(0);
+        }
+
+        /**
+         * Checks if every message queued for the client has been sent, or will never be
+         * because the client has disconnected.
+         *
+         * @return True if there is nothing left to send.
+         */
+        private boolean isOutputSent() {
+            return disconnected || output.position() == 0;
+        }
+
+        /**
+         * Sends as much of the waiting output as the connection accepts, and waits for the
+         * connection to become writable if some is left.
+         */
+        private void flush() {
+            if(disconnected) return;
+            if(output.position() == 0) {
+                if(match.finished && key.isValid())
+                    key.interestOps(0);
+                return;
+            }
+            output.flip();
+            try {
+                channel.write(output);
+            } catch(IOException e) {
+                disconnect();
+            }
+            output.compact();
+            if(disconnected || !key.isValid()) return;
+            int readOps = match.finished ? 0 : SelectionKey.OP_READ;
+            key.interestOps(output.position() > 0 ? readOps | SelectionKey.OP_WRITE : readOps);
+        }
+    }
+}
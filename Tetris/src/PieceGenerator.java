@@ -0,0 +1,213 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * PieceGenerator class:
+ * Defines a seedable source of piece types shared by the pieces of a game.
+ * Piece types are produced as plain ints from a SplitMix64 random number
+ * generator so the same seed always gives the same sequence without any
+ * allocation. Upcoming pieces are kept in a small lookahead queue so they
+ * can be previewed with peek() without changing the sequence.
+ */
+public abstract class PieceGenerator {
+    /**
+     * Maximum number of pieces that can be looked ahead with peek().
+     */
+    public static final int LOOKAHEAD_CAPACITY = 16;
+    /**
+     * Bytes kept in the saved state for the state specific to the generator.
+     */
+    protected static final int GENERATOR_STATE_SIZE = 16;
+    /**
+     * Bytes written by writeState(): the seed, the random number generator state, the number
+     * of pieces looked ahead, every lookahead entry, and the state specific to the generator.
+     */
+    public static final int STATE_SIZE = 8 + 8 + 1 + LOOKAHEAD_CAPACITY + GENERATOR_STATE_SIZE;
+
+    /**
+     * Creates a generator from its name as used on the command line.
+     *
+     * @param name One of "uniform", "bag" or "history".
+     * @param seed The seed for the generator.
+     * @return The new generator.
+     */
+    public static PieceGenerator create(String name, long seed) {
+        switch(name) {
+            case "uniform": return new UniformPieceGenerator(seed);
+            case "bag": return new SevenBagPieceGenerator(seed);
+            case "history": return new HistoryPieceGenerator(seed);
+            default: throw new IllegalArgumentException("Unknown piece generator: " + name);
+        }
+    }
+
+    /**
+     * The seed the current sequence of pieces started from.
+     */
+    private long seed;
+    /**
+     * Current state of the SplitMix64 random number generator.
+     */
+    private long randomState;
+    /**
+     * Ring buffer of pieces generated ahead of time by peek().
+     */
+    private final int[] lookahead;
+    /**
+     * Index in the lookahead buffer of the next piece to be returned.
+     */
+    private int lookaheadStart;
+    /**
+     * Number of pieces waiting in the lookahead buffer.
+     */
+    private int lookaheadCount;
+
+    /**
+     * Creates the generator and seeds it.
+     *
+     * @param seed The seed for the generator.
+     */
+    protected PieceGenerator(long seed) {
+        lookahead = new int[LOOKAHEAD_CAPACITY];
+        this.seed = seed;
+        randomState = seed;
+    }
+
+    /**
+     * Restarts the sequence of pieces from a new seed.
+     *
+     * @param seed The seed for the generator.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        randomState = seed;
+        lookaheadStart = 0;
+        lookaheadCount = 0;
+        resetState();
+    }
+
+    /**
+     * Gets the seed the current sequence of pieces started from.
+     *
+     * @return The seed.
+     */
+    public long getSeed() { return seed; }
+
+    /**
+     * Gets the name of the generator as used by create().
+     *
+     * @return The name of the generator.
+     */
+    public abstract String getName();
+
+    /**
+     * Takes the next piece type from the sequence.
+     *
+     * @return The piece type from 0 to TetrisPiece.PIECE_TYPE_COUNT-1.
+     */
+    public int next() {
+        if(lookaheadCount == 0)
+            return generate();
+
+        int pieceType = lookahead[lookaheadStart];
+        lookaheadStart = (lookaheadStart + 1) % LOOKAHEAD_CAPACITY;
+        lookaheadCount--;
+        return pieceType;
+    }
+
+    /**
+     * Looks ahead in the sequence without changing which pieces next() will return.
+     *
+     * @param distance How far ahead to look, where 0 is the piece next() will return.
+     * @return The piece type at that distance in the sequence.
+     */
+    public int peek(int distance) {
+        if(distance < 0 || distance >= LOOKAHEAD_CAPACITY)
+            throw new IllegalArgumentException("Can only peek up to " + (LOOKAHEAD_CAPACITY-1) + " pieces ahead.");
+
+        while(lookaheadCount <= distance) {
+            lookahead[(lookaheadStart + lookaheadCount) % LOOKAHEAD_CAPACITY] = generate();
+            lookaheadCount++;
+        }
+        return lookahead[(lookaheadStart + distance) % LOOKAHEAD_CAPACITY];
+    }
+
+    /**
+     * Writes the whole state of the generator so readState() continues the same sequence.
+     * Always writes STATE_SIZE bytes.
+     *
+     * @param buffer The buffer to write to at its position.
+     */
+    public void writeState(ByteBuffer buffer) {
+        buffer.putLong(seed);
+        buffer.putLong(randomState);
+        buffer.put((byte)lookaheadCount);
+        for(int i = 0; i < LOOKAHEAD_CAPACITY; i++)
+            buffer.put(i < lookaheadCount ? (byte)lookahead[(lookaheadStart + i) % LOOKAHEAD_CAPACITY] : 0);
+        int generatorStateEnd = buffer.position() + GENERATOR_STATE_SIZE;
+        writeGeneratorState(buffer);
+        while(buffer.position() < generatorStateEnd)
+            buffer.put((byte)0);
+    }
+
+    /**
+     * Reads the state written by writeState() of a generator of the same type.
+     * Always reads STATE_SIZE bytes.
+     *
+     * @param buffer The buffer to read from at its position.
+     */
+    public void readState(ByteBuffer buffer) {
+        seed = buffer.getLong();
+        randomState = buffer.getLong();
+        lookaheadStart = 0;
+        lookaheadCount = buffer.get();
+        for(int i = 0; i < LOOKAHEAD_CAPACITY; i++)
+            lookahead[i] = buffer.get();
+        int generatorStateEnd = buffer.position() + GENERATOR_STATE_SIZE;
+        readGeneratorState(buffer);
+        buffer.position(generatorStateEnd);
+    }
+
+    /**
+     * Writes any state specific to the generator, up to GENERATOR_STATE_SIZE bytes.
+     * Generators without any state write nothing.
+     *
+     * @param buffer The buffer to write to at its position.
+     */
+    protected void writeGeneratorState(ByteBuffer buffer) {}
+
+    /**
+     * Reads the state written by writeGeneratorState().
+     *
+     * @param buffer The buffer to read from at its position.
+     */
+    protected void readGeneratorState(ByteBuffer buffer) {}
+
+    /**
+     * Generates the next piece type of the sequence.
+     *
+     * @return The piece type from 0 to TetrisPiece.PIECE_TYPE_COUNT-1.
+     */
+    protected abstract int generate();
+
+    /**
+     * Resets any state specific to the generator when the seed is changed.
+     */
+    protected abstract void resetState();
+
+    /**
+     * Gets a random number in the range 0 to bound-1 from the SplitMix64 sequence.
+     *
+     * @param bound Upper limit of the random number.
+     * @return The random number.
+     */
+    protected int nextRandom(int bound) {
+        randomState += 0x9E3779B97F4A7C15L;
+        long z = randomState;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int)(((z >>> 32) * bound) >>> 32);
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * PieceLockListener interface:
+ * Told about every piece a GameEngine locks in to its board, with enough detail for
+ * another copy of the board to repeat the lock exactly. Used by the match server to
+ * tell clients where each piece landed.
+ */
+public interface PieceLockListener {
+    /**
+     * Called once a piece has been locked in, the board checked for full rows, and
+     * any garbage waiting to be added has been added.
+     *
+     * @param engine The game the piece was locked in to.
+     * @param pieceType Type of the locked piece.
+     * @param rotation Orientation the piece was locked in with.
+     * @param left Left column of the piece.
+     * @param top Top row of the piece.
+     * @param matchedRowsPending True if full rows from the previous piece were still on the
+     *                           board when this piece was locked in.
+     * @param garbageRows Number of garbage rows added at the bottom of the board after the lock,
+     *                    with a gap in the column from GameEngine.getGarbageGap().
+     */
+    void pieceLocked(GameEngine engine, int pieceType, int rotation, int left, int top,
+                     boolean matchedRowsPending, int garbageRows);
+}
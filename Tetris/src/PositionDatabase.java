@@ -0,0 +1,685 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * PositionDatabase class:
+ * Read only store of every distinct position seen across many games, with how often each
+ * was seen and the sum of the final scores of the games it was seen in, for analysis and
+ * for bots to look up how well a position has turned out before. Positions are kept sorted
+ * by key in front coded blocks written by PositionDatabaseWriter. Only the first key of each
+ * block is held in memory, so finding a position is a binary search of those keys followed
+ * by a scan of a single block read straight from the memory-mapped file. The file is mapped
+ * in regions so it can be larger than a single mapping allows. Databases are built from
+ * games with a PositionRecorder, and any number of them can be combined with merge().
+ * close() unmaps the file straight away so it can be deleted or replaced, rather than
+ * waiting for the garbage collector to release the mapping.
+ *
+ * Key of a position: byte piece type, then the occupancy of each row of the board from the
+ * bottom up as (grid width + 7) / 8 bytes with the leftmost cell in the lowest bit of the
+ * first byte. Full rows waiting to be cleared are left out, so the key describes the board
+ * the piece will fall on, and empty rows at the top are left out, so smaller stacks have
+ * shorter keys. Keys are compared as unsigned bytes with a key sorting before any longer
+ * key it is the start of.
+ *
+ * File layout:
+ *   int MAGIC, short VERSION, short grid width, short grid height, short longest key,
+ *   int largest block, long entry count, long index offset, int block count,
+ *   padded to HEADER_SIZE bytes,
+ *   then the blocks, each a sequence of entries: varint bytes shared with the previous key
+ *   (0 for the first entry of a block), varint bytes not shared, the bytes not shared,
+ *   varint count, varint score sum,
+ *   then the index at the index offset, per block: short key length, the first key of the
+ *   block, long offset of the block.
+ */
+public class PositionDatabase implements Closeable {
+    /**
+     * Plays bot games recording every position a piece appears in, builds a database from
+     * them, and prints its size and the time taken to look up positions.
+     * Usage: PositionDatabase [games] [file] [maxPieces]
+     *
+     * @param args Number of games, the database file to write, and the piece limit per game.
+     * @throws IOException If the database could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        Path file = Paths.get(args.length > 1 ? args[1] : "positions.pdb");
+        int maxPieces = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        Path workDirectory = Files.createTempDirectory("positions");
+        PositionRecorder recorder = new PositionRecorder(workDirectory, TetrisBoard.DEFAULT_GRID_WIDTH,
+                TetrisBoard.DEFAULT_GRID_HEIGHT, PositionRecorder.DEFAULT_BUFFER_SIZE);
+        TetrisBot bot = new TetrisBot();
+        int[] inputs = new int[TetrisBot.getMaxInputs(new TetrisBoard())];
+        long positions = 0;
+        long startTime = System.nanoTime();
+        for(int game = 0; game < games; game++) {
+            GameEngine engine = new GameEngine(new SevenBagPieceGenerator(game));
+            while(!engine.isGameOver() && engine.getPiecesLocked() < maxPieces) {
+                recorder.addPosition(engine.getBoard(), engine.getCurrentPiece().getPieceType());
+                positions++;
+                int count = bot.findMoves(engine.getBoard(), engine.getCurrentPiece(), engine.getNextPiece(), inputs);
+                for(int i = 0; i < count; i++)
+                    engine.step(inputs[i]);
+            }
+            recorder.endGame(engine.getScore());
+        }
+        recorder.finish(file);
+        Files.delete(workDirectory);
+        long buildNanos = System.nanoTime() - startTime;
+
+        try(PositionDatabase database = new PositionDatabase(file)) {
+            printLookups(database, file, positions, buildNanos, maxPieces);
+        }
+    }
+
+    /**
+     * Prints the size of a database built by main() and looks up every position of the first game again.
+     *
+     * @param database The database built.
+     * @param file The database file.
+     * @param positions Number of positions recorded.
+     * @param buildNanos Time taken to play the games and build the database.
+     * @param maxPieces The piece limit per game.
+     * @throws IOException If the size of the file could not be read.
+     */
+    private static void printLookups(PositionDatabase database, Path file, long positions, long buildNanos,
+                                     int maxPieces) throws IOException {
+        long fileSize = Files.size(file);
+        System.out.printf("%d positions, %d distinct, %d blocks, %d bytes (%.2f bytes per position), built in %.2fs%n",
+                positions, database.getEntryCount(), database.getBlockCount(), fileSize,
+                (double)fileSize / database.getEntryCount(), buildNanos / 1e9);
+
+        TetrisBot bot = new TetrisBot();
+        int[] inputs = new int[TetrisBot.getMaxInputs(new TetrisBoard())];
+        long[] result = new long[2];
+        int found = 0;
+        int lookups = 0;
+        long startTime = System.nanoTime();
+        GameEngine engine = new GameEngine(new SevenBagPieceGenerator(0));
+        while(!engine.isGameOver() && engine.getPiecesLocked() < maxPieces) {
+            lookups++;
+            if(database.find(engine.getBoard(), engine.getCurrentPiece().getPieceType(), result))
+                found++;
+            int count = bot.findMoves(engine.getBoard(), engine.getCurrentPiece(), engine.getNextPiece(), inputs);
+            for(int i = 0; i < count; i++)
+                engine.step(inputs[i]);
+        }
+        long lookupNanos = System.nanoTime() - startTime;
+        System.out.printf("%d of %d positions of game 0 found, %.2f us per lookup and bot move%n",
+                found, lookups, lookupNanos / 1000.0 / Math.max(1, lookups));
+    }
+
+    /**
+     * Value at the start of every database file.
+     */
+    public static final int MAGIC = 0x54504442;
+    /**
+     * Version of the file layout.
+     */
+    public static final short VERSION = 1;
+    /**
+     * Size of the header at the start of the file.
+     */
+    public static final int HEADER_SIZE = 64;
+    /**
+     * Most databases merged at once by merge(). More are merged in several passes.
+     */
+    public static final int MAX_MERGE_INPUTS = 64;
+
+    /**
+     * Size of each region of the file mapped at once.
+     */
+    private static final long REGION_SIZE = 1L << 30;
+    /**
+     * The Unsafe instance used to unmap a mapped buffer straight away, or null if it is
+     * not available and mappings are left for the garbage collector to release.
+     */
+    private static final Object UNSAFE;
+    /**
+     * The invokeCleaner() method of the Unsafe instance, or null if it is not available.
+     */
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Size of the board of the positions.
+     */
+    private final int gridWidth, gridHeight;
+    /**
+     * Longest key a position can have on the board.
+     */
+    private final int maxKeyLength;
+    /**
+     * Number of positions in the database.
+     */
+    private final long entryCount;
+    /**
+     * Offset in the file of the index, which is also the end of the last block.
+     */
+    private final long indexOffset;
+    /**
+     * Number of blocks of entries.
+     */
+    private final int blockCount;
+    /**
+     * First key of every block stored one after another.
+     */
+    private final byte[] indexKeys;
+    /**
+     * Index in indexKeys of the first key of each block, with an extra entry for the end of the last key.
+     */
+    private final int[] indexKeyStarts;
+    /**
+     * Offset in the file of each block.
+     */
+    private final long[] blockOffsets;
+    /**
+     * Mapped regions of the file, each starting at a multiple of REGION_SIZE and running
+     * on by the largest block so every block is inside the region it starts in.
+     * Null once the database is closed.
+     */
+    private ByteBuffer[] regions;
+    /**
+     * Cursor for each thread used by find(), so lookups allocate nothing and can
+     * be made from any number of threads at once.
+     */
+    private final ThreadLocal<Cursor> lookupCursors;
+    /**
+     * Key built for each thread by find() from a board.
+     */
+    private final ThreadLocal<byte[]> lookupKeys;
+
+    /**
+     * Opens a database, mapping its blocks and reading its index in to memory.
+     *
+     * @param file The database file.
+     * @throws IOException If the file could not be read or is not a database.
+     */
+    public PositionDatabase(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {}
+            header.flip();
+            if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getShort() != VERSION)
+                throw new IOException(file + " is not a position database");
+            gridWidth = header.getShort();
+            gridHeight = header.getShort();
+            maxKeyLength = header.getShort();
+            int maxBlockSize = header.getInt();
+            entryCount = header.getLong();
+            indexOffset = header.getLong();
+            blockCount = header.getInt();
+
+            // Read rather than mapped, so no mapping of the index is left behind
+            ByteBuffer index = ByteBuffer.allocate((int)(channel.size() - indexOffset));
+            while(index.hasRemaining() && channel.read(index, indexOffset + index.position()) >= 0) {}
+            index.flip();
+            indexKeys = new byte[index.remaining() - blockCount * (2 + 8)];
+            indexKeyStarts = new int[blockCount + 1];
+            blockOffsets = new long[blockCount];
+            int keyEnd = 0;
+            for(int block = 0; block < blockCount; block++) {
+                int keyLength = index.getShort();
+                index.get(indexKeys, keyEnd, keyLength);
+                indexKeyStarts[block] = keyEnd;
+                keyEnd += keyLength;
+                blockOffsets[block] = index.getLong();
+            }
+            indexKeyStarts[blockCount] = keyEnd;
+
+            regions = new ByteBuffer[(int)((indexOffset + REGION_SIZE - 1) / REGION_SIZE)];
+            for(int region = 0; region < regions.length; region++) {
+                long start = region * REGION_SIZE;
+                long end = Math.min(indexOffset, start + REGION_SIZE + maxBlockSize);
+                regions[region] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+        }
+        lookupCursors = ThreadLocal.withInitial(() -> new Cursor());
+        lookupKeys = ThreadLocal.withInitial(() -> new byte[maxKeyLength]);
+    }
+
+    /**
+     * Gets the longest key a position can have on a board of any size.
+     *
+     * @param gridWidth Number of cells on the horizontal axis.
+     * @param gridHeight Number of cells on the vertical axis.
+     * @return The number of bytes in a key with every row of the board.
+     */
+    public static int getMaxKeyLength(int gridWidth, int gridHeight) {
+        return 1 + gridHeight * ((gridWidth + 7) / 8);
+    }
+
+    /**
+     * Builds the key of a position.
+     *
+     * @param board The board the piece is about to fall on.
+     * @param pieceType The type of the falling piece.
+     * @param key Array to write the key in to, at least getMaxKeyLength() bytes long.
+     * @return The number of bytes in the key.
+     */
+    public static int encodeKey(TetrisBoard board, int pieceType, byte[] key) {
+        int bytesPerRow = (board.getGridWidth() + 7) / 8;
+        key[0] = (byte)pieceType;
+        int length = 1;
+        int usedLength = 1;
+        for(int y = board.getGridHeight() - 1; y >= 0; y--) {
+            if(board.isRowFull(y)) continue;
+            for(int i = 0; i < bytesPerRow; i++) {
+                int b = (int)(board.getRowWord(y, i >>> 3) >>> ((i & 7) << 3)) & 0xFF;
+                key[length++] = (byte)b;
+                if(b != 0)
+                    usedLength = length;
+            }
+        }
+        // Round up to whole rows so a row with only empty last bytes is kept
+        return usedLength == 1 ? 1 : 1 + (usedLength - 1 + bytesPerRow - 1) / bytesPerRow * bytesPerRow;
+    }
+
+    /**
+     * Compares two keys as unsigned bytes, with a key sorting before any longer key it is the start of.
+     *
+     * @param a Array holding the first key.
+     * @param aOffset Index of the first byte of the first key.
+     * @param aLength Number of bytes in the first key.
+     * @param b Array holding the second key.
+     * @param bOffset Index of the first byte of the second key.
+     * @param bLength Number of bytes in the second key.
+     * @return Less than 0, 0 or more than 0 if the first key sorts before, the same as, or after the second.
+     */
+    public static int compareKeys(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for(int i = 0; i < length; i++) {
+            int difference = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if(difference != 0)
+                return difference;
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Combines databases in to one, adding up the counts and score sums of positions
+     * found in more than one. Every database must be for the same size of board.
+     * When there are more than MAX_MERGE_INPUTS, groups of them are merged in to
+     * temporary files next to the output first.
+     *
+     * @param inputs The databases to combine.
+     * @param output The file to write the combined database to.
+     * @return The number of positions in the combined database.
+     * @throws IOException If a database could not be read or the output could not be written.
+     */
+    public static long merge(List<Path> inputs, Path output) throws IOException {
+        List<Path> remaining = new ArrayList<>(inputs);
+        List<Path> temporary = new ArrayList<>();
+        try {
+            while(remaining.size() > MAX_MERGE_INPUTS) {
+                List<Path> group = remaining.subList(0, MAX_MERGE_INPUTS);
+                Path merged = Files.createTempFile(output.toAbsolutePath().getParent(), "merge", ".pdb");
+                temporary.add(merged);
+                mergeGroup(group, merged);
+                group.clear();
+                remaining.add(merged);
+            }
+            return mergeGroup(remaining, output);
+        } finally {
+            for(Path file : temporary)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Combines databases in to one in a single pass, taking the smallest key from all of them each time.
+     *
+     * @param inputs The databases to combine.
+     * @param output The file to write the combined database to.
+     * @return The number of positions in the combined database.
+     * @throws IOException If a database could not be read or the output could not be written.
+     */
+    private static long mergeGroup(List<Path> inputs, Path output) throws IOException {
+        if(inputs.isEmpty())
+            throw new IllegalArgumentException("No databases to merge");
+
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(inputs.size(),
+                (a, b) -> compareKeys(a.key, 0, a.keyLength, b.key, 0, b.keyLength));
+        List<PositionDatabase> databases = new ArrayList<>(inputs.size());
+        try {
+            int gridWidth = 0, gridHeight = 0;
+            for(Path input : inputs) {
+                PositionDatabase database = new PositionDatabase(input);
+                databases.add(database);
+                if(gridWidth == 0) {
+                    gridWidth = database.gridWidth;
+                    gridHeight = database.gridHeight;
+                } else if(database.gridWidth != gridWidth || database.gridHeight != gridHeight) {
+                    throw new IllegalArgumentException("Cannot merge a " + database.gridWidth + "x" + database.gridHeight
+                            + " database with a " + gridWidth + "x" + gridHeight + " database");
+                }
+                Cursor cursor = database.openCursor();
+                if(cursor.next())
+                    cursors.add(cursor);
+            }
+
+            byte[] key = new byte[getMaxKeyLength(gridWidth, gridHeight)];
+            try(PositionDatabaseWriter writer = new PositionDatabaseWriter(output, gridWidth, gridHeight)) {
+                while(!cursors.isEmpty()) {
+                    Cursor cursor = cursors.poll();
+                    int keyLength = cursor.keyLength;
+                    System.arraycopy(cursor.key, 0, key, 0, keyLength);
+                    long count = cursor.count;
+                    long scoreSum = cursor.scoreSum;
+                    if(cursor.next())
+                        cursors.add(cursor);
+                    // Add up the same key from every other database it is in
+                    while(!cursors.isEmpty() && compareKeys(cursors.peek().key, 0, cursors.peek().keyLength, key, 0, keyLength) == 0) {
+                        Cursor same = cursors.poll();
+                        count += same.count;
+                        scoreSum += same.scoreSum;
+                        if(same.next())
+                            cursors.add(same);
+                    }
+                    writer.add(key, 0, keyLength, count, scoreSum);
+                }
+                return writer.getEntryCount();
+            }
+        } finally {
+            // Unmapped before the caller deletes the inputs
+            for(PositionDatabase database : databases)
+                database.close();
+        }
+    }
+
+    /**
+     * Looks up a position by its key.
+     *
+     * @param key Array holding the key.
+     * @param keyLength Number of bytes in the key.
+     * @param result Array of at least 2 values to store the count and score sum in if the position is found.
+     * @return True if the position is in the database.
+     */
+    public boolean find(byte[] key, int keyLength, long[] result) {
+        if(regions == null)
+            throw new IllegalStateException("Position database is closed");
+        int block = findBlock(key, keyLength);
+        if(block < 0) return false;
+
+        Cursor cursor = lookupCursors.get();
+        cursor.seekBlock(block);
+        while(cursor.nextInBlock()) {
+            int comparison = compareKeys(cursor.key, 0, cursor.keyLength, key, 0, keyLength);
+            if(comparison == 0) {
+                result[0] = cursor.count;
+                result[1] = cursor.scoreSum;
+                return true;
+            }
+            if(comparison > 0) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the position of a piece about to fall on a board.
+     *
+     * @param board The board, of the size of the database.
+     * @param pieceType The type of the falling piece.
+     * @param result Array of at least 2 values to store the count and score sum in if the position is found.
+     * @return True if the position is in the database.
+     * @throws IllegalArgumentException If the board is a different size.
+     */
+    public boolean find(TetrisBoard board, int pieceType, long[] result) {
+        if(board.getGridWidth() != gridWidth || board.getGridHeight() != gridHeight)
+            throw new IllegalArgumentException("Database is for a " + gridWidth + "x" + gridHeight
+                    + " board, not a " + board.getGridWidth() + "x" + board.getGridHeight() + " board");
+        byte[] key = lookupKeys.get();
+        return find(key, encodeKey(board, pieceType, key), result);
+    }
+
+    /**
+     * Finds the block a key would be in with a binary search of the first key of every block.
+     *
+     * @param key Array holding the key.
+     * @param keyLength Number of bytes in the key.
+     * @return The last block with a first key no greater than the key, or -1 if the key sorts before every block.
+     */
+    private int findBlock(byte[] key, int keyLength) {
+        int low = 0;
+        int high = blockCount - 1;
+        int block = -1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int start = indexKeyStarts[middle];
+            if(compareKeys(indexKeys, start, indexKeyStarts[middle + 1] - start, key, 0, keyLength) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Unmaps the file so it can be deleted or replaced. The database, and any cursor
+     * opened on it, must not be used afterwards or while this is being called.
+     */
+    @Override
+    public void close() {
+        if(regions == null) return;
+
+        ByteBuffer[] closing = regions;
+        regions = null;
+        if(INVOKE_CLEANER == null) return;
+        for(ByteBuffer region : closing) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, region);
+            } catch(ReflectiveOperationException e) {
+                // Left for the garbage collector to release
+            }
+        }
+    }
+
+    /**
+     * Creates a cursor to read every position in order of key, for analysis or merging.
+     *
+     * @return A cursor before the first position.
+     */
+    public Cursor openCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Gets the number of positions in the database.
+     *
+     * @return The number of entries.
+     */
+    public long getEntryCount() { return entryCount; }
+
+    /**
+     * Gets the number of blocks the positions are stored in, which is the number of keys held in memory.
+     *
+     * @return The number of blocks.
+     */
+    public int getBlockCount() { return blockCount; }
+
+    /**
+     * Gets the number of cells on the horizontal axis of the boards of the positions.
+     *
+     * @return The grid width.
+     */
+    public int getGridWidth() { return gridWidth; }
+
+    /**
+     * Gets the number of cells on the vertical axis of the boards of the positions.
+     *
+     * @return The grid height.
+     */
+    public int getGridHeight() { return gridHeight; }
+
+    /**
+     * Reads the positions of a database in order of key straight from the mapped file.
+     * The key array is reused for each position.
+     */
+    public class Cursor {
+        /**
+         * Key of the current position. Only the first keyLength bytes are used.
+         */
+        private final byte[] key;
+        /**
+         * Number of bytes in the key of the current position.
+         */
+        private int keyLength;
+        /**
+         * Values of the current position.
+         */
+        private long count, scoreSum;
+        /**
+         * The block being read, or -1 before the first block.
+         */
+        private int block;
+        /**
+         * The mapped region the block is in.
+         */
+        private ByteBuffer region;
+        /**
+         * Index in the region of the next entry, and of the end of the block.
+         */
+        private int position, blockEnd;
+
+        /**
+         * Creates a cursor before the first position.
+         */
+        private Cursor() {
+            key = new byte[maxKeyLength];
+            block = -1;
+        }
+
+        /**
+         * Moves to the next position.
+         *
+         * @return False if there are no more positions.
+         */
+        public boolean next() {
+            if(regions == null)
+                throw new IllegalStateException("Position database is closed");
+            while(!nextInBlock()) {
+                if(block + 1 >= blockCount) return false;
+                seekBlock(block + 1);
+            }
+            return true;
+        }
+
+        /**
+         * Moves to just before the first position of a block.
+         *
+         * @param block The block to move to.
+         */
+        private void seekBlock(int block) {
+            this.block = block;
+            long offset = blockOffsets[block];
+            int regionIndex = (int)(offset / REGION_SIZE);
+            long regionStart = regionIndex * REGION_SIZE;
+            region = regions[regionIndex];
+            position = (int)(offset - regionStart);
+            long end = block + 1 < blockCount ? blockOffsets[block + 1] : indexOffset;
+            blockEnd = (int)(end - regionStart);
+        }
+
+        /**
+         * Moves to the next position in the current block.
+         *
+         * @return False if the block has no more positions.
+         */
+        private boolean nextInBlock() {
+            if(position >= blockEnd) return false;
+
+            int shared = (int)readVarint();
+            int suffixLength = (int)readVarint();
+            for(int i = 0; i < suffixLength; i++)
+                key[shared + i] = region.get(position++);
+            keyLength = shared + suffixLength;
+            count = readVarint();
+            scoreSum = readVarint();
+            return true;
+        }
+
+        /**
+         * Reads an unsigned value written 7 bits at a time, lowest bits first.
+         *
+         * @return The value.
+         */
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = region.get(position++);
+                value |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Gets the key of the current position.
+         *
+         * @return Array holding the key from index 0, reused by the next position.
+         */
+        public byte[] getKey() { return key; }
+
+        /**
+         * Gets the number of bytes in the key of the current position.
+         *
+         * @return The key length.
+         */
+        public int getKeyLength() { return keyLength; }
+
+        /**
+         * Gets the number of times the current position was seen.
+         *
+         * @return The visit count.
+         */
+        public long getCount() { return count; }
+
+        /**
+         * Gets the sum of the final scores of the games the current position was seen in.
+         *
+         * @return The score sum.
+         */
+        public long getScoreSum() { return scoreSum; }
+
+        /**
+         * Gets the mean final score of the games the current position was seen in.
+         *
+         * @return The mean score.
+         */
+        public double getMeanScore() { return (double)scoreSum / count; }
+    }
+}
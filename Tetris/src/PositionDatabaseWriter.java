@@ -0,0 +1,220 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * PositionDatabaseWriter class:
+ * Writes a PositionDatabase file from entries given in increasing order of key.
+ * Entries are packed in to blocks of about BLOCK_SIZE bytes, and within a block each
+ * key only stores the bytes that differ from the key before it. Keys of positions seen
+ * from the same piece on boards with the same bottom rows share most of their bytes, so
+ * most entries take a handful of bytes. The first key of every block is collected for
+ * the index written at the end of the file, and the header is written last.
+ */
+public class PositionDatabaseWriter implements Closeable {
+    /**
+     * Size a block is filled up to before the next entry starts a new block.
+     */
+    public static final int BLOCK_SIZE = 4096;
+    /**
+     * Size of the buffer collecting blocks before they are written.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Channel to the database file.
+     */
+    private final FileChannel channel;
+    /**
+     * Size of the board of the positions.
+     */
+    private final int gridWidth, gridHeight;
+    /**
+     * Longest key a position can have on the board.
+     */
+    private final int maxKeyLength;
+    /**
+     * Largest a block can be: BLOCK_SIZE plus the largest entry.
+     */
+    private final int maxBlockSize;
+    /**
+     * Buffer collecting blocks until it is written to the channel.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The key of the previous entry, which the next key is compared with.
+     */
+    private final byte[] previousKey;
+    /**
+     * Length of the key of the previous entry, or -1 before the first entry.
+     */
+    private int previousKeyLength;
+    /**
+     * Offset in the file of the block being written.
+     */
+    private long blockOffset;
+    /**
+     * Number of bytes written to the block being written, or -1 when the next entry starts a new block.
+     */
+    private int blockLength;
+    /**
+     * First key and offset of every block, written as the index when the file is closed.
+     */
+    private final ByteArrayOutputStream indexBytes;
+    /**
+     * Stream writing the index entries in to indexBytes.
+     */
+    private final DataOutputStream index;
+    /**
+     * Number of blocks started.
+     */
+    private int blockCount;
+    /**
+     * Number of entries written.
+     */
+    private long entryCount;
+
+    /**
+     * Creates the database file, replacing any file already there.
+     *
+     * @param file The file to write.
+     * @param gridWidth Number of cells on the horizontal axis of the boards of the positions.
+     * @param gridHeight Number of cells on the vertical axis of the boards of the positions.
+     * @throws IOException If the file could not be created.
+     */
+    public PositionDatabaseWriter(Path file, int gridWidth, int gridHeight) throws IOException {
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        maxKeyLength = PositionDatabase.getMaxKeyLength(gridWidth, gridHeight);
+        if(maxKeyLength > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Board is too large for position keys: " + gridWidth + "x" + gridHeight);
+        // Shared length, key length, suffix, count and score sum
+        maxBlockSize = BLOCK_SIZE + 5 + 5 + maxKeyLength + 10 + 10;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, maxBlockSize));
+        previousKey = new byte[maxKeyLength];
+        previousKeyLength = -1;
+        indexBytes = new ByteArrayOutputStream();
+        index = new DataOutputStream(indexBytes);
+        blockOffset = PositionDatabase.HEADER_SIZE;
+        blockLength = -1;
+        // The header is filled in by close()
+        channel.position(PositionDatabase.HEADER_SIZE);
+    }
+
+    /**
+     * Adds an entry after every entry added so far.
+     *
+     * @param key Array holding the key of the position.
+     * @param keyOffset Index in the array of the first byte of the key.
+     * @param keyLength Number of bytes in the key.
+     * @param count Number of times the position was seen.
+     * @param scoreSum Sum of the final scores of the games the position was seen in.
+     * @throws IOException If the data could not be written.
+     * @throws IllegalArgumentException If the key is not greater than the previous key.
+     */
+    public void add(byte[] key, int keyOffset, int keyLength, long count, long scoreSum) throws IOException {
+        if(keyLength > maxKeyLength)
+            throw new IllegalArgumentException("Key of " + keyLength + " bytes is too long for the board");
+        int shared = 0;
+        if(previousKeyLength >= 0) {
+            if(PositionDatabase.compareKeys(key, keyOffset, keyLength, previousKey, 0, previousKeyLength) <= 0)
+                throw new IllegalArgumentException("Keys must be added in increasing order");
+            while(shared < keyLength && shared < previousKeyLength && key[keyOffset + shared] == previousKey[shared])
+                shared++;
+        }
+
+        if(blockLength < 0 || blockLength >= BLOCK_SIZE) {
+            // Every block starts with a whole key so it can be read without the blocks before it
+            blockOffset += Math.max(0, blockLength);
+            blockLength = 0;
+            shared = 0;
+            index.writeShort(keyLength);
+            index.write(key, keyOffset, keyLength);
+            index.writeLong(blockOffset);
+            blockCount++;
+        }
+        if(buffer.remaining() < maxBlockSize)
+            flush();
+        int start = buffer.position();
+        writeVarint(shared);
+        writeVarint(keyLength - shared);
+        buffer.put(key, keyOffset + shared, keyLength - shared);
+        writeVarint(count);
+        writeVarint(scoreSum);
+        blockLength += buffer.position() - start;
+
+        System.arraycopy(key, keyOffset, previousKey, 0, keyLength);
+        previousKeyLength = keyLength;
+        entryCount++;
+    }
+
+    /**
+     * Writes an unsigned value 7 bits at a time, lowest bits first, with the top bit
+     * of each byte set when more bytes follow.
+     *
+     * @param value The value to write, treated as unsigned.
+     */
+    private void writeVarint(long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    /**
+     * Writes the contents of the buffer to the channel and clears it.
+     *
+     * @throws IOException If the data could not be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Gets the number of entries added.
+     *
+     * @return The number of entries.
+     */
+    public long getEntryCount() { return entryCount; }
+
+    /**
+     * Writes the index after the last block, then the header, and closes the file.
+     *
+     * @throws IOException If the data could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        long indexOffset = channel.position();
+        index.flush();
+        channel.write(ByteBuffer.wrap(indexBytes.toByteArray()));
+
+        ByteBuffer header = ByteBuffer.allocate(PositionDatabase.HEADER_SIZE);
+        header.putInt(PositionDatabase.MAGIC);
+        header.putShort(PositionDatabase.VERSION);
+        header.putShort((short)gridWidth);
+        header.putShort((short)gridHeight);
+        header.putShort((short)maxKeyLength);
+        header.putInt(maxBlockSize);
+        header.putLong(entryCount);
+        header.putLong(indexOffset);
+        header.putInt(blockCount);
+        header.clear();
+        channel.write(header, 0);
+        channel.close();
+    }
+}
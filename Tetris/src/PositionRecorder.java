@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * PositionRecorder class:
+ * Collects the positions seen in games and builds a PositionDatabase from them, however
+ * many there are. The key of each position is appended to a buffer in memory, and the final
+ * score is filled in once the game ends. When the buffer is full the finished games in it are
+ * sorted, positions with the same key are combined, and they are written out as a sorted run,
+ * which is itself a small database. finish() merges every run in to the final database, so
+ * memory use stays at the size of the buffer while the runs on disk grow with the games.
+ */
+public class PositionRecorder {
+    /**
+     * Size of the buffer of positions when none is given.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024 * 1024;
+    /**
+     * Bytes stored with each key in the buffer: the key length before it and the final score after it.
+     */
+    private static final int RECORD_OVERHEAD = 2 + 4;
+
+    /**
+     * Directory the sorted runs are written to.
+     */
+    private final Path workDirectory;
+    /**
+     * Size of the board of the positions.
+     */
+    private final int gridWidth, gridHeight;
+    /**
+     * Key of the position being added.
+     */
+    private final byte[] key;
+    /**
+     * Records of positions, each a short key length, the key, and an int final score.
+     */
+    private byte[] buffer;
+    /**
+     * Number of bytes of the buffer used.
+     */
+    private int bufferLength;
+    /**
+     * Index in the buffer of each record in the order they were added.
+     */
+    private int[] recordOffsets;
+    /**
+     * Scratch space for sorting the record offsets.
+     */
+    private int[] sortScratch;
+    /**
+     * Number of records in the buffer.
+     */
+    private int recordCount;
+    /**
+     * Index of the first record of the game being played. Records before it have a final score.
+     */
+    private int gameFirstRecord;
+    /**
+     * The sorted runs written so far.
+     */
+    private final List<Path> runs;
+
+    /**
+     * Creates a recorder with an empty buffer.
+     *
+     * @param workDirectory Directory to write the sorted runs to, which is left empty by finish().
+     * @param gridWidth Number of cells on the horizontal axis of the boards of the positions.
+     * @param gridHeight Number of cells on the vertical axis of the boards of the positions.
+     * @param bufferSize Bytes of memory used to collect positions between runs.
+     */
+    public PositionRecorder(Path workDirectory, int gridWidth, int gridHeight, int bufferSize) {
+        this.workDirectory = workDirectory;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        key = new byte[PositionDatabase.getMaxKeyLength(gridWidth, gridHeight)];
+        buffer = new byte[bufferSize];
+        recordOffsets = new int[1024];
+        runs = new ArrayList<>();
+    }
+
+    /**
+     * Records a position of the game being played.
+     *
+     * @param board The board the piece is about to fall on.
+     * @param pieceType The type of the falling piece.
+     * @throws IOException If a sorted run could not be written to make space.
+     * @throws IllegalArgumentException If the board is a different size.
+     */
+    public void addPosition(TetrisBoard board, int pieceType) throws IOException {
+        if(board.getGridWidth() != gridWidth || board.getGridHeight() != gridHeight)
+            throw new IllegalArgumentException("Recorder is for a " + gridWidth + "x" + gridHeight
+                    + " board, not a " + board.getGridWidth() + "x" + board.getGridHeight() + " board");
+
+        int keyLength = PositionDatabase.encodeKey(board, pieceType, key);
+        int recordSize = RECORD_OVERHEAD + keyLength;
+        if(bufferLength + recordSize > buffer.length) {
+            writeRun();
+            // A single game longer than the buffer
+            if(bufferLength + recordSize > buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        if(recordCount == recordOffsets.length)
+            recordOffsets = Arrays.copyOf(recordOffsets, recordCount * 2);
+
+        recordOffsets[recordCount++] = bufferLength;
+        buffer[bufferLength] = (byte)(keyLength >>> 8);
+        buffer[bufferLength + 1] = (byte)keyLength;
+        System.arraycopy(key, 0, buffer, bufferLength + 2, keyLength);
+        bufferLength += recordSize;
+    }
+
+    /**
+     * Ends the game being played, giving its final score to every position recorded since
+     * the previous game ended.
+     *
+     * @param finalScore The score at the end of the game.
+     */
+    public void endGame(int finalScore) {
+        for(int record = gameFirstRecord; record < recordCount; record++) {
+            int scoreOffset = recordOffsets[record] + 2 + getKeyLength(recordOffsets[record]);
+            buffer[scoreOffset] = (byte)(finalScore >>> 24);
+            buffer[scoreOffset + 1] = (byte)(finalScore >>> 16);
+            buffer[scoreOffset + 2] = (byte)(finalScore >>> 8);
+            buffer[scoreOffset + 3] = (byte)finalScore;
+        }
+        gameFirstRecord = recordCount;
+    }
+
+    /**
+     * Writes the positions of every ended game to a database, merging in every sorted run
+     * written so far, then deletes the runs. Positions of a game that has not been ended
+     * are left out. The recorder is empty afterwards and can be used again.
+     *
+     * @param output The file to write the database to.
+     * @return The number of distinct positions in the database.
+     * @throws IOException If a run could not be written or read, or the database could not be written.
+     */
+    public long finish(Path output) throws IOException {
+        writeRun();
+        long entryCount;
+        if(runs.isEmpty()) {
+            // A database with no blocks
+            new PositionDatabaseWriter(output, gridWidth, gridHeight).close();
+            entryCount = 0;
+        } else if(runs.size() == 1) {
+            Files.move(runs.get(0), output, StandardCopyOption.REPLACE_EXISTING);
+            try(PositionDatabase database = new PositionDatabase(output)) {
+                entryCount = database.getEntryCount();
+            }
+        } else {
+            // The runs are unmapped by the merge before they are deleted
+            entryCount = PositionDatabase.merge(runs, output);
+            for(Path run : runs)
+                Files.delete(run);
+        }
+        runs.clear();
+        bufferLength = 0;
+        recordCount = 0;
+        gameFirstRecord = 0;
+        return entryCount;
+    }
+
+    /**
+     * Gets the number of sorted runs written so far.
+     *
+     * @return The number of runs.
+     */
+    public int getRunCount() { return runs.size(); }
+
+    /**
+     * Sorts the records of every ended game, writes them as a new run with the records of
+     * the same position combined, and moves the records of the game being played to the
+     * start of the buffer.
+     *
+     * @throws IOException If the run could not be written.
+     */
+    private void writeRun() throws IOException {
+        int finishedRecords = gameFirstRecord;
+        if(finishedRecords == 0) return;
+
+        sortRecords(finishedRecords);
+        Path run = workDirectory.resolve("run-" + runs.size() + ".pdb");
+        try(PositionDatabaseWriter writer = new PositionDatabaseWriter(run, gridWidth, gridHeight)) {
+            int record = 0;
+            while(record < finishedRecords) {
+                int offset = recordOffsets[record];
+                int keyLength = getKeyLength(offset);
+                long count = 0;
+                long scoreSum = 0;
+                // Records with the same key are next to each other once sorted
+                do {
+                    count++;
+                    scoreSum += getScore(recordOffsets[record]);
+                    record++;
+                } while(record < finishedRecords && compareRecords(recordOffsets[record], offset) == 0);
+                writer.add(buffer, offset + 2, keyLength, count, scoreSum);
+            }
+        }
+        runs.add(run);
+
+        // Keep the game being played, whose records are after every finished record
+        int keepStart = recordCount > finishedRecords ? recordOffsets[finishedRecords] : bufferLength;
+        System.arraycopy(buffer, keepStart, buffer, 0, bufferLength - keepStart);
+        bufferLength -= keepStart;
+        for(int record = finishedRecords; record < recordCount; record++)
+            recordOffsets[record - finishedRecords] = recordOffsets[record] - keepStart;
+        recordCount -= finishedRecords;
+        gameFirstRecord = 0;
+    }
+
+    /**
+     * Sorts the first records by key with a bottom up merge sort of their offsets.
+     *
+     * @param count Number of records to sort.
+     */
+    private void sortRecords(int count) {
+        if(sortScratch == null || sortScratch.length < count)
+            sortScratch = new int[recordOffsets.length];
+        int[] from = recordOffsets;
+        int[] to = sortScratch;
+        for(int width = 1; width < count; width *= 2) {
+            for(int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count);
+                int end = Math.min(start + 2 * width, count);
+                int left = start, right = middle, out = start;
+                while(left < middle && right < end)
+                    to[out++] = compareRecords(from[left], from[right]) <= 0 ? from[left++] : from[right++];
+                while(left < middle)
+                    to[out++] = from[left++];
+                while(right < end)
+                    to[out++] = from[right++];
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if(from != recordOffsets)
+            System.arraycopy(from, 0, recordOffsets, 0, count);
+    }
+
+    /**
+     * Compares the keys of two records.
+     *
+     * @param a Offset of the first record.
+     * @param b Offset of the second record.
+     * @return Less than 0, 0 or more than 0 if the first key sorts before, the same as, or after the second.
+     */
+    private int compareRecords(int a, int b) {
+        return PositionDatabase.compareKeys(buffer, a + 2, getKeyLength(a), buffer, b + 2, getKeyLength(b));
+    }
+
+    /**
+     * Gets the length of the key of a record.
+     *
+     * @param offset Offset of the record.
+     * @return The number of bytes in the key.
+     */
+    private int getKeyLength(int offset) {
+        return (buffer[offset] & 0xFF) << 8 | (buffer[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Gets the final score of a record.
+     *
+     * @param offset Offset of the record.
+     * @return The final score of the game the position was seen in.
+     */
+    private int getScore(int offset) {
+        int scoreOffset = offset + 2 + getKeyLength(offset);
+        return (buffer[scoreOffset] & 0xFF) << 24 | (buffer[scoreOffset + 1] & 0xFF) << 16
+                | (buffer[scoreOffset + 2] & 0xFF) << 8 | (buffer[scoreOffset + 3] & 0xFF);
+    }
+}
@@ -6,11 +6,12 @@ import java.awt.*;
  * Author: Peter Mitchell (2021)
  *
  * PreviewPanel class:
- * Renders a preview of the next piece to be played.
+ * Renders a preview of the next piece to be played. The panel draws its own copy of the
+ * piece, so the game can change its pieces on another thread while the preview is painted.
  */
 public class PreviewPanel extends JPanel {
     /**
-     * Reference to the next piece from the Tetris Panel.
+     * Copy of the next piece, only used on the event dispatch thread. Null until the first piece is set.
      */
     private TetrisPiece nextPiece;
 
@@ -37,10 +38,12 @@ public class PreviewPanel extends JPanel {
     /**
      * Changes the next piece to be displayed and forces a repaint.
      *
-     * @param nextPiece The next piece to be displayed.
+     * @param pieceType The type of the next piece to be displayed.
      */
-    public void setNextPiece(TetrisPiece nextPiece) {
-        this.nextPiece = nextPiece;
+    public void setNextPiece(int pieceType) {
+        if(nextPiece == null)
+            nextPiece = new TetrisPiece(new Position(0, 0));
+        nextPiece.reset(pieceType);
         repaint();
     }
 }
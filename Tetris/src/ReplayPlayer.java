@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * ReplayPlayer class:
+ * Plays back a game recorded by ReplayRecorder. The piece generator is recreated
+ * from the seed in the header and the recorded inputs are applied to a fresh
+ * GameEngine at the same steps they were originally applied. Games can be played
+ * one step at a time for display, or as fast as possible to verify the recorded result.
+ */
+public class ReplayPlayer {
+    /**
+     * Plays back every replay file given as fast as possible and checks
+     * the final result matches the recorded result.
+     * Usage: ReplayPlayer file...
+     *
+     * @param args The replay files to verify.
+     * @throws IOException If a replay file could not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        int failed = 0;
+        long totalTicks = 0;
+        long startTime = System.nanoTime();
+        for(String file : args) {
+            ReplayPlayer replayPlayer = new ReplayPlayer(Paths.get(file));
+            replayPlayer.playToEnd();
+            totalTicks += replayPlayer.getGameEngine().getTickCount();
+            if(!replayPlayer.isVerified()) {
+                failed++;
+                System.out.println("MISMATCH: " + file);
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("Replayed %d games (%d steps) in %.2fs, %d mismatched%n",
+                args.length, totalTicks, seconds, failed);
+    }
+
+    /**
+     * The contents of the replay file positioned at the next input.
+     */
+    private final ByteBuffer data;
+    /**
+     * The game the replay is played on.
+     */
+    private final GameEngine gameEngine;
+    /**
+     * Step number of the next input in the data.
+     */
+    private int nextInputTick;
+    /**
+     * The next input byte in the data, or END_OF_GAME when there are no more inputs.
+     */
+    private int nextInput;
+    /**
+     * Recorded final score, lines cleared and pieces locked, or -1 if the recording
+     * ended without them.
+     */
+    private int recordedScore, recordedLines, recordedPieces;
+
+    /**
+     * Reads the replay file and prepares a game engine to play it back
+     * on a board with the default cell size.
+     *
+     * @param file The replay file written by ReplayRecorder.
+     * @throws IOException If the file could not be read or is not a replay.
+     */
+    public ReplayPlayer(Path file) throws IOException {
+        this(file, TetrisBoard.DEFAULT_CELL_DIM);
+    }
+
+    /**
+     * Reads the replay file and prepares a game engine to play it back on a board
+     * of the size the game was recorded on.
+     *
+     * @param file The replay file written by ReplayRecorder.
+     * @param cellDim Dimension of each cell of the board in pixels when the replay is shown.
+     * @throws IOException If the file could not be read or is not a replay.
+     */
+    public ReplayPlayer(Path file, int cellDim) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = ByteBuffer.allocate((int)channel.size());
+            while(data.hasRemaining() && channel.read(data) >= 0) {}
+            data.flip();
+        }
+
+        if(data.remaining() < 5 || data.getInt() != ReplayRecorder.MAGIC || data.get() != ReplayRecorder.VERSION)
+            throw new IOException("Not a supported replay file: " + file);
+        // Name length, name, seed, width and height
+        int nameLength = data.hasRemaining() ? data.get() & 0xFF : 0;
+        if(data.remaining() < nameLength + 8 + 2 + 2)
+            throw new IOException("Replay header is cut short: " + file);
+        byte[] generatorName = new byte[nameLength];
+        data.get(generatorName);
+        long seed = data.getLong();
+        int width = data.getShort();
+        int height = data.getShort();
+        if(width < TetrisBoard.MIN_GRID_SIZE || height < TetrisBoard.MIN_GRID_SIZE)
+            throw new IOException("Replay was recorded on a " + width + "x" + height + " board: " + file);
+
+        gameEngine = new GameEngine(PieceGenerator.create(new String(generatorName, StandardCharsets.US_ASCII), seed),
+                new TetrisBoard(width, height, cellDim));
+        recordedScore = recordedLines = recordedPieces = -1;
+        nextInputTick = 0;
+        readNextInput();
+    }
+
+    /**
+     * Applies the recorded inputs up to and including the next step.
+     * Inputs applied between steps are applied first, followed by the step itself.
+     */
+    public void playTick() {
+        int tick = gameEngine.getTickCount();
+        while(nextInput != ReplayRecorder.END_OF_GAME && nextInputTick == tick
+                && (nextInput & ReplayRecorder.STEP_FLAG) == 0) {
+            gameEngine.applyAction(nextInput);
+            readNextInput();
+        }
+        if(isFinished()) return;
+
+        int stepInput = GameEngine.INPUT_NONE;
+        if(nextInput != ReplayRecorder.END_OF_GAME && nextInputTick == tick) {
+            stepInput = nextInput & ~ReplayRecorder.STEP_FLAG;
+            readNextInput();
+        }
+        gameEngine.step(stepInput);
+    }
+
+    /**
+     * Plays every remaining step of the replay as fast as possible.
+     */
+    public void playToEnd() {
+        while(!isFinished())
+            playTick();
+    }
+
+    /**
+     * Checks if every recorded step has been played.
+     *
+     * @return True when there is nothing more to play.
+     */
+    public boolean isFinished() {
+        return gameEngine.isGameOver()
+                || (nextInput == ReplayRecorder.END_OF_GAME && gameEngine.getTickCount() >= nextInputTick);
+    }
+
+    /**
+     * Checks that the replay has finished with the same result that was recorded.
+     *
+     * @return True if the final score, lines and pieces match the recording.
+     */
+    public boolean isVerified() {
+        return isFinished() && recordedScore == gameEngine.getScore()
+                && recordedLines == gameEngine.getLinesCleared()
+                && recordedPieces == gameEngine.getPiecesLocked();
+    }
+
+    /**
+     * Gets the game the replay is played on.
+     *
+     * @return The game engine.
+     */
+    public GameEngine getGameEngine() { return gameEngine; }
+
+    /**
+     * Reads the next varint step count and input byte. At the end of the game the
+     * recorded result is read. If the recording stopped without an end of game
+     * the replay ends at the last input.
+     */
+    private void readNextInput() {
+        if(data.remaining() < 2) {
+            nextInput = ReplayRecorder.END_OF_GAME;
+            return;
+        }
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get();
+            delta |= (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        nextInputTick += delta;
+        nextInput = data.get() & 0xFF;
+
+        if(nextInput == ReplayRecorder.END_OF_GAME && data.remaining() >= 12) {
+            recordedScore = data.getInt();
+            recordedLines = data.getInt();
+            recordedPieces = data.getInt();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * ReplayRecorder class:
+ * Records a game as a compact binary stream that ReplayPlayer can play back.
+ * The header stores the piece generator and seed, and each input is stored as
+ * the number of steps since the previous input followed by a single byte for the
+ * input. Data is collected in a buffer and written to a file channel when it fills.
+ * If the file cannot be written while the game is being played, the error is reported and
+ * recording stops, leaving the game running without a replay.
+ *
+ * File layout:
+ *   int MAGIC, byte VERSION, byte generator name length, generator name,
+ *   long seed, short grid width, short grid height,
+ *   then per input: varint steps since previous input, byte input (STEP_FLAG set
+ *   when the input was passed to step() rather than applyAction()),
+ *   then varint steps since previous input, byte END_OF_GAME, int score,
+ *   int lines cleared, int pieces locked.
+ */
+public class ReplayRecorder implements Closeable {
+    /**
+     * Value at the start of every replay file.
+     */
+    public static final int MAGIC = 0x54525031;
+    /**
+     * Version of the file layout.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * Set on the input byte when the input was passed to step() rather than applyAction().
+     */
+    public static final int STEP_FLAG = 0x80;
+    /**
+     * Input byte marking the end of the recorded game.
+     */
+    public static final int END_OF_GAME = 0x7F;
+
+    /**
+     * Size of the buffer used to collect data before it is written.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Channel to the replay file.
+     */
+    private final FileChannel channel;
+    /**
+     * Buffer collecting data until it is written to the channel.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The game being recorded.
+     */
+    private final GameEngine gameEngine;
+    /**
+     * Step number of the previous recorded input.
+     */
+    private int lastTick;
+    /**
+     * Set once writing has failed and recording has stopped.
+     */
+    private boolean failed;
+
+    /**
+     * Creates the replay file, writes the header and starts recording
+     * every input applied to the game engine.
+     *
+     * @param file The file to write the replay to.
+     * @param gameEngine The game to record. Must not have had any steps yet.
+     * @throws IOException If the file could not be created.
+     */
+    public ReplayRecorder(Path file, GameEngine gameEngine) throws IOException {
+        this.gameEngine = gameEngine;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        PieceGenerator pieceGenerator = gameEngine.getPieceGenerator();
+        byte[] generatorName = pieceGenerator.getName().getBytes(StandardCharsets.US_ASCII);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte)generatorName.length);
+        buffer.put(generatorName);
+        buffer.putLong(pieceGenerator.getSeed());
+        buffer.putShort((short)gameEngine.getBoard().getGridWidth());
+        buffer.putShort((short)gameEngine.getBoard().getGridHeight());
+        lastTick = gameEngine.getTickCount();
+        gameEngine.setReplayRecorder(this);
+    }
+
+    /**
+     * Records an input passed to step().
+     *
+     * @param tick The number of steps before this one.
+     * @param input The input passed to step().
+     */
+    public void recordStep(int tick, int input) {
+        record(tick, input | STEP_FLAG);
+    }
+
+    /**
+     * Records an input passed to applyAction().
+     *
+     * @param tick The number of steps performed before the input.
+     * @param input The input passed to applyAction().
+     */
+    public void recordAction(int tick, int input) {
+        record(tick, input);
+    }
+
+    /**
+     * Stops recording, writes the final result of the game so the replay can
+     * be verified, and closes the file. Does nothing if recording already failed.
+     *
+     * @throws IOException If the data could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if(failed) return;
+        gameEngine.setReplayRecorder(null);
+        record(gameEngine.getTickCount(), END_OF_GAME);
+        // Already reported by record(), which closed the file
+        if(failed) return;
+        buffer.putInt(gameEngine.getScore());
+        buffer.putInt(gameEngine.getLinesCleared());
+        buffer.putInt(gameEngine.getPiecesLocked());
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the steps since the previous input as a varint followed by the input byte.
+     * The buffer is written out first if it is close to full, and if that fails
+     * recording stops instead of the error reaching the game.
+     *
+     * @param tick The step number of the input.
+     * @param inputByte The byte to store for the input.
+     */
+    private void record(int tick, int inputByte) {
+        if(buffer.remaining() < 32) {
+            try {
+                flush();
+            } catch(IOException e) {
+                fail(e);
+                return;
+            }
+        }
+        int delta = tick - lastTick;
+        lastTick = tick;
+        while((delta & ~0x7F) != 0) {
+            buffer.put((byte)((delta & 0x7F) | 0x80));
+            delta >>>= 7;
+        }
+        buffer.put((byte)delta);
+        buffer.put((byte)inputByte);
+    }
+
+    /**
+     * Reports an error writing the replay, stops recording and closes the file.
+     *
+     * @param e The error that stopped recording.
+     */
+    private void fail(IOException e) {
+        System.err.println("Could not record replay: " + e.getMessage());
+        failed = true;
+        gameEngine.setReplayRecorder(null);
+        try {
+            channel.close();
+        } catch(IOException closeError) {
+            // Already reported the first error
+        }
+    }
+
+    /**
+     * Writes everything collected in the buffer to the file.
+     *
+     * @throws IOException If the data could not be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * SaveFile class:
+ * Holds a fixed number of saved games in one memory-mapped file, so a game is saved or
+ * loaded by copying its fixed-layout state from GameEngine.writeState() straight in to or
+ * out of the mapped memory without any other file operations. Every slot is the same size
+ * for one size of board, so a batch job can checkpoint thousands of games in flight with a
+ * slot per game. Each slot has a checksum so a save interrupted part way through is found
+ * when loading instead of restoring a broken game. Saves stay in the file once the process
+ * exits; force() also writes them to the disk to survive the machine stopping.
+ * Different slots can be saved and loaded from different threads at the same time.
+ *
+ * File layout:
+ *   int MAGIC, short VERSION, short grid width, short grid height, int slot count,
+ *   int slot size, padded to HEADER_SIZE bytes,
+ *   then per slot: int SLOT_EMPTY or SLOT_SAVED, int CRC32 of the rest of the slot,
+ *   long time saved in milliseconds since the epoch, GameEngine state,
+ *   padded to a multiple of SLOT_ALIGNMENT bytes.
+ */
+public class SaveFile {
+    /**
+     * Saves and loads every slot of a file from bot games in progress and prints the time taken.
+     * Usage: SaveFile [file] [slots]
+     *
+     * @param args The file to use and the number of games to checkpoint.
+     * @throws IOException If the file could not be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "checkpoint.sav");
+        int slotCount = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+
+        SaveFile saveFile = new SaveFile(file, slotCount, TetrisBoard.DEFAULT_GRID_WIDTH, TetrisBoard.DEFAULT_GRID_HEIGHT);
+        GameEngine[] engines = new GameEngine[slotCount];
+        TetrisBot bot = new TetrisBot();
+        int[] inputs = new int[TetrisBot.getMaxInputs(new TetrisBoard())];
+        for(int slot = 0; slot < slotCount; slot++) {
+            engines[slot] = new GameEngine(new SevenBagPieceGenerator(slot));
+            // Play a different number of pieces in each game so the boards differ
+            for(int piece = 0; piece < slot % 50 && !engines[slot].isGameOver(); piece++) {
+                int count = bot.findMoves(engines[slot].getBoard(), engines[slot].getCurrentPiece(),
+                        engines[slot].getNextPiece(), inputs);
+                for(int i = 0; i < count; i++)
+                    engines[slot].step(inputs[i]);
+            }
+        }
+
+        long startTime = System.nanoTime();
+        for(int slot = 0; slot < slotCount; slot++)
+            saveFile.save(slot, engines[slot]);
+        long saveNanos = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        saveFile.force();
+        long forceNanos = System.nanoTime() - startTime;
+
+        GameEngine restored = new GameEngine(new SevenBagPieceGenerator(0));
+        int mismatches = 0;
+        startTime = System.nanoTime();
+        for(int slot = 0; slot < slotCount; slot++) {
+            if(!saveFile.load(slot, restored) || restored.getBoard().getHash() != engines[slot].getBoard().getHash()
+                    || restored.getPiecesLocked() != engines[slot].getPiecesLocked())
+                mismatches++;
+        }
+        long loadNanos = System.nanoTime() - startTime;
+        System.out.printf("%d slots of %d bytes: save %.2f us, load %.2f us per slot, force %.2f ms, %d mismatches%n",
+                slotCount, saveFile.getSlotSize(), saveNanos / 1000.0 / slotCount, loadNanos / 1000.0 / slotCount,
+                forceNanos / 1e6, mismatches);
+    }
+
+    /**
+     * Value at the start of every save file.
+     */
+    public static final int MAGIC = 0x54534156;
+    /**
+     * Version of the file layout.
+     */
+    public static final short VERSION = 1;
+    /**
+     * Value at the start of a slot that has never been saved to.
+     */
+    public static final int SLOT_EMPTY = 0;
+    /**
+     * Value at the start of a slot holding a saved game.
+     */
+    public static final int SLOT_SAVED = 1;
+    /**
+     * File in the working directory the game window saves to and loads from with F5 and F9.
+     */
+    public static final Path QUICK_SAVE_FILE = Paths.get("tetris.sav");
+
+    /**
+     * Size of the header at the start of the file.
+     */
+    private static final int HEADER_SIZE = 64;
+    /**
+     * Size of the values at the start of each slot before the game state.
+     */
+    private static final int SLOT_HEADER_SIZE = 16;
+    /**
+     * Slots are padded to a multiple of this size so no two slots share a cache line.
+     */
+    private static final int SLOT_ALIGNMENT = 64;
+
+    /**
+     * Size of the board of the games saved in the file.
+     */
+    private final int gridWidth, gridHeight;
+    /**
+     * Number of bytes in each slot.
+     */
+    private final int slotSize;
+    /**
+     * The whole file mapped in to memory.
+     */
+    private final MappedByteBuffer mapped;
+    /**
+     * View of the mapped memory for each slot, each with its own position, so
+     * different slots can be used from different threads.
+     */
+    private final ByteBuffer[] slots;
+
+    /**
+     * Opens a save file, creating it with every slot empty if it does not exist.
+     *
+     * @param file The file to open or create.
+     * @param slotCount Number of games the file holds.
+     * @param gridWidth Number of cells on the horizontal axis of the boards of the games.
+     * @param gridHeight Number of cells on the vertical axis of the boards of the games.
+     * @throws IOException If the file could not be opened, or exists with a different number
+     *                     of slots or size of board.
+     */
+    public SaveFile(Path file, int slotCount, int gridWidth, int gridHeight) throws IOException {
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        int stateSize = SLOT_HEADER_SIZE + GameEngine.getStateSize(gridWidth, gridHeight);
+        slotSize = (stateSize + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+        long fileSize = HEADER_SIZE + (long)slotCount * slotSize;
+        if(fileSize > Integer.MAX_VALUE)
+            throw new IOException("Too many slots for one file: " + slotCount);
+
+        boolean created = !Files.exists(file) || Files.size(file) == 0;
+        // The mapping stays valid after the channel is closed
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if(!created && channel.size() != fileSize)
+                throw new IOException(file + " is not a save file with " + slotCount + " slots for a "
+                        + gridWidth + "x" + gridHeight + " board");
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        if(created) {
+            mapped.putInt(0, MAGIC);
+            mapped.putShort(4, VERSION);
+            mapped.putShort(6, (short)gridWidth);
+            mapped.putShort(8, (short)gridHeight);
+            mapped.putInt(10, slotCount);
+            mapped.putInt(14, slotSize);
+        } else if(mapped.getInt(0) != MAGIC || mapped.getShort(4) != VERSION || mapped.getShort(6) != gridWidth
+                || mapped.getShort(8) != gridHeight || mapped.getInt(10) != slotCount || mapped.getInt(14) != slotSize) {
+            throw new IOException(file + " is not a save file with " + slotCount + " slots for a "
+                    + gridWidth + "x" + gridHeight + " board");
+        }
+
+        slots = new ByteBuffer[slotCount];
+        for(int slot = 0; slot < slotCount; slot++)
+            slots[slot] = mapped.slice(HEADER_SIZE + slot * slotSize, slotSize);
+    }
+
+    /**
+     * Saves a game in to a slot, replacing any game already saved there.
+     *
+     * @param slot The slot from 0 to getSlotCount()-1.
+     * @param gameEngine The game to save, on a board of the size of the file.
+     * @throws IllegalArgumentException If the board of the game is a different size.
+     */
+    public void save(int slot, GameEngine gameEngine) {
+        checkBoardSize(gameEngine);
+        ByteBuffer buffer = slots[slot];
+        buffer.clear();
+        buffer.position(8);
+        buffer.putLong(System.currentTimeMillis());
+        gameEngine.writeState(buffer);
+        buffer.putInt(4, getChecksum(buffer));
+        // Marked saved last, after everything it covers has been written
+        buffer.putInt(0, SLOT_SAVED);
+    }
+
+    /**
+     * Replaces a game with the game saved in a slot.
+     *
+     * @param slot The slot from 0 to getSlotCount()-1.
+     * @param gameEngine The game to replace, on a board of the size of the file and
+     *                   with the same type of piece generator as the saved game.
+     * @return False if nothing has been saved in the slot or the save was not finished,
+     *         leaving the game unchanged.
+     * @throws IllegalArgumentException If the game has a different size of board or piece generator.
+     */
+    public boolean load(int slot, GameEngine gameEngine) {
+        checkBoardSize(gameEngine);
+        ByteBuffer buffer = slots[slot];
+        buffer.clear();
+        if(buffer.getInt(0) != SLOT_SAVED) return false;
+
+        buffer.position(SLOT_HEADER_SIZE + gameEngine.getStateSize());
+        if(buffer.getInt(4) != getChecksum(buffer)) return false;
+
+        buffer.position(SLOT_HEADER_SIZE);
+        gameEngine.readState(buffer);
+        return true;
+    }
+
+    /**
+     * Calculates the checksum of a slot from the saved time up to the position of the buffer.
+     *
+     * @param buffer View of the slot.
+     * @return The CRC32 of the slot contents.
+     */
+    private static int getChecksum(ByteBuffer buffer) {
+        int end = buffer.position();
+        buffer.position(8);
+        buffer.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        buffer.clear();
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Checks that a game is played on a board of the size of the file.
+     *
+     * @param gameEngine The game to check.
+     * @throws IllegalArgumentException If the board is a different size.
+     */
+    private void checkBoardSize(GameEngine gameEngine) {
+        TetrisBoard board = gameEngine.getBoard();
+        if(board.getGridWidth() != gridWidth || board.getGridHeight() != gridHeight)
+            throw new IllegalArgumentException("Save file is for a " + gridWidth + "x" + gridHeight
+                    + " board, not a " + board.getGridWidth() + "x" + board.getGridHeight() + " board");
+    }
+
+    /**
+     * Checks if a game has been saved in a slot.
+     *
+     * @param slot The slot from 0 to getSlotCount()-1.
+     * @return True if the slot holds a saved game.
+     */
+    public boolean isSlotUsed(int slot) {
+        return slots[slot].getInt(0) == SLOT_SAVED;
+    }
+
+    /**
+     * Gets the time a game was saved in a slot.
+     *
+     * @param slot The slot from 0 to getSlotCount()-1.
+     * @return Milliseconds since the epoch, or 0 if the slot is empty.
+     */
+    public long getSaveTime(int slot) {
+        return isSlotUsed(slot) ? slots[slot].getLong(8) : 0;
+    }
+
+    /**
+     * Marks a slot as empty.
+     *
+     * @param slot The slot from 0 to getSlotCount()-1.
+     */
+    public void clear(int slot) {
+        slots[slot].putInt(0, SLOT_EMPTY);
+    }
+
+    /**
+     * Writes every save made so far to the disk, so they survive the machine stopping
+     * as well as the process exiting.
+     */
+    public void force() {
+        mapped.force();
+    }
+
+    /**
+     * Gets the number of games the file holds.
+     *
+     * @return The number of slots.
+     */
+    public int getSlotCount() { return slots.length; }
+
+    /**
+     * Gets the number of bytes each slot takes in the file.
+     *
+     * @return The size of a slot.
+     */
+    public int getSlotSize() { return slotSize; }
+}
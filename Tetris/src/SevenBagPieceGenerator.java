@@ -0,0 +1,99 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * SevenBagPieceGenerator class:
+ * Deals pieces from a shuffled bag holding one of each piece type, refilling and
+ * reshuffling the bag once it is empty. Every piece type is seen once in every
+ * group of seven pieces.
+ */
+public class SevenBagPieceGenerator extends PieceGenerator {
+    /**
+     * The bag of piece types in the order they will be dealt.
+     */
+    private final int[] bag;
+    /**
+     * Index of the next piece in the bag to be dealt.
+     */
+    private int bagIndex;
+
+    /**
+     * Creates the generator with the specified seed.
+     *
+     * @param seed The seed for the generator.
+     */
+    public SevenBagPieceGenerator(long seed) {
+        super(seed);
+        bag = new int[TetrisPiece.PIECE_TYPE_COUNT];
+        resetState();
+    }
+
+    /**
+     * Deals the next piece from the bag, refilling it first if it is empty.
+     *
+     * @return The piece type.
+     */
+    @Override
+    protected int generate() {
+        if(bagIndex == bag.length)
+            refillBag();
+        return bag[bagIndex++];
+    }
+
+    /**
+     * Empties the bag so it is refilled on the next piece.
+     */
+    @Override
+    protected void resetState() {
+        bagIndex = bag.length;
+    }
+
+    /**
+     * Puts one of each piece type into the bag and shuffles it with a Fisher-Yates shuffle.
+     */
+    private void refillBag() {
+        for(int i = 0; i < bag.length; i++)
+            bag[i] = i;
+        for(int i = bag.length - 1; i > 0; i--) {
+            int j = nextRandom(i + 1);
+            int temp = bag[i];
+            bag[i] = bag[j];
+            bag[j] = temp;
+        }
+        bagIndex = 0;
+    }
+
+    /**
+     * Writes the bag and the index of the next piece in it.
+     *
+     * @param buffer The buffer to write to at its position.
+     */
+    @Override
+    protected void writeGeneratorState(ByteBuffer buffer) {
+        buffer.put((byte)bagIndex);
+        for(int i = 0; i < bag.length; i++)
+            buffer.put((byte)bag[i]);
+    }
+
+    /**
+     * Reads the bag and the index of the next piece in it.
+     *
+     * @param buffer The buffer to read from at its position.
+     */
+    @Override
+    protected void readGeneratorState(ByteBuffer buffer) {
+        bagIndex = buffer.get();
+        for(int i = 0; i < bag.length; i++)
+            bag[i] = buffer.get();
+    }
+
+    /**
+     * Gets the name of the generator as used by PieceGenerator.create().
+     *
+     * @return The name "bag".
+     */
+    @Override
+    public String getName() { return "bag"; }
+}
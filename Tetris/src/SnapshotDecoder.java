@@ -0,0 +1,202 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * SnapshotDecoder class:
+ * Rebuilds the board and falling piece of a game from frames written by SnapshotEncoder,
+ * for a spectator or a client following the game over a network. Frames must be decoded
+ * in the order they were encoded, starting from a keyframe. Only the rows in each frame are
+ * changed on the board, so they show up as dirty rows for the panel to repaint, and nothing
+ * is allocated unless a keyframe changes the size of the board.
+ */
+public class SnapshotDecoder {
+    /**
+     * Dimension of each cell in pixels on the boards created.
+     */
+    private final int cellDim;
+    /**
+     * The board rebuilt from the frames, or null before the first keyframe.
+     */
+    private TetrisBoard board;
+    /**
+     * Occupancy words of the row being read.
+     */
+    private long[] rowWords;
+    /**
+     * Colours of the row being read.
+     */
+    private byte[] rowColours;
+    /**
+     * State of the falling piece.
+     */
+    private int pieceType, rotation, left, top;
+
+    /**
+     * Creates a decoder waiting for a keyframe.
+     *
+     * @param cellDim Dimension of each cell in pixels on the board created by the keyframe.
+     */
+    public SnapshotDecoder(int cellDim) {
+        this.cellDim = cellDim;
+    }
+
+    /**
+     * Applies a frame to the board and piece.
+     *
+     * @param frame The frame, read from its position to its limit.
+     * @throws IllegalStateException If the frame only holds changes and no keyframe has been decoded.
+     */
+    public void decode(ByteBuffer frame) {
+        int flags = frame.get();
+        if((flags & SnapshotEncoder.FLAG_KEYFRAME) != 0) {
+            readKeyframe(frame);
+            return;
+        }
+        if(board == null)
+            throw new IllegalStateException("Cannot decode changes before a keyframe");
+
+        if((flags & SnapshotEncoder.FLAG_ROWS) != 0) {
+            int y = -1;
+            int rowsSincePrevious;
+            while((rowsSincePrevious = (int)readVarint(frame)) != 0) {
+                y += rowsSincePrevious;
+                readRow(frame, y);
+            }
+        }
+        if((flags & SnapshotEncoder.FLAG_PIECE_DOWN) != 0)
+            top++;
+        if((flags & SnapshotEncoder.FLAG_PIECE_TYPE) != 0)
+            readPieceTypeAndRotation(frame);
+        if((flags & SnapshotEncoder.FLAG_PIECE_LEFT) != 0)
+            left += unzigzag(readVarint(frame));
+        if((flags & SnapshotEncoder.FLAG_PIECE_TOP) != 0)
+            top += unzigzag(readVarint(frame));
+    }
+
+    /**
+     * Reads every row and the whole piece state, creating a new board if the size changed.
+     *
+     * @param frame The frame positioned after the flags.
+     */
+    private void readKeyframe(ByteBuffer frame) {
+        int gridWidth = frame.getShort();
+        int gridHeight = frame.getShort();
+        if(board == null || board.getGridWidth() != gridWidth || board.getGridHeight() != gridHeight) {
+            board = new TetrisBoard(gridWidth, gridHeight, cellDim);
+            rowWords = new long[board.getWordsPerRow()];
+            rowColours = new byte[gridWidth];
+        }
+        for(int y = 0; y < gridHeight; y++)
+            readRow(frame, y);
+        readPieceTypeAndRotation(frame);
+        left = unzigzag(readVarint(frame));
+        top = unzigzag(readVarint(frame));
+    }
+
+    /**
+     * Reads the occupancy words and colour runs of a row and replaces the row on the board.
+     *
+     * @param frame The frame positioned at the row.
+     * @param y The grid row.
+     */
+    private void readRow(ByteBuffer frame, int y) {
+        for(int word = 0; word < rowWords.length; word++)
+            rowWords[word] = readVarint(frame);
+
+        int runLength = 0;
+        int runColour = 0;
+        for(int word = 0; word < rowWords.length; word++) {
+            for(int x = word << 6; x < Math.min(rowColours.length, (word + 1) << 6); x++) {
+                if((rowWords[word] & (1L << (x & 63))) == 0) {
+                    rowColours[x] = 0;
+                    continue;
+                }
+                if(runLength == 0) {
+                    int run = frame.get() & 0xFF;
+                    runLength = (run >>> 4) + 1;
+                    runColour = run & 0x0F;
+                }
+                rowColours[x] = (byte)runColour;
+                runLength--;
+            }
+        }
+        board.setRow(y, rowColours, 0);
+    }
+
+    /**
+     * Reads the byte holding the piece type and rotation.
+     *
+     * @param frame The frame positioned at the byte.
+     */
+    private void readPieceTypeAndRotation(ByteBuffer frame) {
+        int value = frame.get();
+        pieceType = value & 0x07;
+        rotation = (value >>> 3) & 0x03;
+    }
+
+    /**
+     * Reads an unsigned value written 7 bits at a time, lowest bits first.
+     *
+     * @param frame The frame positioned at the value.
+     * @return The value.
+     */
+    private static long readVarint(ByteBuffer frame) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = frame.get();
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Reverses the zigzag mapping of a signed value.
+     *
+     * @param value The mapped value.
+     * @return The signed value.
+     */
+    private static int unzigzag(long value) {
+        int n = (int)value;
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Gets the board rebuilt from the frames.
+     *
+     * @return The board, or null before the first keyframe.
+     */
+    public TetrisBoard getBoard() { return board; }
+
+    /**
+     * Gets the type of the falling piece.
+     *
+     * @return The piece type from 0 to PIECE_TYPE_COUNT-1.
+     */
+    public int getPieceType() { return pieceType; }
+
+    /**
+     * Gets the orientation of the falling piece.
+     *
+     * @return The rotation from 0 to ROTATION_COUNT-1.
+     */
+    public int getRotation() { return rotation; }
+
+    /**
+     * Gets the left column of the falling piece.
+     *
+     * @return The left grid column.
+     */
+    public int getLeft() { return left; }
+
+    /**
+     * Gets the top row of the falling piece.
+     *
+     * @return The top grid row, which can be above the board.
+     */
+    public int getTop() { return top; }
+}
@@ -0,0 +1,352 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * SnapshotEncoder class:
+ * Encodes the board and falling piece of a game once per tick for spectators and network
+ * sync. A keyframe with every row is sent at a fixed interval, and every other frame only
+ * holds the rows that changed since the previous frame and the changes to the piece, so
+ * a tick where the piece just falls a row is a single byte. Each frame is written into the
+ * same direct buffer, and the previous state is kept in arrays sized when the encoder is
+ * created, so encoding allocates nothing. SnapshotDecoder applies the frames in order.
+ *
+ * Frame layout:
+ *   byte flags (FLAG_ constants)
+ *   keyframe: short grid width, short grid height, every row from the top,
+ *             byte piece type and rotation, zigzag varint piece left, zigzag varint piece top
+ *   otherwise, if FLAG_ROWS: per changed row varint rows since the previous changed row
+ *             (counting from -1) then the row, ending with a 0,
+ *             then if FLAG_PIECE_TYPE byte piece type and rotation,
+ *             if FLAG_PIECE_LEFT zigzag varint change in left,
+ *             if FLAG_PIECE_TOP zigzag varint change in top
+ *   Each row is an unsigned varint per word of occupancy bits, then the colours of the filled
+ *   cells from left to right as runs, each a byte of (run length - 1) << 4 | colour.
+ *   The piece type and rotation byte is rotation << 3 | piece type.
+ */
+public class SnapshotEncoder {
+    /**
+     * Plays bot games one step per tick and prints the mean size of the frames.
+     * Usage: SnapshotEncoder [games] [keyframeInterval]
+     *
+     * @param args Number of games to play and ticks between keyframes.
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int keyframeInterval = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_KEYFRAME_INTERVAL;
+
+        long ticks = 0;
+        long bytes = 0;
+        int largestFrame = 0;
+        TetrisBot bot = new TetrisBot();
+        for(int game = 0; game < games; game++) {
+            GameEngine engine = new GameEngine(game);
+            SnapshotEncoder encoder = new SnapshotEncoder(engine.getBoard(), keyframeInterval);
+            int[] inputs = new int[TetrisBot.getMaxInputs(engine.getBoard())];
+            // Apply one of the bot's inputs per tick, as a player would
+            int inputCount = 0;
+            int nextInput = 0;
+            int plannedPiece = -1;
+            while(!engine.isGameOver() && engine.getPiecesLocked() < 1000) {
+                if(engine.getPiecesLocked() != plannedPiece) {
+                    plannedPiece = engine.getPiecesLocked();
+                    inputCount = bot.findMoves(engine.getBoard(), engine.getCurrentPiece(), engine.getNextPiece(), inputs);
+                    nextInput = 0;
+                }
+                // Hold back the hard drop so the piece falls for a while
+                int input = nextInput < inputCount - 1 ? inputs[nextInput++] : GameEngine.INPUT_NONE;
+                engine.step(input);
+                int size = encoder.encode(engine).remaining();
+                bytes += size;
+                largestFrame = Math.max(largestFrame, size);
+                ticks++;
+            }
+        }
+        System.out.printf("%d ticks, %.2f bytes per tick, largest frame %d bytes%n",
+                ticks, (double)bytes / ticks, largestFrame);
+    }
+
+    /**
+     * Ticks between keyframes when none is given.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 300;
+    /**
+     * Set when the frame is a keyframe holding the whole board and piece.
+     */
+    public static final int FLAG_KEYFRAME = 0x01;
+    /**
+     * Set when changed rows follow.
+     */
+    public static final int FLAG_ROWS = 0x02;
+    /**
+     * Set when the piece fell exactly one row and nothing else about it changed.
+     */
+    public static final int FLAG_PIECE_DOWN = 0x04;
+    /**
+     * Set when the piece type or rotation changed.
+     */
+    public static final int FLAG_PIECE_TYPE = 0x08;
+    /**
+     * Set when the left column of the piece changed.
+     */
+    public static final int FLAG_PIECE_LEFT = 0x10;
+    /**
+     * Set when the top row of the piece changed, other than by FLAG_PIECE_DOWN.
+     */
+    public static final int FLAG_PIECE_TOP = 0x20;
+    /**
+     * Most cells in a single colour run.
+     */
+    public static final int MAX_RUN_LENGTH = 16;
+
+    /**
+     * Size of the board the frames are for.
+     */
+    private final int gridWidth, gridHeight;
+    /**
+     * Number of words of occupancy bits per row.
+     */
+    private final int wordsPerRow;
+    /**
+     * Number of frames between keyframes.
+     */
+    private final int keyframeInterval;
+    /**
+     * Buffer every frame is written into.
+     */
+    private final ByteBuffer frame;
+    /**
+     * Occupancy of every row as of the previous frame.
+     */
+    private final long[] sentWords;
+    /**
+     * Colour of every cell as of the previous frame.
+     */
+    private final byte[] sentColours;
+    /**
+     * Piece state as of the previous frame.
+     */
+    private int sentPieceType, sentRotation, sentLeft, sentTop;
+    /**
+     * Number of frames since the last keyframe.
+     */
+    private int framesSinceKeyframe;
+    /**
+     * When true the next frame is a keyframe whatever the interval.
+     */
+    private boolean keyframeRequested;
+
+    /**
+     * Creates an encoder for boards of the same size as a board. The first frame is a keyframe.
+     *
+     * @param board A board of the size to encode.
+     * @param keyframeInterval Number of frames between keyframes.
+     */
+    public SnapshotEncoder(TetrisBoard board, int keyframeInterval) {
+        gridWidth = board.getGridWidth();
+        gridHeight = board.getGridHeight();
+        wordsPerRow = board.getWordsPerRow();
+        this.keyframeInterval = keyframeInterval;
+        // Worst case of every row changing: row index, a full varint per word and a run per cell
+        frame = ByteBuffer.allocateDirect(32 + gridHeight * (5 + wordsPerRow * 10 + gridWidth));
+        sentWords = new long[gridHeight * wordsPerRow];
+        sentColours = new byte[gridWidth * gridHeight];
+        keyframeRequested = true;
+    }
+
+    /**
+     * Makes the next frame a keyframe, for example when a spectator joins.
+     */
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    /**
+     * Encodes the frame for the current tick of a game.
+     *
+     * @param engine The game, with a board of the size the encoder was created for.
+     * @return The frame ready to be read, which is reused by the next call.
+     */
+    public ByteBuffer encode(GameEngine engine) {
+        return encode(engine.getBoard(), engine.getCurrentPiece());
+    }
+
+    /**
+     * Encodes the frame for the current tick of a board and falling piece.
+     *
+     * @param board The board, of the size the encoder was created for.
+     * @param piece The falling piece.
+     * @return The frame ready to be read, which is reused by the next call.
+     */
+    public ByteBuffer encode(TetrisBoard board, TetrisPiece piece) {
+        frame.clear();
+        if(keyframeRequested || framesSinceKeyframe >= keyframeInterval - 1) {
+            writeKeyframe(board, piece);
+            keyframeRequested = false;
+            framesSinceKeyframe = 0;
+        } else {
+            writeDelta(board, piece);
+            framesSinceKeyframe++;
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Writes every row and the whole piece state.
+     *
+     * @param board The board to encode.
+     * @param piece The falling piece.
+     */
+    private void writeKeyframe(TetrisBoard board, TetrisPiece piece) {
+        frame.put((byte)FLAG_KEYFRAME);
+        frame.putShort((short)gridWidth);
+        frame.putShort((short)gridHeight);
+        for(int y = 0; y < gridHeight; y++) {
+            saveRow(board, y);
+            writeRow(y);
+        }
+        sentPieceType = piece.getPieceType();
+        sentRotation = piece.getRotation();
+        sentLeft = piece.getLeft();
+        sentTop = piece.getTop();
+        frame.put((byte)(sentRotation << 3 | sentPieceType));
+        writeVarint(zigzag(sentLeft));
+        writeVarint(zigzag(sentTop));
+    }
+
+    /**
+     * Writes the rows that changed and the changes to the piece since the previous frame.
+     *
+     * @param board The board to encode.
+     * @param piece The falling piece.
+     */
+    private void writeDelta(TetrisBoard board, TetrisPiece piece) {
+        int flagsPosition = frame.position();
+        frame.put((byte)0);
+        int flags = 0;
+
+        int previousRow = -1;
+        for(int y = 0; y < gridHeight; y++) {
+            if(!hasRowChanged(board, y)) continue;
+            if(flags == 0) flags = FLAG_ROWS;
+            writeVarint(y - previousRow);
+            previousRow = y;
+            saveRow(board, y);
+            writeRow(y);
+        }
+        if(flags != 0)
+            frame.put((byte)0);
+
+        int pieceType = piece.getPieceType();
+        int rotation = piece.getRotation();
+        int left = piece.getLeft();
+        int top = piece.getTop();
+        if(pieceType == sentPieceType && rotation == sentRotation && left == sentLeft && top == sentTop + 1) {
+            flags |= FLAG_PIECE_DOWN;
+        } else {
+            if(pieceType != sentPieceType || rotation != sentRotation) {
+                flags |= FLAG_PIECE_TYPE;
+                frame.put((byte)(rotation << 3 | pieceType));
+            }
+            if(left != sentLeft) {
+                flags |= FLAG_PIECE_LEFT;
+                writeVarint(zigzag(left - sentLeft));
+            }
+            if(top != sentTop) {
+                flags |= FLAG_PIECE_TOP;
+                writeVarint(zigzag(top - sentTop));
+            }
+        }
+        sentPieceType = pieceType;
+        sentRotation = rotation;
+        sentLeft = left;
+        sentTop = top;
+        frame.put(flagsPosition, (byte)flags);
+    }
+
+    /**
+     * Checks if a row differs from the previous frame in occupancy or colour.
+     *
+     * @param board The board to encode.
+     * @param y The grid row.
+     * @return True if the row must be sent.
+     */
+    private boolean hasRowChanged(TetrisBoard board, int y) {
+        for(int word = 0; word < wordsPerRow; word++) {
+            if(board.getRowWord(y, word) != sentWords[y * wordsPerRow + word])
+                return true;
+        }
+        int rowStart = y * gridWidth;
+        for(int x = 0; x < gridWidth; x++) {
+            if(board.getCellColour(x, y) != sentColours[rowStart + x])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies a row of the board as the state the next frame is compared with.
+     *
+     * @param board The board to encode.
+     * @param y The grid row.
+     */
+    private void saveRow(TetrisBoard board, int y) {
+        for(int word = 0; word < wordsPerRow; word++)
+            sentWords[y * wordsPerRow + word] = board.getRowWord(y, word);
+        for(int x = 0; x < gridWidth; x++)
+            sentColours[y * gridWidth + x] = (byte)board.getCellColour(x, y);
+    }
+
+    /**
+     * Writes the saved occupancy words of a row followed by the colour runs of its filled cells.
+     *
+     * @param y The grid row.
+     */
+    private void writeRow(int y) {
+        for(int word = 0; word < wordsPerRow; word++)
+            writeVarint(sentWords[y * wordsPerRow + word]);
+
+        int rowStart = y * gridWidth;
+        int runColour = 0;
+        int runLength = 0;
+        for(int x = 0; x < gridWidth; x++) {
+            int colour = sentColours[rowStart + x];
+            if(colour == 0) continue;
+            if(colour != runColour || runLength == MAX_RUN_LENGTH) {
+                if(runLength > 0)
+                    frame.put((byte)((runLength - 1) << 4 | runColour));
+                runColour = colour;
+                runLength = 0;
+            }
+            runLength++;
+        }
+        if(runLength > 0)
+            frame.put((byte)((runLength - 1) << 4 | runColour));
+    }
+
+    /**
+     * Writes an unsigned value 7 bits at a time, lowest bits first, with the top bit
+     * of each byte set when more bytes follow.
+     *
+     * @param value The value to write, treated as unsigned.
+     */
+    private void writeVarint(long value) {
+        while((value & ~0x7FL) != 0) {
+            frame.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        frame.put((byte)value);
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so small values of either sign stay small.
+     *
+     * @param value The signed value.
+     * @return 0, -1, 1, -2, 2... mapped to 0, 1, 2, 3, 4...
+     */
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+}
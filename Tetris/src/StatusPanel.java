@@ -28,9 +28,11 @@ public class StatusPanel extends JPanel {
 
     /**
      * Creates and configures all components ready for use.
+     *
+     * @param height Height of the panel in pixels, matching the board next to it.
      */
-    public StatusPanel() {
-        setPreferredSize(new Dimension(200, TetrisBoard.HEIGHT));
+    public StatusPanel(int height) {
+        setPreferredSize(new Dimension(200, height));
         setBackground(Color.gray);
 
         JLabel scoreLabel = createJLabelFactory("SCORE");
@@ -51,10 +53,10 @@ public class StatusPanel extends JPanel {
     /**
      * Changes the preview panel display to show the new next piece.
      *
-     * @param nextPiece The next piece to be displayed.
+     * @param pieceType The type of the next piece to be displayed.
      */
-    public void setNextPiece(TetrisPiece nextPiece) {
-        previewPanel.setNextPiece(nextPiece);
+    public void setNextPiece(int pieceType) {
+        previewPanel.setNextPiece(pieceType);
     }
 
     /**
@@ -1,6 +1,8 @@
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tetris
@@ -9,79 +11,565 @@ import java.util.List;
  * TetrisBoard class:
  * Defines a Tetris Board formed with a grid and
  * provides methods for inserting pieces, and
- * checking for matches.
+ * checking for matches. Occupancy is stored as a bitmask
+ * per row so full rows and collisions can be tested with
+ * whole-row mask operations, with colours kept separately for painting.
+ * The size of the grid is set per board. Rows up to 64 cells wide are packed in to
+ * a single long, and wider rows are split over as many longs as they need so the
+ * mask operations still test 64 cells at a time.
  */
 public class TetrisBoard {
+    /**
+     * Default dimension of each cell on the grid in pixels.
+     */
+    public final static int DEFAULT_CELL_DIM = 40;
+    /**
+     * Default number of cells on the horizontal axis.
+     */
+    public final static int DEFAULT_GRID_WIDTH = 10;
+    /**
+     * Default number of cells on the vertical axis.
+     */
+    public final static int DEFAULT_GRID_HEIGHT = 15;
+    /**
+     * Smallest number of cells on either axis, so every piece fits on the board.
+     */
+    public final static int MIN_GRID_SIZE = 4;
+
+    /**
+     * Most placements made with place() that can be waiting to be undone at once.
+     */
+    public final static int UNDO_CAPACITY = 16;
+    /**
+     * Colour number of the cells in garbage rows added by an opponent.
+     */
+    public final static int GARBAGE_COLOUR = 9;
+
+    /**
+     * Seed of the random keys for each cell. Fixed so hashes are the same every run.
+     */
+    private final static long CELL_KEY_SEED = 0x5EED7E7215L;
+    /**
+     * Cell keys shared by every board with the same number of cells, indexed by the number of cells.
+     */
+    private final static Map<Integer, long[]> cellKeysBySize = new ConcurrentHashMap<>();
+    /**
+     * Number of values at the start of each undo record before the previous column heights
+     * and cleared rows: the piece type, rotation, left, top, the previous lowest matched
+     * row, touched range and cleared row count, and the low and high halves of the previous hash.
+     */
+    private final static int UNDO_HEADER_SIZE = 10;
+
     /**
      * Dimension of each cell on the grid in pixels.
      */
-    public final static int CELL_DIM = 40;
+    private final int cellDim;
     /**
      * Number of cells on the horizontal axis.
      */
-    public final static int GRID_WIDTH = 10;
+    private final int gridWidth;
     /**
      * Number of cells on the vertical axis.
      */
-    public final static int GRID_HEIGHT = 15;
+    private final int gridHeight;
     /**
-     * Width required for the TetrisBoard to be drawn in pixels.
+     * Number of 64 bit words holding the occupancy of each row. Boards up to 64 cells
+     * wide pack each row in to a single word.
      */
-    public final static int WIDTH = GRID_WIDTH * CELL_DIM;
+    private final int wordsPerRow;
     /**
-     * Height required for the TetrisBoard to be drawn in pixels.
+     * Occupancy of a full row with every column set, one entry per word of the row.
      */
-    public final static int HEIGHT = GRID_HEIGHT * CELL_DIM;
-
+    private final long[] fullRowWords;
+    /**
+     * Random 64 bit key for each cell stored row-major like the cell colours.
+     * The hash of a board is the XOR of the keys of every filled cell.
+     */
+    private final long[] cellKeys;
+    /**
+     * Number of values in each undo record including the previous column heights and cleared rows.
+     */
+    private final int undoRecordSize;
+    /**
+     * Scratch row of column bits used when scanning down the board, so the scans allocate nothing.
+     */
+    private final long[] scanWords;
+    /**
+     * Occupancy of the grid stored as wordsPerRow words per row, row-major. Bit x % 64 of
+     * rowWords[y * wordsPerRow + x / 64] is set when the cell at (x,y) contains a placed block.
+     */
+    private long[] rowWords;
+    /**
+     * Colour plane of the grid used only for painting. Stored row-major
+     * with the cell at (x,y) found at y * gridWidth + x.
+     */
+    private byte[] cellColours;
+    /**
+     * Lowest row matched since the last clear that is to be removed at the start
+     * of the next update, or -1 when there are no matches waiting.
+     */
+    private int lowestMatchedRow;
+    /**
+     * Range of rows touched by pieces locked in since the last check for matches.
+     * Only these rows can have become full. The range is empty when the first row
+     * is greater than the last row.
+     */
+    private int firstTouchedRow, lastTouchedRow;
+    /**
+     * Range of rows changed since the dirty rows were last cleared, used to limit
+     * which rows need to be repainted. The range is empty when the first row is
+     * greater than the last row.
+     */
+    private int firstDirtyRow, lastDirtyRow;
+    /**
+     * Height of each column measured from the bottom of the grid to the
+     * highest filled cell, or 0 when the column is empty.
+     */
+    private int[] columnHeights;
     /**
-     * The grid of currently placed blocks.
+     * Rows removed by the latest call to clearMatchedRows() from the bottom of the
+     * board to the top. Only the first clearedRowCount entries are used.
      */
-    private int[][] tetrisGrid;
+    private int[] clearedRows;
     /**
-     * Matches from the latest update to be removed at the start
-     * of the next update.
+     * Number of rows stored in clearedRows.
      */
-    private List<Integer> matches;
+    private int clearedRowCount;
+    /**
+     * Zobrist hash of the filled cells, kept up to date as cells are filled and rows are cleared.
+     * Boards with the same filled cells always have the same hash.
+     */
+    private long hash;
+    /**
+     * Stack of fixed size records describing each placement made with place(), holding
+     * everything needed to undo it that cannot be worked out from the board afterwards.
+     * Created by the first placement so boards that are never searched do not carry it.
+     */
+    private int[] undoStack;
+    /**
+     * Colours of the full rows removed by each placement before they were marked as matched,
+     * stored at the same row offset as the cell colours one whole board per undo record.
+     * Created with the undo stack.
+     */
+    private byte[] undoColours;
+    /**
+     * Number of placements on the undo stack.
+     */
+    private int undoDepth;
 
     /**
-     * Creates an empty grid to start the TetrisBoard.
+     * Creates an empty grid of the default size to start the TetrisBoard.
      */
     public TetrisBoard() {
-        tetrisGrid = new int[GRID_WIDTH][GRID_HEIGHT];
-        matches = new ArrayList<>();
+        this(DEFAULT_GRID_WIDTH, DEFAULT_GRID_HEIGHT, DEFAULT_CELL_DIM);
+    }
+
+    /**
+     * Creates an empty grid of any size to start the TetrisBoard.
+     *
+     * @param gridWidth Number of cells on the horizontal axis.
+     * @param gridHeight Number of cells on the vertical axis.
+     * @param cellDim Dimension of each cell on the grid in pixels.
+     * @throws IllegalArgumentException If either axis has fewer than MIN_GRID_SIZE cells.
+     */
+    public TetrisBoard(int gridWidth, int gridHeight, int cellDim) {
+        if(gridWidth < MIN_GRID_SIZE || gridHeight < MIN_GRID_SIZE)
+            throw new IllegalArgumentException("Board must be at least " + MIN_GRID_SIZE + "x" + MIN_GRID_SIZE
+                    + " cells: " + gridWidth + "x" + gridHeight);
+
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.cellDim = cellDim;
+        wordsPerRow = (gridWidth + 63) >>> 6;
+        fullRowWords = new long[wordsPerRow];
+        Arrays.fill(fullRowWords, -1L);
+        if(gridWidth % 64 != 0)
+            fullRowWords[wordsPerRow - 1] = (1L << (gridWidth % 64)) - 1;
+        cellKeys = cellKeysBySize.computeIfAbsent(gridWidth * gridHeight, TetrisBoard::createCellKeys);
+        undoRecordSize = UNDO_HEADER_SIZE + gridWidth + gridHeight;
+        scanWords = new long[wordsPerRow];
+
+        rowWords = new long[gridHeight * wordsPerRow];
+        cellColours = new byte[gridWidth * gridHeight];
+        columnHeights = new int[gridWidth];
+        clearedRows = new int[gridHeight];
         reset();
     }
 
+    /**
+     * Creates the random key of each cell. The keys only depend on the number of cells,
+     * so boards of the same size always hash the same cells to the same value.
+     *
+     * @param cellCount Number of cells on the board.
+     * @return The key of each cell.
+     */
+    private static long[] createCellKeys(int cellCount) {
+        long[] keys = new long[cellCount];
+        long state = CELL_KEY_SEED;
+        for(int i = 0; i < keys.length; i++) {
+            // SplitMix64
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            keys[i] = z ^ (z >>> 31);
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the dimension of each cell on the grid in pixels.
+     *
+     * @return The cell dimension.
+     */
+    public int getCellDim() { return cellDim; }
+
+    /**
+     * Gets the number of cells on the horizontal axis.
+     *
+     * @return The grid width.
+     */
+    public int getGridWidth() { return gridWidth; }
+
+    /**
+     * Gets the number of cells on the vertical axis.
+     *
+     * @return The grid height.
+     */
+    public int getGridHeight() { return gridHeight; }
+
+    /**
+     * Gets the width required for the TetrisBoard to be drawn in pixels.
+     *
+     * @return The width in pixels.
+     */
+    public int getWidth() { return gridWidth * cellDim; }
+
+    /**
+     * Gets the height required for the TetrisBoard to be drawn in pixels.
+     *
+     * @return The height in pixels.
+     */
+    public int getHeight() { return gridHeight * cellDim; }
+
     /**
      * Fills the TetrisBoard with empty cells.
      */
     public void reset() {
-        for(int x = 0; x < GRID_WIDTH; x++) {
-            for(int y = 0; y < GRID_HEIGHT; y++) {
-                tetrisGrid[x][y] = 0;
+        Arrays.fill(rowWords, 0);
+        Arrays.fill(cellColours, (byte)0);
+        Arrays.fill(columnHeights, 0);
+        lowestMatchedRow = -1;
+        firstTouchedRow = gridHeight;
+        lastTouchedRow = -1;
+        clearedRowCount = 0;
+        undoDepth = 0;
+        hash = 0;
+        markDirtyRows(0, gridHeight-1);
+    }
+
+    /**
+     * Makes this board an exact copy of another board including any matches
+     * waiting to be cleared. Placements waiting to be undone are not copied.
+     *
+     * @param other The board to copy.
+     * @throws IllegalArgumentException If the other board has a different number of cells.
+     */
+    public void copyFrom(TetrisBoard other) {
+        if(other.gridWidth != gridWidth || other.gridHeight != gridHeight)
+            throw new IllegalArgumentException("Cannot copy a " + other.gridWidth + "x" + other.gridHeight
+                    + " board to a " + gridWidth + "x" + gridHeight + " board");
+
+        System.arraycopy(other.rowWords, 0, rowWords, 0, rowWords.length);
+        System.arraycopy(other.cellColours, 0, cellColours, 0, cellColours.length);
+        System.arraycopy(other.columnHeights, 0, columnHeights, 0, gridWidth);
+        System.arraycopy(other.clearedRows, 0, clearedRows, 0, gridHeight);
+        clearedRowCount = other.clearedRowCount;
+        lowestMatchedRow = other.lowestMatchedRow;
+        firstTouchedRow = other.firstTouchedRow;
+        lastTouchedRow = other.lastTouchedRow;
+        hash = other.hash;
+        undoDepth = 0;
+        markDirtyRows(0, gridHeight-1);
+    }
+
+    /**
+     * Gets the number of bytes writeState() writes for this board.
+     *
+     * @return The size of the saved state.
+     */
+    public int getStateSize() {
+        return getStateSize(gridWidth, gridHeight);
+    }
+
+    /**
+     * Gets the number of bytes writeState() writes for a board of any size.
+     *
+     * @param gridWidth Number of cells on the horizontal axis.
+     * @param gridHeight Number of cells on the vertical axis.
+     * @return The size of the saved state.
+     */
+    public static int getStateSize(int gridWidth, int gridHeight) {
+        return 2 + 2 + 4 + 2 + 2 + gridWidth * gridHeight;
+    }
+
+    /**
+     * Writes the cells of the board and any matches waiting to be cleared, so readState()
+     * can restore them. The colours are written as one block, with the occupancy bits,
+     * hash and column heights rebuilt from them when read.
+     *
+     * @param buffer The buffer to write getStateSize() bytes to at its position.
+     * @throws IllegalStateException If placements are waiting to be undone.
+     */
+    public void writeState(ByteBuffer buffer) {
+        if(undoDepth > 0)
+            throw new IllegalStateException("Cannot save a board with placements waiting to be undone");
+
+        buffer.putShort((short)gridWidth);
+        buffer.putShort((short)gridHeight);
+        buffer.putInt(lowestMatchedRow);
+        buffer.putShort((short)firstTouchedRow);
+        buffer.putShort((short)lastTouchedRow);
+        buffer.put(cellColours);
+    }
+
+    /**
+     * Replaces the whole board with the state written by writeState().
+     *
+     * @param buffer The buffer to read getStateSize() bytes from at its position.
+     * @throws IllegalArgumentException If the state is for a board of a different size.
+     */
+    public void readState(ByteBuffer buffer) {
+        int savedWidth = buffer.getShort();
+        int savedHeight = buffer.getShort();
+        if(savedWidth != gridWidth || savedHeight != gridHeight)
+            throw new IllegalArgumentException("Cannot load a " + savedWidth + "x" + savedHeight
+                    + " board in to a " + gridWidth + "x" + gridHeight + " board");
+
+        lowestMatchedRow = buffer.getInt();
+        firstTouchedRow = buffer.getShort();
+        lastTouchedRow = buffer.getShort();
+        buffer.get(cellColours);
+        Arrays.fill(rowWords, 0);
+        hash = 0;
+        for(int y = 0; y < gridHeight; y++) {
+            for(int x = 0; x < gridWidth; x++) {
+                if(cellColours[y * gridWidth + x] == 0) continue;
+                rowWords[y * wordsPerRow + (x >>> 6)] |= 1L << (x & 63);
+                hash ^= cellKeys[y * gridWidth + x];
             }
         }
+        updateColumnHeights();
+        clearedRowCount = 0;
+        undoDepth = 0;
+        markDirtyRows(0, gridHeight-1);
+    }
+
+    /**
+     * Sets a single cell on the grid. Used to build boards directly
+     * rather than by locking in pieces.
+     *
+     * @param x The grid column.
+     * @param y The grid row.
+     * @param colour Colour number of the cell from pieceColours, or 0 to empty it.
+     */
+    public void setCell(int x, int y, int colour) {
+        int word = y * wordsPerRow + (x >>> 6);
+        long bit = 1L << (x & 63);
+        if((colour != 0) != ((rowWords[word] & bit) != 0))
+            hash ^= cellKeys[y * gridWidth + x];
+        cellColours[y * gridWidth + x] = (byte)colour;
+        markDirtyRows(y, y);
+        if(colour != 0) {
+            rowWords[word] |= bit;
+            columnHeights[x] = Math.max(columnHeights[x], gridHeight - y);
+            firstTouchedRow = Math.min(firstTouchedRow, y);
+            lastTouchedRow = Math.max(lastTouchedRow, y);
+        } else {
+            rowWords[word] &= ~bit;
+            updateColumnHeights();
+        }
     }
 
+    /**
+     * Replaces every cell of a row at once. Used to build boards directly from
+     * rows sent over a network rather than by locking in pieces.
+     *
+     * @param y The grid row.
+     * @param colours Colour number of each cell in the row from left to right, 0 for empty.
+     * @param offset Index in colours of the leftmost cell.
+     */
+    public void setRow(int y, byte[] colours, int offset) {
+        for(int word = 0; word < wordsPerRow; word++) {
+            long bits = 0;
+            int firstX = word << 6;
+            int lastX = Math.min(gridWidth, firstX + 64);
+            for(int x = firstX; x < lastX; x++) {
+                if(colours[offset + x] != 0)
+                    bits |= 1L << (x & 63);
+            }
+            long changed = rowWords[y * wordsPerRow + word] ^ bits;
+            while(changed != 0) {
+                hash ^= cellKeys[y * gridWidth + firstX + Long.numberOfTrailingZeros(changed)];
+                changed &= changed - 1;
+            }
+            rowWords[y * wordsPerRow + word] = bits;
+        }
+        System.arraycopy(colours, offset, cellColours, y * gridWidth, gridWidth);
+        markDirtyRows(y, y);
+        if(!isRowEmpty(y)) {
+            firstTouchedRow = Math.min(firstTouchedRow, y);
+            lastTouchedRow = Math.max(lastTouchedRow, y);
+        }
+        updateColumnHeights();
+    }
+
+    /**
+     * Gets the colour of a single cell.
+     *
+     * @param x The grid column.
+     * @param y The grid row.
+     * @return Colour number of the cell from pieceColours, or 0 if it is empty.
+     */
+    public int getCellColour(int x, int y) { return cellColours[y * gridWidth + x]; }
+
+    /**
+     * Gets the number of 64 bit words each row is packed into.
+     *
+     * @return The number of words per row.
+     */
+    public int getWordsPerRow() { return wordsPerRow; }
+
+    /**
+     * Gets one word of the packed occupancy of a row, with bit x set when column
+     * word*64+x is filled.
+     *
+     * @param y The grid row.
+     * @param word Index of the word from 0 to getWordsPerRow()-1.
+     * @return The occupancy bits of the word.
+     */
+    public long getRowWord(int y, int word) { return rowWords[y * wordsPerRow + word]; }
+
     /**
      * Maps the piece provided to a position on the board to merge data.
+     * The touched rows and column heights are updated to include the piece.
      *
      * @param piece The piece to lock in to the board.
      */
     public void lockInPiece(TetrisPiece piece) {
-        Position topLeft = piece.getTopLeft();
-        int[][] data = piece.getPieceData();
-        for(int x = 0; x < data.length; x++) {
-            for(int y = 0; y < data[0].length; y++) {
-                // Only modify cells that are not empty relative position on the piece
-                if(data[x][y] != 0)
-                    tetrisGrid[topLeft.x+x][topLeft.y+y] = data[x][y];
+        lockInPiece(piece.getPieceType(), piece.getRotation(), piece.getLeft(), piece.getTop());
+    }
+
+    /**
+     * Same as lockInPiece() with a piece, but takes the placement as primitive values
+     * so placements can be tried on a board without creating or moving a piece.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @param left Left grid column of the piece.
+     * @param top Top grid row of the piece.
+     */
+    public void lockInPiece(int pieceType, int rotation, int left, int top) {
+        int[] pieceRowMasks = TetrisPiece.getRotationRowMasks(pieceType, rotation);
+        int pieceWidth = TetrisPiece.getRotationWidth(pieceType, rotation);
+        byte colour = (byte)(pieceType + 1);
+        for(int y = 0; y < pieceRowMasks.length; y++) {
+            setPieceRow(top+y, pieceRowMasks[y], left);
+            // Only modify cells that are not empty relative position on the piece
+            int rowStart = (top+y) * gridWidth + left;
+            for(int x = 0; x < pieceWidth; x++) {
+                if((pieceRowMasks[y] & (1 << x)) != 0) {
+                    cellColours[rowStart + x] = colour;
+                    hash ^= cellKeys[rowStart + x];
+                    columnHeights[left + x] = Math.max(columnHeights[left + x], gridHeight - (top+y));
+                }
             }
         }
+        firstTouchedRow = Math.min(firstTouchedRow, top);
+        lastTouchedRow = Math.max(lastTouchedRow, top + pieceRowMasks.length - 1);
+        markDirtyRows(top, top + pieceRowMasks.length - 1);
+    }
+
+    /**
+     * Sets the cells of one row of a piece in a board row. The piece row can
+     * straddle two words when the board is more than 64 cells wide.
+     *
+     * @param y The grid row.
+     * @param pieceRowMask Occupancy of the piece row with bit x set for filled column x.
+     * @param left Left grid column of the piece.
+     */
+    private void setPieceRow(int y, int pieceRowMask, int left) {
+        int word = y * wordsPerRow + (left >>> 6);
+        int shift = left & 63;
+        rowWords[word] |= (long)pieceRowMask << shift;
+        if(shift != 0 && ((long)pieceRowMask >>> (64 - shift)) != 0)
+            rowWords[word + 1] |= (long)pieceRowMask >>> (64 - shift);
+    }
+
+    /**
+     * Empties the cells of one row of a piece in a board row.
+     *
+     * @param y The grid row.
+     * @param pieceRowMask Occupancy of the piece row with bit x set for filled column x.
+     * @param left Left grid column of the piece.
+     */
+    private void clearPieceRow(int y, int pieceRowMask, int left) {
+        int word = y * wordsPerRow + (left >>> 6);
+        int shift = left & 63;
+        rowWords[word] &= ~((long)pieceRowMask << shift);
+        if(shift != 0 && ((long)pieceRowMask >>> (64 - shift)) != 0)
+            rowWords[word + 1] &= ~((long)pieceRowMask >>> (64 - shift));
+    }
+
+    /**
+     * Checks if one row of a piece overlaps any filled cells in a board row.
+     *
+     * @param y The grid row.
+     * @param pieceRowMask Occupancy of the piece row with bit x set for filled column x.
+     * @param left Left grid column of the piece.
+     * @return True if any cell of the piece row is already filled.
+     */
+    private boolean overlapsPieceRow(int y, int pieceRowMask, int left) {
+        int word = y * wordsPerRow + (left >>> 6);
+        int shift = left & 63;
+        if((rowWords[word] & ((long)pieceRowMask << shift)) != 0) return true;
+        return shift != 0 && ((long)pieceRowMask >>> (64 - shift)) != 0
+                && (rowWords[word + 1] & ((long)pieceRowMask >>> (64 - shift))) != 0;
+    }
+
+    /**
+     * Checks if every cell in a row is filled, comparing a whole word of cells at a time.
+     *
+     * @param y The grid row.
+     * @return True if the row is full.
+     */
+    public boolean isRowFull(int y) {
+        int rowStart = y * wordsPerRow;
+        for(int word = 0; word < wordsPerRow; word++) {
+            if(rowWords[rowStart + word] != fullRowWords[word])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if every cell in a row is empty.
+     *
+     * @param y The grid row.
+     * @return True if the row is empty.
+     */
+    private boolean isRowEmpty(int y) {
+        int rowStart = y * wordsPerRow;
+        for(int word = 0; word < wordsPerRow; word++) {
+            if(rowWords[rowStart + word] != 0)
+                return false;
+        }
+        return true;
     }
 
     /**
-     * Checks every row for matches and adds any found matches to the matches array.
+     * Checks the rows touched by pieces locked in since the last check for matches.
+     * Rows that were not touched cannot have become full, so they are skipped.
      * All the cells on the matched rows are changed to 8 to allow colour change
      * before they are removed.
      *
@@ -89,45 +577,429 @@ public class TetrisBoard {
      */
     public int checkForMatches() {
         int rowCount = 0;
-        for(int y = 0; y < GRID_HEIGHT; y++) {
-            boolean match = true;
-            for (int x = 0; x < GRID_WIDTH; x++) {
-                if(tetrisGrid[x][y] == 0) {
-                    match = false;
-                    break;
+        for(int y = firstTouchedRow; y <= lastTouchedRow; y++) {
+            // Match found
+            if(isRowFull(y)) {
+                rowCount++;
+                lowestMatchedRow = Math.max(lowestMatchedRow, y);
+                Arrays.fill(cellColours, y * gridWidth, (y+1) * gridWidth, (byte)8);
+                markDirtyRows(y, y);
+            }
+        }
+        firstTouchedRow = gridHeight;
+        lastTouchedRow = -1;
+        return rowCount;
+    }
+
+    /**
+     * Clears the matched rows in a single sweep up the board from the lowest matched row.
+     * Rows that are not full are copied down to the next free write row, skipping over
+     * the full rows, and the rows left over at the top are set to all 0s.
+     * The removed rows can be read back with getClearedRowCount() and getClearedRow().
+     *
+     * @return The number of rows that were removed.
+     */
+    public int clearMatchedRows() {
+        clearedRowCount = 0;
+        if(lowestMatchedRow < 0) return 0;
+
+        // Rows below the lowest match do not move
+        int writeRow = lowestMatchedRow;
+        markDirtyRows(0, lowestMatchedRow);
+        hash ^= getRowsHash(lowestMatchedRow);
+        for(int readRow = writeRow; readRow >= 0; readRow--) {
+            if(isRowFull(readRow)) {
+                clearedRows[clearedRowCount++] = readRow;
+                continue;
+            }
+            // Move down the kept row to the write row
+            if(writeRow != readRow) {
+                System.arraycopy(rowWords, readRow * wordsPerRow, rowWords, writeRow * wordsPerRow, wordsPerRow);
+                System.arraycopy(cellColours, readRow * gridWidth, cellColours, writeRow * gridWidth, gridWidth);
+            }
+            writeRow--;
+        }
+        // clear the rows at the top
+        Arrays.fill(rowWords, 0, (writeRow+1) * wordsPerRow, 0);
+        Arrays.fill(cellColours, 0, (writeRow+1) * gridWidth, (byte)0);
+        hash ^= getRowsHash(lowestMatchedRow);
+        lowestMatchedRow = -1;
+        updateColumnHeights();
+        return clearedRowCount;
+    }
+
+    /**
+     * Pushes every row up and adds garbage rows at the bottom of the board, each filled
+     * except for a gap in the same column. Any filled cells pushed off the top are lost.
+     * Must not be called while full rows are waiting to be cleared or placements are
+     * waiting to be undone.
+     *
+     * @param count Number of garbage rows to add, from 1 up to the grid height.
+     * @param gapColumn Column left empty in every garbage row.
+     * @return True if no filled cells were pushed off the top of the board.
+     * @throws IllegalStateException If full rows are waiting to be cleared or placements are waiting to be undone.
+     */
+    public boolean addGarbageRows(int count, int gapColumn) {
+        if(lowestMatchedRow >= 0 || undoDepth > 0)
+            throw new IllegalStateException("Cannot add garbage rows while rows are waiting to be cleared or undone");
+
+        boolean fits = true;
+        for(int y = 0; y < count; y++) {
+            if(!isRowEmpty(y))
+                fits = false;
+        }
+        int keptRows = gridHeight - count;
+        hash ^= getRowsHash(gridHeight - 1);
+        System.arraycopy(rowWords, count * wordsPerRow, rowWords, 0, keptRows * wordsPerRow);
+        System.arraycopy(cellColours, count * gridWidth, cellColours, 0, keptRows * gridWidth);
+        for(int y = keptRows; y < gridHeight; y++) {
+            System.arraycopy(fullRowWords, 0, rowWords, y * wordsPerRow, wordsPerRow);
+            rowWords[y * wordsPerRow + (gapColumn >>> 6)] &= ~(1L << (gapColumn & 63));
+            Arrays.fill(cellColours, y * gridWidth, (y+1) * gridWidth, (byte)GARBAGE_COLOUR);
+            cellColours[y * gridWidth + gapColumn] = 0;
+        }
+        hash ^= getRowsHash(gridHeight - 1);
+        // Rows touched by pieces since the last check have moved up with the rest
+        if(lastTouchedRow >= 0) {
+            firstTouchedRow = Math.max(0, firstTouchedRow - count);
+            lastTouchedRow -= count;
+            if(lastTouchedRow < 0) {
+                firstTouchedRow = gridHeight;
+                lastTouchedRow = -1;
+            }
+        }
+        markDirtyRows(0, gridHeight-1);
+        updateColumnHeights();
+        return fits;
+    }
+
+    /**
+     * Calculates the part of the hash from the filled cells in the rows from the top of the
+     * board down to a row. Used to swap out the hash of the rows that move when rows are cleared.
+     *
+     * @param lastRow The lowest row to include.
+     * @return The XOR of the keys of the filled cells in the rows.
+     */
+    private long getRowsHash(int lastRow) {
+        long rowsHash = 0;
+        for(int y = 0; y <= lastRow; y++) {
+            for(int word = 0; word < wordsPerRow; word++) {
+                long bits = rowWords[y * wordsPerRow + word];
+                int cellStart = y * gridWidth + (word << 6);
+                while(bits != 0) {
+                    rowsHash ^= cellKeys[cellStart + Long.numberOfTrailingZeros(bits)];
+                    bits &= bits - 1;
                 }
             }
+        }
+        return rowsHash;
+    }
 
-            // Match found
-            if(match) {
-                rowCount++;
-                matches.add(y);
-                for (int x = 0; x < GRID_WIDTH; x++) {
-                    tetrisGrid[x][y] = 8;
+    /**
+     * Checks if there are full rows waiting to be removed by clearMatchedRows().
+     *
+     * @return True if full rows were found by the last check for matches and not yet removed.
+     */
+    public boolean hasMatchedRows() { return lowestMatchedRow >= 0; }
+
+    /**
+     * Gets the Zobrist hash of the filled cells. Boards with the same filled cells have the
+     * same hash regardless of colours or the order the pieces were placed in.
+     *
+     * @return The hash of the board.
+     */
+    public long getHash() { return hash; }
+
+    /**
+     * Drops a piece type straight down in a column from the piece's current row, or from
+     * the top row if the piece is above the board, then places it with place().
+     *
+     * @param piece The piece giving the piece type and the row to drop from.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @param left Left grid column of the piece.
+     * @return The token to pass to undo(), or -1 if the piece does not fit in the column.
+     */
+    public int place(TetrisPiece piece, int rotation, int left) {
+        int pieceType = piece.getPieceType();
+        int width = TetrisPiece.getRotationWidth(pieceType, rotation);
+        int height = TetrisPiece.getRotationHeight(pieceType, rotation);
+        int[] pieceRowMasks = TetrisPiece.getRotationRowMasks(pieceType, rotation);
+        int top = Math.max(0, piece.getTop());
+        if(!isValidOnBoard(left, top, width, height, pieceRowMasks)) return -1;
+        while(isValidOnBoard(left, top + 1, width, height, pieceRowMasks))
+            top++;
+        return place(pieceType, rotation, left, top);
+    }
+
+    /**
+     * Locks in a piece, checks for matches and clears the matched rows in one go, in a way
+     * that can be reversed with undo(). Any matches waiting to be cleared are cleared as well.
+     * The number of rows removed can be read with getClearedRowCount() straight after.
+     * Nothing is allocated after the first placement, so searches can place and undo pieces
+     * without copying the board.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @param left Left grid column of the piece, where the piece must fit.
+     * @param top Top grid row of the piece, where the piece must fit.
+     * @return The token to pass to undo().
+     * @throws IllegalStateException If UNDO_CAPACITY placements are already waiting to be undone.
+     */
+    public int place(int pieceType, int rotation, int left, int top) {
+        if(undoDepth == UNDO_CAPACITY)
+            throw new IllegalStateException("Cannot place more than " + UNDO_CAPACITY + " pieces without undoing");
+        if(undoStack == null) {
+            undoStack = new int[UNDO_CAPACITY * undoRecordSize];
+            undoColours = new byte[UNDO_CAPACITY * cellColours.length];
+        }
+
+        int record = undoDepth * undoRecordSize;
+        undoStack[record] = pieceType;
+        undoStack[record+1] = rotation;
+        undoStack[record+2] = left;
+        undoStack[record+3] = top;
+        undoStack[record+4] = lowestMatchedRow;
+        undoStack[record+5] = firstTouchedRow;
+        undoStack[record+6] = lastTouchedRow;
+        undoStack[record+7] = clearedRowCount;
+        undoStack[record+8] = (int)hash;
+        undoStack[record+9] = (int)(hash >>> 32);
+        System.arraycopy(columnHeights, 0, undoStack, record + UNDO_HEADER_SIZE, gridWidth);
+        System.arraycopy(clearedRows, 0, undoStack, record + UNDO_HEADER_SIZE + gridWidth, clearedRowCount);
+
+        lockInPiece(pieceType, rotation, left, top);
+        // Keep the colours of every row about to be removed, as matching replaces them.
+        // Only the rows of the piece and any matches already waiting can be full.
+        int colourRecord = undoDepth * cellColours.length;
+        int lastRow = top + TetrisPiece.getRotationHeight(pieceType, rotation) - 1;
+        for(int y = lowestMatchedRow >= 0 ? 0 : top; y <= lastRow || y <= lowestMatchedRow; y++) {
+            if(isRowFull(y))
+                System.arraycopy(cellColours, y * gridWidth, undoColours, colourRecord + y * gridWidth, gridWidth);
+        }
+        checkForMatches();
+        clearMatchedRows();
+        return undoDepth++;
+    }
+
+    /**
+     * Reverses the latest placement made with place(), restoring the cells, matches waiting
+     * to be cleared, touched rows, column heights and cleared rows to exactly how they were.
+     * The removed rows are put back working down from the top of the board, so each kept
+     * row is moved back up before the row it came from is overwritten.
+     *
+     * @param token The token returned by the latest place() that has not been undone.
+     * @throws IllegalStateException If the token is not for the latest placement.
+     */
+    public void undo(int token) {
+        if(token != undoDepth - 1)
+            throw new IllegalStateException("Placements must be undone in reverse order");
+
+        undoDepth--;
+        int record = undoDepth * undoRecordSize;
+        int colourRecord = undoDepth * cellColours.length;
+        int pieceType = undoStack[record];
+        int rotation = undoStack[record+1];
+        int left = undoStack[record+2];
+        int top = undoStack[record+3];
+
+        int firstChangedRow = top;
+        int lastChangedRow = top + TetrisPiece.getRotationHeight(pieceType, rotation) - 1;
+        if(clearedRowCount > 0) {
+            // clearedRows runs from the bottom up, so the next removed row going down is at the end
+            int nextCleared = clearedRowCount - 1;
+            int readRow = clearedRowCount;
+            int lowestCleared = clearedRows[0];
+            for(int y = 0; y <= lowestCleared; y++) {
+                if(nextCleared >= 0 && clearedRows[nextCleared] == y) {
+                    System.arraycopy(fullRowWords, 0, rowWords, y * wordsPerRow, wordsPerRow);
+                    System.arraycopy(undoColours, colourRecord + y * gridWidth, cellColours, y * gridWidth, gridWidth);
+                    nextCleared--;
+                } else {
+                    if(readRow != y) {
+                        System.arraycopy(rowWords, readRow * wordsPerRow, rowWords, y * wordsPerRow, wordsPerRow);
+                        System.arraycopy(cellColours, readRow * gridWidth, cellColours, y * gridWidth, gridWidth);
+                    }
+                    readRow++;
                 }
             }
+            firstChangedRow = 0;
+            lastChangedRow = Math.max(lastChangedRow, lowestCleared);
         }
-        return rowCount;
+
+        // Take the piece back out of the cells it filled
+        int[] pieceRowMasks = TetrisPiece.getRotationRowMasks(pieceType, rotation);
+        for(int y = 0; y < pieceRowMasks.length; y++) {
+            clearPieceRow(top+y, pieceRowMasks[y], left);
+            int rowStart = (top+y) * gridWidth + left;
+            for(int x = 0; (pieceRowMasks[y] >> x) != 0; x++) {
+                if((pieceRowMasks[y] & (1 << x)) != 0)
+                    cellColours[rowStart + x] = 0;
+            }
+        }
+
+        lowestMatchedRow = undoStack[record+4];
+        firstTouchedRow = undoStack[record+5];
+        lastTouchedRow = undoStack[record+6];
+        clearedRowCount = undoStack[record+7];
+        hash = (undoStack[record+8] & 0xFFFFFFFFL) | ((long)undoStack[record+9] << 32);
+        System.arraycopy(undoStack, record + UNDO_HEADER_SIZE, columnHeights, 0, gridWidth);
+        System.arraycopy(undoStack, record + UNDO_HEADER_SIZE + gridWidth, clearedRows, 0, clearedRowCount);
+        markDirtyRows(firstChangedRow, lastChangedRow);
     }
 
     /**
-     * Clears the matched rows one at a time by moving all
-     * rows above the removed row. Then sets the row at the top to all 0s.
+     * Gets the number of placements made with place() that are waiting to be undone.
+     *
+     * @return The number of placements on the undo stack.
      */
-    public void clearMatchedRows() {
-        for(int i = 0; i < matches.size(); i++) {
-            for(int y = matches.get(i); y > 0; y--) {
-                // Move down all from the row above
-                for(int x = 0; x < GRID_WIDTH; x++) {
-                    tetrisGrid[x][y] = tetrisGrid[x][y-1];
+    public int getUndoDepth() { return undoDepth; }
+
+    /**
+     * Recalculates every column height after rows have been removed. Rows are scanned
+     * from the top keeping a mask of the columns already seen, so each column takes
+     * its height from the first row where it is filled.
+     */
+    private void updateColumnHeights() {
+        Arrays.fill(columnHeights, 0);
+        Arrays.fill(scanWords, 0);
+        int unseenWords = wordsPerRow;
+        for(int y = 0; y < gridHeight && unseenWords > 0; y++) {
+            for(int word = 0; word < wordsPerRow; word++) {
+                long rowBits = rowWords[y * wordsPerRow + word];
+                long newColumns = rowBits & ~scanWords[word];
+                if(newColumns == 0) continue;
+                while(newColumns != 0) {
+                    columnHeights[(word << 6) + Long.numberOfTrailingZeros(newColumns)] = gridHeight - y;
+                    newColumns &= newColumns - 1;
                 }
+                scanWords[word] |= rowBits;
+                if(scanWords[word] == fullRowWords[word])
+                    unseenWords--;
             }
-            // clear the top row
-            for(int x = 0; x < GRID_WIDTH; x++) {
-                tetrisGrid[x][0] = 0;
+        }
+    }
+
+    /**
+     * Gets the number of rows removed by the latest call to clearMatchedRows().
+     *
+     * @return The number of rows removed.
+     */
+    public int getClearedRowCount() { return clearedRowCount; }
+
+    /**
+     * Gets one of the rows removed by the latest call to clearMatchedRows().
+     * Rows are ordered from the bottom of the board to the top and are given
+     * as their index before any rows were moved.
+     *
+     * @param index Index of the removed row from 0 to getClearedRowCount()-1.
+     * @return The grid row that was removed.
+     */
+    public int getClearedRow(int index) { return clearedRows[index]; }
+
+    /**
+     * Gets the first row changed since the dirty rows were last cleared.
+     *
+     * @return The first dirty row, or getGridHeight() if no rows have changed.
+     */
+    public int getFirstDirtyRow() { return firstDirtyRow; }
+
+    /**
+     * Gets the last row changed since the dirty rows were last cleared.
+     *
+     * @return The last dirty row, or -1 if no rows have changed.
+     */
+    public int getLastDirtyRow() { return lastDirtyRow; }
+
+    /**
+     * Marks every row as unchanged once the changes have been handled.
+     */
+    public void clearDirtyRows() {
+        firstDirtyRow = gridHeight;
+        lastDirtyRow = -1;
+    }
+
+    /**
+     * Extends the dirty row range to include the specified rows.
+     *
+     * @param first First row that changed.
+     * @param last Last row that changed.
+     */
+    private void markDirtyRows(int first, int last) {
+        firstDirtyRow = Math.min(firstDirtyRow, first);
+        lastDirtyRow = Math.max(lastDirtyRow, last);
+    }
+
+    /**
+     * Gets the number of filled cells in a row.
+     *
+     * @param y The grid row to count.
+     * @return The number of filled cells from 0 to getGridWidth().
+     */
+    public int getRowFillCount(int y) {
+        int count = 0;
+        for(int word = 0; word < wordsPerRow; word++)
+            count += Long.bitCount(rowWords[y * wordsPerRow + word]);
+        return count;
+    }
+
+    /**
+     * Gets the height of a column from the bottom of the grid to its highest filled cell.
+     *
+     * @param x The grid column.
+     * @return The height of the column, or 0 if it is empty.
+     */
+    public int getColumnHeight(int x) { return columnHeights[x]; }
+
+    /**
+     * Gets the sum of all the column heights.
+     *
+     * @return The aggregate height of the board.
+     */
+    public int getAggregateHeight() {
+        int total = 0;
+        for(int x = 0; x < gridWidth; x++)
+            total += columnHeights[x];
+        return total;
+    }
+
+    /**
+     * Gets the sum of the absolute differences in height between neighbouring columns.
+     *
+     * @return The bumpiness of the board.
+     */
+    public int getBumpiness() {
+        int total = 0;
+        for(int x = 1; x < gridWidth; x++)
+            total += Math.abs(columnHeights[x] - columnHeights[x-1]);
+        return total;
+    }
+
+    /**
+     * Counts the empty cells that have a filled cell somewhere above them in the same column.
+     * Rows are scanned from the top with a mask of the columns covered so far.
+     *
+     * @return The number of holes on the board.
+     */
+    public int getHoleCount() {
+        int holes = 0;
+        if(wordsPerRow == 1) {
+            long coveredColumns = 0;
+            for(int y = 0; y < gridHeight; y++) {
+                holes += Long.bitCount(coveredColumns & ~rowWords[y]);
+                coveredColumns |= rowWords[y];
+            }
+            return holes;
+        }
+
+        Arrays.fill(scanWords, 0);
+        for(int y = 0; y < gridHeight; y++) {
+            for(int word = 0; word < wordsPerRow; word++) {
+                long rowBits = rowWords[y * wordsPerRow + word];
+                holes += Long.bitCount(scanWords[word] & ~rowBits);
+                scanWords[word] |= rowBits;
             }
         }
-        matches.clear();
+        return holes;
     }
 
     /**
@@ -139,9 +1011,21 @@ public class TetrisBoard {
      * @return True if the piece can be moved with the translation.
      */
     public boolean isMoveValid(Position possibleTranslation, TetrisPiece piece) {
-        Position newPos = piece.getTopLeft();
-        newPos.move(possibleTranslation);
-        return isValidOnBoard(newPos, piece.getPieceWidth(), piece.getPieceHeight(), piece.getPieceData());
+        return isMoveValid(possibleTranslation.x, possibleTranslation.y, piece);
+    }
+
+    /**
+     * Same as isMoveValid() with a Position, but takes the translation as primitive
+     * values so the check can be repeated without creating any objects.
+     *
+     * @param dx Horizontal translation to test.
+     * @param dy Vertical translation to test.
+     * @param piece The piece to be moved with the translation.
+     * @return True if the piece can be moved with the translation.
+     */
+    public boolean isMoveValid(int dx, int dy, TetrisPiece piece) {
+        return isValidOnBoard(piece.getLeft()+dx, piece.getTop()+dy,
+                piece.getPieceWidth(), piece.getPieceHeight(), piece.getRowMasks());
     }
 
     /**
@@ -156,36 +1040,82 @@ public class TetrisBoard {
      */
     public boolean isValidOnBoard(Position topLeft, int width, int height, int[][] data) {
         // Check inside board space
-        if(topLeft.x < 0 || topLeft.x+width > GRID_WIDTH
-                || topLeft.y + height > GRID_HEIGHT)
+        if(topLeft.x < 0 || topLeft.x+width > gridWidth
+                || topLeft.y + height > gridHeight)
             return false;
         // Ignore if still coming down from the top to enter board
         if(topLeft.y < 0) return true;
 
-        // Check every cell to make sure filled cells in the data can be placed in empty
-        // cells in the tetris Grid.
-        for(int x = 0; x < data.length; x++) {
-            for(int y = 0; y < data[0].length; y++) {
-                if(data[x][y] != 0 && tetrisGrid[topLeft.x+x][topLeft.y+y] != 0)
+        // Build the occupancy mask of each piece row shifted into board columns
+        // and make sure it does not overlap any filled cells in the same board row.
+        for(int y = 0; y < height; y++) {
+            int pieceRowMask = 0;
+            for(int x = 0; x < width; x++) {
+                if(data[x][y] != 0)
+                    pieceRowMask |= 1 << x;
+            }
+            if(overlapsPieceRow(topLeft.y+y, pieceRowMask, topLeft.x))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tests the bounding box and the piece occupancy in the same way as the other
+     * isValidOnBoard(), using precomputed row masks so each piece row is tested
+     * with a single shift and AND against the board row, or against the one or two
+     * words it covers on boards more than 64 cells wide.
+     *
+     * @param left Left grid column where the piece is to go.
+     * @param top Top grid row where the piece is to go.
+     * @param width Width of the piece.
+     * @param height Height of the piece.
+     * @param pieceRowMasks Occupancy of each piece row with bit x set for filled column x.
+     * @return True if the bounding box matches and the piece can be filled into empty cells.
+     */
+    public boolean isValidOnBoard(int left, int top, int width, int height, int[] pieceRowMasks) {
+        // Check inside board space
+        if(left < 0 || left+width > gridWidth || top + height > gridHeight)
+            return false;
+        // Ignore if still coming down from the top to enter board
+        if(top < 0) return true;
+
+        if(wordsPerRow == 1) {
+            for(int y = 0; y < height; y++) {
+                if((rowWords[top+y] & ((long)pieceRowMasks[y] << left)) != 0)
                     return false;
             }
+            return true;
+        }
+        for(int y = 0; y < height; y++) {
+            if(overlapsPieceRow(top+y, pieceRowMasks[y], left))
+                return false;
         }
         return true;
     }
 
     /**
      * Draws the filled cells to the grid. Colours are based on the numbers related to the pieces
-     * used to fill the grid.
+     * used to fill the grid. Only rows inside the clip area of the Graphics object are drawn.
      *
      * @param g Reference to the Graphics object for drawing.
      */
     public void paint(Graphics g) {
-        for(int x = 0; x < GRID_WIDTH; x++) {
-            for(int y = 0; y < GRID_HEIGHT; y++) {
-                if(tetrisGrid[x][y] != 0) {
-                    g.setColor(TetrisPiece.pieceColours[tetrisGrid[x][y]]);
-                    g.fillRect(x * TetrisBoard.CELL_DIM + 3, y * TetrisBoard.CELL_DIM + 3,
-                            TetrisBoard.CELL_DIM - 6, TetrisBoard.CELL_DIM - 6);
+        int firstRow = 0;
+        int lastRow = gridHeight - 1;
+        Rectangle clip = g.getClipBounds();
+        if(clip != null) {
+            firstRow = Math.max(firstRow, clip.y / cellDim);
+            lastRow = Math.min(lastRow, (clip.y + clip.height) / cellDim);
+        }
+        for(int y = firstRow; y <= lastRow; y++) {
+            // Skip rows without any filled cells
+            if(isRowEmpty(y)) continue;
+            for(int x = 0; x < gridWidth; x++) {
+                int colour = cellColours[y * gridWidth + x];
+                if(colour != 0) {
+                    g.setColor(TetrisPiece.pieceColours[colour]);
+                    g.fillRect(x * cellDim + 3, y * cellDim + 3, cellDim - 6, cellDim - 6);
                 }
             }
         }
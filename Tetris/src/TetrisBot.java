@@ -0,0 +1,511 @@
+import java.util.Arrays;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * TetrisBot class:
+ * Plays the game by searching every final placement the current piece can reach
+ * (each distinct rotation shifted to each column, optionally with a soft drop tuck
+ * under an overhang) followed by every placement of the next piece. Each resulting
+ * board is scored with a weighted sum of aggregate height, cleared lines, holes and
+ * bumpiness, and the inputs leading to the best placement of the current piece are returned.
+ * Placements are tried by placing and undoing pieces on a search board copied once from the
+ * real board, so the real board is never modified and no board is copied per placement.
+ * An optional EvaluationCache lets the search reuse scores of boards reached again by a
+ * different order of moves, keyed by the board's Zobrist hash.
+ * A bot keeps its search state between calls and must only be used by one thread.
+ */
+public class TetrisBot {
+    /**
+     * Default weight of the sum of the column heights.
+     */
+    public static final double DEFAULT_HEIGHT_WEIGHT = -0.510066;
+    /**
+     * Default weight of the number of lines cleared.
+     */
+    public static final double DEFAULT_LINES_WEIGHT = 0.760666;
+    /**
+     * Default weight of the number of holes.
+     */
+    public static final double DEFAULT_HOLES_WEIGHT = -0.35663;
+    /**
+     * Default weight of the differences in height between neighbouring columns.
+     */
+    public static final double DEFAULT_BUMPINESS_WEIGHT = -0.184483;
+    /**
+     * Number of pieces searched: the current piece and the next piece.
+     */
+    private static final int SEARCH_DEPTH = 2;
+
+    /**
+     * The first rotation of each piece type with the same occupancy as each rotation,
+     * indexed by [pieceType][rotation]. Rotations with the same occupancy always reach
+     * the same placements, so only the first is searched.
+     */
+    private static final int[][] rotationClasses;
+
+    static {
+        rotationClasses = new int[TetrisPiece.PIECE_TYPE_COUNT][TetrisPiece.ROTATION_COUNT];
+        for(int pieceType = 0; pieceType < TetrisPiece.PIECE_TYPE_COUNT; pieceType++) {
+            for(int rotation = 0; rotation < TetrisPiece.ROTATION_COUNT; rotation++) {
+                int first = 0;
+                while(!Arrays.equals(TetrisPiece.getRotationRowMasks(pieceType, first),
+                        TetrisPiece.getRotationRowMasks(pieceType, rotation)))
+                    first++;
+                rotationClasses[pieceType][rotation] = first;
+            }
+        }
+    }
+
+    /**
+     * Weights of the aggregate height, lines, holes and bumpiness.
+     */
+    private final double heightWeight, linesWeight, holesWeight, bumpinessWeight;
+    /**
+     * When true placements that need a soft drop and a final shift under an overhang are included.
+     */
+    private boolean includeTucks;
+    /**
+     * Board every level of the search places its pieces on and undoes them from.
+     */
+    private TetrisBoard searchBoard;
+    /**
+     * Row each level of the search starts from once the piece has moved on to the board.
+     */
+    private final int[] entryTops;
+    /**
+     * Final orientation, left column and top row of each placement indexed by [depth][placement].
+     */
+    private int[][] placementRotations, placementLefts, placementTops;
+    /**
+     * Number of clockwise rotations to reach the orientation of each placement, with 3
+     * meaning a single counter clockwise rotation. Indexed by [depth][placement].
+     */
+    private int[][] placementRotationInputs;
+    /**
+     * Column each placement is shifted to before dropping, indexed by [depth][placement].
+     */
+    private int[][] placementShiftLefts;
+    /**
+     * Direction of the final shift under an overhang for tucked placements, or 0,
+     * indexed by [depth][placement].
+     */
+    private int[][] placementTucks;
+    /**
+     * Row a tucked placement is soft dropped to before the final shift, indexed by [depth][placement].
+     */
+    private int[][] placementRestTops;
+    /**
+     * Cache of board scores and best next piece scores, or null to score every board.
+     */
+    private EvaluationCache evaluationCache;
+    /**
+     * Total number of resulting boards scored since the bot was created, not counting
+     * scores found in the evaluation cache.
+     */
+    private long placementsEvaluated;
+
+    /**
+     * Creates a bot using the default weights.
+     */
+    public TetrisBot() {
+        this(DEFAULT_HEIGHT_WEIGHT, DEFAULT_LINES_WEIGHT, DEFAULT_HOLES_WEIGHT, DEFAULT_BUMPINESS_WEIGHT);
+    }
+
+    /**
+     * Creates a bot that scores boards with the given weights.
+     *
+     * @param heightWeight Weight of the sum of the column heights.
+     * @param linesWeight Weight of the number of lines cleared.
+     * @param holesWeight Weight of the number of holes.
+     * @param bumpinessWeight Weight of the differences in height between neighbouring columns.
+     */
+    public TetrisBot(double heightWeight, double linesWeight, double holesWeight, double bumpinessWeight) {
+        this.heightWeight = heightWeight;
+        this.linesWeight = linesWeight;
+        this.holesWeight = holesWeight;
+        this.bumpinessWeight = bumpinessWeight;
+        entryTops = new int[SEARCH_DEPTH];
+        createSearchState(new TetrisBoard());
+    }
+
+    /**
+     * Sets whether placements that need a soft drop and a final shift under an overhang are searched.
+     *
+     * @param includeTucks True to search tucked placements.
+     */
+    public void setIncludeTucks(boolean includeTucks) { this.includeTucks = includeTucks; }
+
+    /**
+     * Sets a cache of board scores to consult before scoring a board. The cached scores
+     * depend on the weights, so a cache must only be shared by bots with the same weights.
+     *
+     * @param evaluationCache The cache to use, or null to score every board.
+     */
+    public void setEvaluationCache(EvaluationCache evaluationCache) { this.evaluationCache = evaluationCache; }
+
+    /**
+     * Gets the total number of resulting boards scored since the bot was created,
+     * not counting scores found in the evaluation cache.
+     *
+     * @return The number of placements evaluated.
+     */
+    public long getPlacementsEvaluated() { return placementsEvaluated; }
+
+    /**
+     * Gets the length the inputs array passed to findMoves() must have to fit any sequence
+     * of inputs on a board: moving down on to the board, two rotations, shifting across the
+     * board, soft dropping to the bottom, a tuck and the hard drop.
+     *
+     * @param board The board the pieces are played on.
+     * @return The most inputs findMoves() can write for the board.
+     */
+    public static int getMaxInputs(TetrisBoard board) {
+        return 4 + 2 + board.getGridWidth() + board.getGridHeight() + 2;
+    }
+
+    /**
+     * Creates the search board and placement arrays for boards of the same size as a board.
+     * Every rotation can be found in every column, each with a tuck in either direction.
+     *
+     * @param board A board of the size to search.
+     */
+    private void createSearchState(TetrisBoard board) {
+        searchBoard = new TetrisBoard(board.getGridWidth(), board.getGridHeight(), board.getCellDim());
+        int maxPlacements = TetrisPiece.ROTATION_COUNT * board.getGridWidth() * 3;
+        placementRotations = new int[SEARCH_DEPTH][maxPlacements];
+        placementLefts = new int[SEARCH_DEPTH][maxPlacements];
+        placementTops = new int[SEARCH_DEPTH][maxPlacements];
+        placementRotationInputs = new int[SEARCH_DEPTH][maxPlacements];
+        placementShiftLefts = new int[SEARCH_DEPTH][maxPlacements];
+        placementTucks = new int[SEARCH_DEPTH][maxPlacements];
+        placementRestTops = new int[SEARCH_DEPTH][maxPlacements];
+    }
+
+    /**
+     * Plays a game until it is lost or reaches a piece limit. The bot's inputs for each
+     * piece are applied as soon as the piece appears, followed by a gravity step.
+     *
+     * @param gameEngine The game to play.
+     * @param maxPieces Number of locked pieces to stop the game at.
+     */
+    public void play(GameEngine gameEngine, int maxPieces) {
+        int[] inputs = new int[getMaxInputs(gameEngine.getBoard())];
+        int plannedPiece = -1;
+        while(!gameEngine.isGameOver() && gameEngine.getPiecesLocked() < maxPieces) {
+            if(gameEngine.getPiecesLocked() != plannedPiece) {
+                plannedPiece = gameEngine.getPiecesLocked();
+                int inputCount = findMoves(gameEngine.getBoard(), gameEngine.getCurrentPiece(),
+                        gameEngine.getNextPiece(), inputs);
+                for(int i = 0; i < inputCount; i++)
+                    gameEngine.applyAction(inputs[i]);
+            }
+            gameEngine.step(GameEngine.INPUT_NONE);
+        }
+    }
+
+    /**
+     * Finds the best placement for the current piece and writes the inputs that reach it.
+     * The inputs are meant to be applied straight away one after another with
+     * GameEngine.applyAction(), and always end with a hard drop.
+     *
+     * @param board The board the pieces are played on. Not modified.
+     * @param currentPiece The piece to place from its current position and orientation.
+     * @param nextPiece The piece that follows from its start position, or null to only search the current piece.
+     * @param inputs Destination for the GameEngine INPUT_ constants, at least getMaxInputs() long.
+     * @return The number of inputs written.
+     */
+    public int findMoves(TetrisBoard board, TetrisPiece currentPiece, TetrisPiece nextPiece, int[] inputs) {
+        int pendingLines = 0;
+        for(int y = 0; y < board.getGridHeight(); y++) {
+            if(board.isRowFull(y))
+                pendingLines++;
+        }
+
+        if(board.getGridWidth() != searchBoard.getGridWidth() || board.getGridHeight() != searchBoard.getGridHeight())
+            createSearchState(board);
+        searchBoard.copyFrom(board);
+        int placementCount = findPlacements(searchBoard, 0, currentPiece.getPieceType(), currentPiece.getRotation(),
+                currentPiece.getLeft(), currentPiece.getTop());
+        if(placementCount == 0) {
+            inputs[0] = GameEngine.INPUT_HARD_DROP;
+            return 1;
+        }
+
+        long nextPieceKey = 0;
+        if(nextPiece != null) {
+            nextPieceKey = EvaluationCache.mix(((long)nextPiece.getPieceType() << 48) ^ ((long)nextPiece.getRotation() << 32)
+                    ^ ((long)nextPiece.getLeft() << 16) ^ (nextPiece.getTop() & 0xFFFFL) ^ 0x6E657874L);
+        }
+        int bestPlacement = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < placementCount; i++) {
+            int token = place(currentPiece.getPieceType(), 0, i);
+            int lines = searchBoard.getClearedRowCount() - pendingLines;
+            double score;
+            if(nextPiece == null) {
+                score = evaluate(searchBoard, lines);
+            } else {
+                score = linesWeight * lines + findBestScore(nextPiece.getPieceType(), nextPiece.getRotation(),
+                        nextPiece.getLeft(), nextPiece.getTop(), nextPieceKey);
+            }
+            searchBoard.undo(token);
+            if(score > bestScore) {
+                bestScore = score;
+                bestPlacement = i;
+            }
+        }
+        return writeInputs(currentPiece.getTop(), currentPiece.getLeft(), bestPlacement, inputs);
+    }
+
+    /**
+     * Scores the best placement of a piece on the search board once the current piece is placed,
+     * not including the lines cleared by the current piece. The best score for a board and piece
+     * is kept in the evaluation cache under the board hash combined with the piece key.
+     *
+     * @param pieceType The piece type to place.
+     * @param rotation Orientation the piece starts in.
+     * @param left Left column the piece starts in.
+     * @param top Top row the piece starts in.
+     * @param pieceKey Key of the piece type and start position to combine with the board hash.
+     * @return The score of the best placement, or negative infinity if the piece cannot enter the board.
+     */
+    private double findBestScore(int pieceType, int rotation, int left, int top, long pieceKey) {
+        long key = searchBoard.getHash() ^ pieceKey;
+        if(evaluationCache != null) {
+            double cached = evaluationCache.get(key);
+            if(!Double.isNaN(cached)) return cached;
+        }
+
+        int placementCount = findPlacements(searchBoard, 1, pieceType, rotation, left, top);
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < placementCount; i++) {
+            int token = place(pieceType, 1, i);
+            bestScore = Math.max(bestScore, evaluate(searchBoard, searchBoard.getClearedRowCount()));
+            searchBoard.undo(token);
+        }
+        if(evaluationCache != null)
+            evaluationCache.put(key, bestScore);
+        return bestScore;
+    }
+
+    /**
+     * Finds every final placement a piece can reach by moving down on to the board,
+     * rotating, shifting to a column and dropping, with optional tucks at the bottom.
+     * The placements are stored in the placement arrays for the depth.
+     *
+     * @param board The board to place the piece on.
+     * @param depth The level of the search the placements are for.
+     * @param pieceType The piece type to place.
+     * @param startRotation Orientation the piece starts in.
+     * @param startLeft Left column the piece starts in.
+     * @param startTop Top row the piece starts in, which can be above the board.
+     * @return The number of placements found.
+     */
+    private int findPlacements(TetrisBoard board, int depth, int pieceType, int startRotation, int startLeft, int startTop) {
+        // Rotation is only allowed once the piece is on the board, and while it is above the
+        // board every move down is valid, so the piece can always move straight to the top row.
+        int top = Math.max(0, startTop);
+        if(!isValid(board, pieceType, startRotation, startLeft, top)) return 0;
+        entryTops[depth] = top;
+
+        int count = 0;
+        int searchedClasses = 0;
+        for(int rotationInputs = 0; rotationInputs < TetrisPiece.ROTATION_COUNT; rotationInputs++) {
+            int rotation = (startRotation + rotationInputs) % TetrisPiece.ROTATION_COUNT;
+            if(!canRotate(board, pieceType, startRotation, rotationInputs, startLeft, top)) continue;
+            int rotationClass = 1 << rotationClasses[pieceType][rotation];
+            if((searchedClasses & rotationClass) != 0) continue;
+            searchedClasses |= rotationClass;
+
+            // Shift left as far as possible, then right, from the start column
+            for(int direction = -1; direction <= 1; direction += 2) {
+                int left = direction < 0 ? startLeft : startLeft + 1;
+                while(isValid(board, pieceType, rotation, left, top)) {
+                    count = addPlacements(board, depth, count, pieceType, rotation, rotationInputs, left, top);
+                    left += direction;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks if every rotation input on the way to an orientation is valid at the piece's position.
+     *
+     * @param board The board to place the piece on.
+     * @param pieceType The piece type to place.
+     * @param startRotation Orientation the piece starts in.
+     * @param rotationInputs Number of clockwise rotations, with 3 meaning a single counter clockwise rotation.
+     * @param left Left column of the piece.
+     * @param top Top row of the piece.
+     * @return True if the orientation can be reached.
+     */
+    private boolean canRotate(TetrisBoard board, int pieceType, int startRotation, int rotationInputs, int left, int top) {
+        if(rotationInputs == 3)
+            return isValid(board, pieceType, (startRotation + 3) % TetrisPiece.ROTATION_COUNT, left, top);
+        for(int i = 1; i <= rotationInputs; i++) {
+            if(!isValid(board, pieceType, (startRotation + i) % TetrisPiece.ROTATION_COUNT, left, top))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the placement reached by dropping the piece from the shifted column, and any
+     * tucked placements reached by a final shift after soft dropping to the same row.
+     *
+     * @param board The board to place the piece on.
+     * @param depth The level of the search the placements are for.
+     * @param count The number of placements found so far.
+     * @param pieceType The piece type to place.
+     * @param rotation Orientation of the piece.
+     * @param rotationInputs Number of rotation inputs needed to reach the orientation.
+     * @param left Column the piece is shifted to.
+     * @param top Top row the piece starts dropping from.
+     * @return The new number of placements found.
+     */
+    private int addPlacements(TetrisBoard board, int depth, int count, int pieceType, int rotation,
+                              int rotationInputs, int left, int top) {
+        int restTop = dropTop(board, pieceType, rotation, left, top);
+        count = addPlacement(depth, count, rotation, rotationInputs, left, 0, restTop, restTop);
+        if(!includeTucks) return count;
+
+        for(int tuck = -1; tuck <= 1; tuck += 2) {
+            if(!isValid(board, pieceType, rotation, left + tuck, restTop)) continue;
+            int tuckTop = dropTop(board, pieceType, rotation, left + tuck, restTop);
+            // Only a tuck if the shift lets the piece fall further than dropping in that column
+            if(tuckTop > restTop)
+                count = addPlacement(depth, count, rotation, rotationInputs, left, tuck, restTop, tuckTop);
+        }
+        return count;
+    }
+
+    /**
+     * Stores a single placement in the placement arrays for the depth.
+     *
+     * @param depth The level of the search the placement is for.
+     * @param count The number of placements found so far.
+     * @param rotation Orientation of the piece.
+     * @param rotationInputs Number of rotation inputs needed to reach the orientation.
+     * @param shiftLeft Column the piece is shifted to before dropping.
+     * @param tuck Direction of the final shift, or 0 for none.
+     * @param restTop Row the piece is soft dropped to before the final shift.
+     * @param finalTop Row the piece locks in at.
+     * @return The new number of placements found.
+     */
+    private int addPlacement(int depth, int count, int rotation, int rotationInputs, int shiftLeft,
+                             int tuck, int restTop, int finalTop) {
+        placementRotations[depth][count] = rotation;
+        placementLefts[depth][count] = shiftLeft + tuck;
+        placementTops[depth][count] = finalTop;
+        placementRotationInputs[depth][count] = rotationInputs;
+        placementShiftLefts[depth][count] = shiftLeft;
+        placementTucks[depth][count] = tuck;
+        placementRestTops[depth][count] = restTop;
+        return count + 1;
+    }
+
+    /**
+     * Places a placement on the search board in a way that can be undone, removing any full rows.
+     *
+     * @param pieceType The piece type to place.
+     * @param depth The level of the search the placement is from.
+     * @param placement Index of the placement.
+     * @return The token to undo the placement with.
+     */
+    private int place(int pieceType, int depth, int placement) {
+        return searchBoard.place(pieceType, placementRotations[depth][placement],
+                placementLefts[depth][placement], placementTops[depth][placement]);
+    }
+
+    /**
+     * Scores a board with the weighted sum of its features. The part of the score from the
+     * board itself is kept in the evaluation cache under the board hash.
+     *
+     * @param board The board after placing pieces and clearing rows.
+     * @param lines Number of lines cleared by the placed pieces.
+     * @return The score of the board, where higher is better.
+     */
+    private double evaluate(TetrisBoard board, int lines) {
+        double boardScore = Double.NaN;
+        if(evaluationCache != null)
+            boardScore = evaluationCache.get(board.getHash());
+        if(Double.isNaN(boardScore)) {
+            placementsEvaluated++;
+            boardScore = heightWeight * board.getAggregateHeight() + holesWeight * board.getHoleCount()
+                    + bumpinessWeight * board.getBumpiness();
+            if(evaluationCache != null)
+                evaluationCache.put(board.getHash(), boardScore);
+        }
+        return boardScore + linesWeight * lines;
+    }
+
+    /**
+     * Writes the inputs that move the current piece to one of its placements.
+     *
+     * @param startTop Top row the piece starts in.
+     * @param startLeft Left column the piece starts in.
+     * @param placement Index of the placement at depth 0.
+     * @param inputs Destination for the inputs.
+     * @return The number of inputs written.
+     */
+    private int writeInputs(int startTop, int startLeft, int placement, int[] inputs) {
+        int count = 0;
+        for(int top = startTop; top < entryTops[0]; top++)
+            inputs[count++] = GameEngine.INPUT_DOWN;
+
+        int rotationInputs = placementRotationInputs[0][placement];
+        if(rotationInputs == 3) {
+            inputs[count++] = GameEngine.INPUT_ROTATE_LEFT;
+        } else {
+            for(int i = 0; i < rotationInputs; i++)
+                inputs[count++] = GameEngine.INPUT_ROTATE_RIGHT;
+        }
+
+        int shiftLeft = placementShiftLefts[0][placement];
+        for(int left = startLeft; left != shiftLeft; left += Integer.signum(shiftLeft - startLeft))
+            inputs[count++] = shiftLeft < startLeft ? GameEngine.INPUT_LEFT : GameEngine.INPUT_RIGHT;
+
+        int tuck = placementTucks[0][placement];
+        if(tuck != 0) {
+            for(int top = entryTops[0]; top < placementRestTops[0][placement]; top++)
+                inputs[count++] = GameEngine.INPUT_DOWN;
+            inputs[count++] = tuck < 0 ? GameEngine.INPUT_LEFT : GameEngine.INPUT_RIGHT;
+        }
+        inputs[count++] = GameEngine.INPUT_HARD_DROP;
+        return count;
+    }
+
+    /**
+     * Finds the row a piece comes to rest at when dropped straight down.
+     *
+     * @param board The board to place the piece on.
+     * @param pieceType The piece type to place.
+     * @param rotation Orientation of the piece.
+     * @param left Left column of the piece.
+     * @param top Top row the piece starts dropping from, where it must be valid.
+     * @return The top row where the piece comes to rest.
+     */
+    private int dropTop(TetrisBoard board, int pieceType, int rotation, int left, int top) {
+        while(isValid(board, pieceType, rotation, left, top + 1))
+            top++;
+        return top;
+    }
+
+    /**
+     * Checks if a piece fits on the board in an orientation at a position.
+     *
+     * @param board The board to place the piece on.
+     * @param pieceType The piece type to place.
+     * @param rotation Orientation of the piece.
+     * @param left Left column of the piece.
+     * @param top Top row of the piece.
+     * @return True if the piece fits.
+     */
+    private boolean isValid(TetrisBoard board, int pieceType, int rotation, int left, int top) {
+        return board.isValidOnBoard(left, top, TetrisPiece.getRotationWidth(pieceType, rotation),
+                TetrisPiece.getRotationHeight(pieceType, rotation), TetrisPiece.getRotationRowMasks(pieceType, rotation));
+    }
+}
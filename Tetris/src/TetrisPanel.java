@@ -3,14 +3,17 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.image.VolatileImage;
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Tetris
  * Author: Peter Mitchell (2021)
  *
  * TetrisPanel class:
- * Displays the Tetris grid and current piece with a
- * timer to manage time between updates.
+ * Displays the Tetris grid and current piece from a GameEngine
+ * with a timer to manage time between updates.
  */
 public class TetrisPanel extends JPanel implements ActionListener {
     /**
@@ -18,241 +21,511 @@ public class TetrisPanel extends JPanel implements ActionListener {
      */
     private Game game;
     /**
-     * The current piece that is moving down the screen.
+     * The headless game engine holding the board, pieces, score and level.
      */
-    private TetrisPiece currentPiece;
+    private GameEngine gameEngine;
     /**
-     * The next piece that will be used after the current piece.
+     * Reference to the timer that forces updates to occur at set intervals.
+     * The timer is modified based on the level to increase rate for higher levels.
      */
-    private TetrisPiece nextPiece;
+    private Timer gameTimer;
     /**
-     * Position above the top of the game where the piece will start.
+     * Milliseconds between checks for held keys that move the piece automatically.
      */
-    private Position pieceStartPosition;
+    private static final int INPUT_STEP_MILLIS = 10;
+
     /**
-     * Reference to the timer that forces updates to occur at set intervals.
-     * The timer is modified based on the level to increase rate for higher levels.
+     * Timer that applies queued key events and moves the piece for held keys between gravity steps.
      */
-    private Timer gameTimer;
+    private Timer inputTimer;
+    /**
+     * Key presses and releases controlling the piece queued by the Game.
+     */
+    private InputController inputController;
+    /**
+     * Time in nanoseconds the queued inputs were last applied.
+     */
+    private long lastInputTime;
+    /**
+     * The number of locked pieces when the status panel was last updated.
+     * Used to detect when the next piece has changed.
+     */
+    private int lastPiecesLocked;
     /**
-     * The next move based on keyboard input.
+     * Bounds in grid cells of the current piece when it was last repainted, so the
+     * area it moved away from can be repainted with the area it moved in to.
      */
-    private Position nextMove;
+    private int paintedPieceLeft, paintedPieceTop, paintedPieceRight, paintedPieceBottom;
     /**
-     * The current score based on matched rows.
+     * Off-screen image holding the grid lines and locked in cells, which only change
+     * when the board changes. Created on the first paint.
      */
-    private int score;
+    private VolatileImage staticLayer;
     /**
-     * The current level based on total score.
+     * Range of rows of the static layer that need to be drawn again before it is used.
+     * The range is empty when the first row is greater than the last row.
      */
-    private int level;
+    private int layerFirstDirtyRow, layerLastDirtyRow;
     /**
-     * Reference to the tetris board containing the grid of placed pieces.
+     * Directory to save a replay of every game into, or null when not recording.
      */
-    private TetrisBoard tetrisBoard;
+    private Path recordDirectory;
     /**
-     * Game state to indicate the game has been lost if true.
+     * Recorder for the current game, or null when not recording.
      */
-    private boolean gameOver;
+    private ReplayRecorder replayRecorder;
     /**
-     * The amount of score required to increase the level number.
+     * Player for the replay being shown, or null when the game is being played from the keyboard.
+     */
+    private ReplayPlayer replayPlayer;
+    /**
+     * Quick save file opened on the first save or load, or null before then.
+     */
+    private SaveFile saveFile;
+
+    /**
+     * Sets up the tetris panel to play a new game while saving a replay
+     * of every game into the record directory.
+     *
+     * @param game Reference to the Game object to pass updates to status panel.
+     * @param gameEngine The new game engine to play, sized to the board to show.
+     * @param recordDirectory Directory to save the replays into.
+     */
+    public TetrisPanel(Game game, GameEngine gameEngine, Path recordDirectory) {
+        this(game, gameEngine);
+        this.recordDirectory = recordDirectory;
+        startRecording();
+    }
+
+    /**
+     * Sets up the tetris panel to show a recorded game at normal speed.
+     * Keyboard controls for the piece and restarting are ignored.
+     *
+     * @param game Reference to the Game object to pass updates to status panel.
+     * @param replayPlayer The player for the recorded game.
      */
-    private final int SCORE_PER_LEVEL = 5;
+    public TetrisPanel(Game game, ReplayPlayer replayPlayer) {
+        this(game, replayPlayer.getGameEngine());
+        this.replayPlayer = replayPlayer;
+    }
 
     /**
-     * Sets up all the tetris panel components including the tetris board,
-     * current/next piece, the timer for triggering updates, and starts the timer
-     * to begin the game.
+     * Sets up all the tetris panel components around the game engine,
+     * the timer for triggering updates, and starts the timer
+     * to begin the game. The panel is sized to fit the board of the game engine.
      *
      * @param game Reference to the Game object to pass updates to status panel.
+     * @param gameEngine The game engine to display and update.
      */
-    public TetrisPanel(Game game) {
+    public TetrisPanel(Game game, GameEngine gameEngine) {
         this.game = game;
-        setPreferredSize(new Dimension(TetrisBoard.WIDTH,TetrisBoard.HEIGHT));
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        setPreferredSize(new Dimension(tetrisBoard.getWidth(),tetrisBoard.getHeight()));
         setBackground(Color.BLACK);
-        pieceStartPosition = new Position(TetrisBoard.GRID_WIDTH/2, -2);
-
-        tetrisBoard = new TetrisBoard();
-        currentPiece = new TetrisPiece(pieceStartPosition);
-        nextPiece = new TetrisPiece(pieceStartPosition);
-        game.setNextPiece(nextPiece);
-        nextMove = Position.DOWN;
-        gameTimer = new Timer(300,this);
+
+        this.gameEngine = gameEngine;
+        layerFirstDirtyRow = 0;
+        layerLastDirtyRow = tetrisBoard.getGridHeight() - 1;
+        game.setNextPiece(gameEngine.getNextPiece().getPieceType());
+        lastPiecesLocked = gameEngine.getPiecesLocked();
+        inputController = game.getInputController();
+        gameTimer = new Timer(gameEngine.getTickDelay(),this);
         gameTimer.setRepeats(true);
-        gameOver = false;
         gameTimer.start();
+        lastInputTime = System.nanoTime();
+        inputTimer = new Timer(INPUT_STEP_MILLIS, e -> applyInputs());
+        inputTimer.setRepeats(true);
+        inputTimer.start();
     }
 
     /**
      * Draws the grid, any filled cells on the grid, the current piece,
      * and a message relevant to any game over or paused state if necessary.
+     * The grid and filled cells are copied from the static layer when it is available.
      *
      * @param g Reference to the Graphics object for drawing.
      */
     @Override
     public void paint(Graphics g) {
-        super.paint(g);
-        drawGrid(g);
-        tetrisBoard.paint(g);
-        currentPiece.paint(g);
-        if(gameOver)
-            drawCenteredMessage(g, "GAME OVER. R to restart!");
+        long startTime = GameMetrics.ENABLED ? System.nanoTime() : 0;
+        GameEvents.Repaint repaintEvent = GameEvents.beginRepaint();
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        takeBoardChanges();
+        if(!paintStaticLayer(g)) {
+            super.paint(g);
+            drawGrid(g, tetrisBoard, g.getClipBounds());
+            tetrisBoard.paint(g);
+        }
+        gameEngine.getCurrentPiece().paint(g, tetrisBoard.getCellDim());
+        if(gameEngine.isGameOver())
+            drawCenteredMessage(g, tetrisBoard, replayPlayer == null ? "GAME OVER. R to restart!" : "GAME OVER. Esc to quit!");
+        else if(replayPlayer != null && replayPlayer.isFinished())
+            drawCenteredMessage(g, tetrisBoard, "REPLAY FINISHED. Esc to quit!");
         else if(!gameTimer.isRunning())
-            drawCenteredMessage(g, "PAUSED. P to unpause!");
+            drawCenteredMessage(g, tetrisBoard, "PAUSED. P to unpause!");
+        if(GameMetrics.ENABLED)
+            GameMetrics.get().endPaint(startTime);
+        if(repaintEvent != null) {
+            Rectangle clip = g.getClipBounds();
+            GameEvents.endRepaint(repaintEvent, clip == null ? getWidth() : clip.width,
+                    clip == null ? getHeight() : clip.height);
+        }
+    }
+
+    /**
+     * Draws the static layer holding the grid and locked in cells with a single image copy.
+     * The layer is created when first needed, and any rows of the board that changed are
+     * drawn on to the layer first. If the contents of the image are lost it is drawn again.
+     *
+     * @param g Reference to the Graphics object for drawing.
+     * @return False if an off-screen image could not be created.
+     */
+    private boolean paintStaticLayer(Graphics g) {
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        int cellDim = tetrisBoard.getCellDim();
+        do {
+            int status = staticLayer == null ? VolatileImage.IMAGE_INCOMPATIBLE
+                    : staticLayer.validate(getGraphicsConfiguration());
+            if(status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                staticLayer = createVolatileImage(tetrisBoard.getWidth(), tetrisBoard.getHeight());
+                if(staticLayer == null) return false;
+            }
+            if(status != VolatileImage.IMAGE_OK)
+                markLayerDirty(0, tetrisBoard.getGridHeight() - 1);
+
+            if(layerFirstDirtyRow <= layerLastDirtyRow) {
+                Graphics2D layerGraphics = staticLayer.createGraphics();
+                Rectangle rows = new Rectangle(0, layerFirstDirtyRow * cellDim, tetrisBoard.getWidth(),
+                        (layerLastDirtyRow - layerFirstDirtyRow + 1) * cellDim);
+                layerGraphics.setClip(rows);
+                layerGraphics.setColor(getBackground());
+                layerGraphics.fillRect(rows.x, rows.y, rows.width, rows.height);
+                drawGrid(layerGraphics, tetrisBoard, rows);
+                tetrisBoard.paint(layerGraphics);
+                layerGraphics.dispose();
+                layerFirstDirtyRow = tetrisBoard.getGridHeight();
+                layerLastDirtyRow = -1;
+            }
+            g.drawImage(staticLayer, 0, 0, null);
+        } while(staticLayer.contentsLost());
+        return true;
+    }
+
+    /**
+     * Moves the rows changed on the board since the last call in to the rows of the static
+     * layer that need to be drawn again, and clears them on the board.
+     */
+    private void takeBoardChanges() {
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        if(tetrisBoard.getFirstDirtyRow() <= tetrisBoard.getLastDirtyRow()) {
+            markLayerDirty(tetrisBoard.getFirstDirtyRow(), tetrisBoard.getLastDirtyRow());
+            tetrisBoard.clearDirtyRows();
+        }
+    }
+
+    /**
+     * Extends the range of rows of the static layer that need to be drawn again.
+     *
+     * @param first First row that changed.
+     * @param last Last row that changed.
+     */
+    private void markLayerDirty(int first, int last) {
+        layerFirstDirtyRow = Math.min(layerFirstDirtyRow, first);
+        layerLastDirtyRow = Math.max(layerLastDirtyRow, last);
     }
 
     /**
      * Draws a grid of lines to represent the spacing of the grid.
+     * Only the lines passing through the clip area are drawn.
      *
      * @param g Reference to the Graphics object for drawings.
+     * @param tetrisBoard The board giving the size of the grid.
+     * @param clip The area being repainted, or null to draw the whole grid.
      */
-    private void drawGrid(Graphics g) {
+    static void drawGrid(Graphics g, TetrisBoard tetrisBoard, Rectangle clip) {
+        int cellDim = tetrisBoard.getCellDim();
+        if(clip == null)
+            clip = new Rectangle(0, 0, tetrisBoard.getWidth(), tetrisBoard.getHeight());
+        int firstColumn = Math.max(0, clip.x / cellDim);
+        int lastColumn = Math.min(tetrisBoard.getGridWidth() - 1, (clip.x + clip.width) / cellDim);
+        int firstRow = Math.max(0, clip.y / cellDim);
+        int lastRow = Math.min(tetrisBoard.getGridHeight() - 1, (clip.y + clip.height) / cellDim);
+
         g.setColor(Color.WHITE);
         // Draw vertical lines
-        int y2 = 0;
-        int y1 = TetrisBoard.HEIGHT;
-        for(int x = 0; x < TetrisBoard.GRID_WIDTH; x++)
-            g.drawLine(x * TetrisBoard.CELL_DIM, y1, x * TetrisBoard.CELL_DIM, y2);
+        int y2 = clip.y;
+        int y1 = Math.min(tetrisBoard.getHeight(), clip.y + clip.height);
+        for(int x = firstColumn; x <= lastColumn; x++)
+            g.drawLine(x * cellDim, y1, x * cellDim, y2);
 
         // Draw horizontal lines
-        int x2 = 0;
-        int x1 = TetrisBoard.WIDTH;
-        for(int y = 0; y < TetrisBoard.GRID_HEIGHT; y++)
-            g.drawLine(x1, y * TetrisBoard.CELL_DIM, x2, y * TetrisBoard.CELL_DIM);
+        int x2 = clip.x;
+        int x1 = Math.min(tetrisBoard.getWidth(), clip.x + clip.width);
+        for(int y = firstRow; y <= lastRow; y++)
+            g.drawLine(x1, y * cellDim, x2, y * cellDim);
     }
 
     /**
      * Draws the specified message centered in the panel with a white box around it.
      *
      * @param g Reference to the Graphics object for drawing.
+     * @param tetrisBoard The board the message is centred over.
      * @param message The message to be printed in the middle of the screen.
      */
-    private void drawCenteredMessage(Graphics g, String message) {
+    static void drawCenteredMessage(Graphics g, TetrisBoard tetrisBoard, String message) {
         Font font = new Font("Arial", Font.BOLD, 20);
         g.setFont(font);
         int messageWidth = g.getFontMetrics().stringWidth(message);
+        int width = tetrisBoard.getWidth();
+        int height = tetrisBoard.getHeight();
 
         g.setColor(Color.WHITE);
-        g.fillRect(TetrisBoard.WIDTH/2-messageWidth/2-5,TetrisBoard.HEIGHT/2-20, messageWidth+10, 30);
+        g.fillRect(width/2-messageWidth/2-5,height/2-20, messageWidth+10, 30);
 
         g.setColor(Color.RED);
-        g.drawString(message, TetrisBoard.WIDTH/2-messageWidth/2, TetrisBoard.HEIGHT/2);
+        g.drawString(message, width/2-messageWidth/2, height/2);
     }
 
     /**
      * Toggles the state of the timer to start or stop making updates start or stop.
+     * The whole panel is repainted to show or remove the paused message.
      */
     public void togglePause() {
-        if(gameTimer.isRunning()) {
+        if(gameTimer.isRunning())
             gameTimer.stop();
-            repaint();
-        } else
+        else
             gameTimer.start();
+        repaint();
     }
 
     /**
      * Resets the state of all elements back to their defaults and restarts the timer.
      */
     public void restart() {
-        score = 0;
-        level = 1;
-        game.setScore(score);
-        game.setLevel(level);
-        nextMove = Position.DOWN;
-        currentPiece.reset();
-        nextPiece.reset();
-        game.setNextPiece(nextPiece);
-        tetrisBoard.reset();
-        gameOver = false;
+        if(replayPlayer != null) return;
+
+        stopRecording();
+        inputController.clear();
+        gameEngine.restart(System.nanoTime());
+        if(recordDirectory != null)
+            startRecording();
+        game.setScore(gameEngine.getScore());
+        game.setLevel(gameEngine.getLevel());
+        game.setNextPiece(gameEngine.getNextPiece().getPieceType());
+        lastPiecesLocked = gameEngine.getPiecesLocked();
+        gameTimer.setDelay(gameEngine.getTickDelay());
         gameTimer.start();
+        repaint();
     }
 
     /**
-     * Forces the piece to continually move down until it is locked in place.
+     * Saves the whole state of the game to the quick save file, replacing any earlier save.
      */
-    public void hardDropCurrent() {
-        nextMove = Position.DOWN;
-        while(tetrisBoard.isMoveValid(nextMove,currentPiece))
-            currentPiece.move(nextMove);
-        lockInPiece();
+    public void quickSave() {
+        if(replayPlayer != null || !openSaveFile()) return;
+
+        saveFile.save(0, gameEngine);
+        saveFile.force();
     }
 
     /**
-     * Locks in the piece to the grid. If the piece is locked in outside of the grid
-     * it causes an instant game over. Once the piece is locked in it will check for matches,
-     * and change to the next piece. Score and level are updated to reflect changes based on matches.
+     * Replaces the game with the one in the quick save file if there is one. Any replay
+     * being recorded is finished, as the inputs after loading would not play back from its start.
      */
-    public void lockInPiece() {
-        if(currentPiece.getTopLeft().y < 0) {
-            gameOver = true;
+    public void quickLoad() {
+        if(replayPlayer != null || !openSaveFile()) return;
+
+        try {
+            if(!saveFile.load(0, gameEngine)) return;
+        } catch(IllegalArgumentException e) {
+            System.err.println("Could not load game: " + e.getMessage());
             return;
         }
+        stopRecording();
+        inputController.clear();
+        game.setScore(gameEngine.getScore());
+        game.setLevel(gameEngine.getLevel());
+        game.setNextPiece(gameEngine.getNextPiece().getPieceType());
+        lastPiecesLocked = gameEngine.getPiecesLocked();
+        gameTimer.setDelay(gameEngine.getTickDelay());
+        repaint();
+    }
 
-        tetrisBoard.lockInPiece(currentPiece);
-        currentPiece = nextPiece;
-        nextPiece = new TetrisPiece(pieceStartPosition);
-        game.setNextPiece(nextPiece);
-        int matches = tetrisBoard.checkForMatches();
-        if(matches > 0) {
-            score += matches * matches;
-            game.setScore(score);
-            level = 1+score/SCORE_PER_LEVEL;
-            game.setLevel(level);
-            gameTimer.setDelay(Math.max(30,300-(level-1)*30));
+    /**
+     * Opens the quick save file for the size of the board if it is not open already.
+     *
+     * @return False if the file could not be opened.
+     */
+    private boolean openSaveFile() {
+        if(saveFile != null) return true;
+
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        try {
+            saveFile = new SaveFile(SaveFile.QUICK_SAVE_FILE, 1, tetrisBoard.getGridWidth(), tetrisBoard.getGridHeight());
+            return true;
+        } catch(IOException e) {
+            System.err.println("Could not open " + SaveFile.QUICK_SAVE_FILE + ": " + e.getMessage());
+            return false;
         }
     }
 
     /**
      * Triggered by the timer to perform regular updates.
-     * Removes any matched rows from the previous update, makes the piece move if possible,
-     * or otherwise locks in the piece where it is located. Then repaints the board.
+     * Performs a gravity step of the game engine, passes any
+     * changes on to the status panel, and then repaints the parts of the board that changed.
      *
      * @param e Not used.
      */
     @Override
     public void actionPerformed(ActionEvent e) {
-        tetrisBoard.clearMatchedRows();
-        if(tetrisBoard.isMoveValid(nextMove,currentPiece))
-            currentPiece.move(nextMove);
-        else if(nextMove.x == 0)
-            lockInPiece();
-        nextMove = Position.DOWN;
-        repaint();
+        long startTime = GameMetrics.ENABLED ? System.nanoTime() : 0;
+        long startAllocated = GameMetrics.ENABLED ? GameMetrics.get().getAllocatedBytes() : 0;
+        if(replayPlayer != null) {
+            replayPlayer.playTick();
+            if(replayPlayer.isFinished())
+                gameTimer.stop();
+        } else {
+            gameEngine.step(GameEngine.INPUT_NONE);
+            if(gameEngine.isGameOver())
+                stopRecording();
+        }
+        updateStatus();
+        repaintChanges();
+        if(GameMetrics.ENABLED)
+            GameMetrics.get().endTick(startTime, startAllocated);
+    }
+
+    /**
+     * Requests a repaint of only the areas that changed since the last repaint: the area the
+     * current piece moved from, the area it is now in, and any rows changed on the board.
+     * The whole panel is repainted when a message is shown over the board.
+     */
+    private void repaintChanges() {
+        TetrisBoard tetrisBoard = gameEngine.getBoard();
+        if(gameEngine.isGameOver() || (replayPlayer != null && replayPlayer.isFinished())) {
+            repaint();
+            return;
+        }
+
+        repaintCells(paintedPieceLeft, paintedPieceTop, paintedPieceRight, paintedPieceBottom);
+        TetrisPiece currentPiece = gameEngine.getCurrentPiece();
+        paintedPieceLeft = currentPiece.getLeft();
+        paintedPieceTop = currentPiece.getTop();
+        paintedPieceRight = paintedPieceLeft + currentPiece.getPieceWidth();
+        paintedPieceBottom = paintedPieceTop + currentPiece.getPieceHeight();
+        repaintCells(paintedPieceLeft, paintedPieceTop, paintedPieceRight, paintedPieceBottom);
+
+        if(tetrisBoard.getFirstDirtyRow() <= tetrisBoard.getLastDirtyRow()) {
+            repaintCells(0, tetrisBoard.getFirstDirtyRow(), tetrisBoard.getGridWidth(), tetrisBoard.getLastDirtyRow() + 1);
+            takeBoardChanges();
+        }
+    }
+
+    /**
+     * Requests a repaint of a rectangle of grid cells including the grid lines around them.
+     *
+     * @param left First column to repaint.
+     * @param top First row to repaint.
+     * @param right Column after the last column to repaint.
+     * @param bottom Row after the last row to repaint.
+     */
+    private void repaintCells(int left, int top, int right, int bottom) {
+        int cellDim = gameEngine.getBoard().getCellDim();
+        repaint(left * cellDim, top * cellDim, (right - left) * cellDim + 1, (bottom - top) * cellDim + 1);
+    }
+
+    /**
+     * Starts saving a replay of the current game into the record directory
+     * named after the seed of the game.
+     */
+    private void startRecording() {
+        Path file = recordDirectory.resolve("replay-" + gameEngine.getPieceGenerator().getSeed() + ".tetr");
+        try {
+            replayRecorder = new ReplayRecorder(file, gameEngine);
+        } catch(IOException e) {
+            System.err.println("Could not record replay to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finishes the replay of the current game if one is being recorded.
+     */
+    private void stopRecording() {
+        if(replayRecorder == null) return;
+
+        try {
+            replayRecorder.close();
+        } catch(IOException e) {
+            System.err.println("Could not finish replay: " + e.getMessage());
+        }
+        replayRecorder = null;
+    }
+
+    /**
+     * Passes changes to the score, level and next piece from the game engine on to the
+     * status panel, and updates the timer to match the delay for the current level.
+     */
+    private void updateStatus() {
+        if(gameEngine.getPiecesLocked() == lastPiecesLocked) return;
+
+        lastPiecesLocked = gameEngine.getPiecesLocked();
+        game.setNextPiece(gameEngine.getNextPiece().getPieceType());
+        game.setScore(gameEngine.getScore());
+        game.setLevel(gameEngine.getLevel());
+        gameTimer.setDelay(gameEngine.getTickDelay());
+    }
+
+    /**
+     * Applies the key events queued by the Game and moves the piece for held keys
+     * based on the time passed since they were last applied. The inputs are discarded
+     * while the game is paused, over, or showing a replay.
+     */
+    private void applyInputs() {
+        long now = System.nanoTime();
+        int elapsedMillis = (int)((now - lastInputTime) / 1_000_000L);
+        lastInputTime += elapsedMillis * 1_000_000L;
+
+        if(!gameTimer.isRunning() || gameEngine.isGameOver() || replayPlayer != null) {
+            inputController.clear();
+            return;
+        }
+        if(inputController.update(gameEngine, elapsedMillis)) {
+            if(gameEngine.isGameOver())
+                stopRecording();
+            updateStatus();
+            repaintChanges();
+        }
     }
 
     /**
      * Checks for input from the user to apply game changes.
-     * The tetris piece controls are only checked if the game is not paused and it is not a game over.
-     * Piece can be moved with left/right/down arrow keys. Defaults back to down after each move.
+     * The keys controlling the piece are queued by the Game before this is called,
+     * and are applied straight away so they never wait for the next timer update.
+     * Piece can be moved with left/right/down arrow keys, and keeps moving while they are held.
      * Space will instantly move the piece down to a final position.
      * Z and X will rotate the piece left or right.
      *
      * At any time the game can be paused/unpaused by pressing P to toggle.
      * At any time the game can be restarted by pressing R.
+     * At any time the game can be saved by pressing F5 and loaded again by pressing F9.
      * At any time the game can be quit by pressing Escape.
      *
      * @param e Information about the key that was pressed.
      */
     public void handleKeyEvent(KeyEvent e) {
-        if(gameTimer.isRunning() && !gameOver) {
-            if (e.getKeyCode() == KeyEvent.VK_LEFT)
-                nextMove = Position.LEFT;
-            else if (e.getKeyCode() == KeyEvent.VK_RIGHT)
-                nextMove = Position.RIGHT;
-            else if (e.getKeyCode() == KeyEvent.VK_DOWN)
-                nextMove = Position.DOWN;
-            else if (e.getKeyCode() == KeyEvent.VK_SPACE)
-                hardDropCurrent();
-            else if (e.getKeyCode() == KeyEvent.VK_Z)
-                currentPiece.rotateCounterClockwise(tetrisBoard);
-            else if (e.getKeyCode() == KeyEvent.VK_X)
-                currentPiece.rotateClockwise(tetrisBoard);
-        }
-        if(e.getKeyCode() == KeyEvent.VK_P)
+        if(InputController.getInputForKey(e.getKeyCode()) != GameEngine.INPUT_NONE)
+            applyInputs();
+        else if(e.getKeyCode() == KeyEvent.VK_P)
             togglePause();
         else if(e.getKeyCode() == KeyEvent.VK_R)
             restart();
-        else if(e.getKeyCode() == KeyEvent.VK_ESCAPE)
+        else if(e.getKeyCode() == KeyEvent.VK_F5)
+            quickSave();
+        else if(e.getKeyCode() == KeyEvent.VK_F9)
+            quickLoad();
+        else if(e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+            stopRecording();
             System.exit(0);
+        }
     }
 }
@@ -1,7 +1,4 @@
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
 
 /**
  * Tetris
@@ -14,36 +11,36 @@ public class TetrisPiece {
     /**
      * The line piece.
      */
-    private final int[][] PIECE_1 = { {1,1,1,1} }; // line
+    private static final int[][] PIECE_1 = { {1,1,1,1} }; // line
     /**
      * The arrow pointing left.
      */
-    private final int[][] PIECE_2 = { {2,0},{2,2},{0,2} }; // point one
+    private static final int[][] PIECE_2 = { {2,0},{2,2},{0,2} }; // point one
     /**
      * The arrow pointing right.
      */
-    private final int[][] PIECE_3 = { {0,3},{3,3}, {3,0} }; // point two
+    private static final int[][] PIECE_3 = { {0,3},{3,3}, {3,0} }; // point two
     /**
      * The T shaped piece.
      */
-    private final int[][] PIECE_4 = { {4,0},{4,4}, {4,0} }; // T
+    private static final int[][] PIECE_4 = { {4,0},{4,4}, {4,0} }; // T
     /**
      * The square shaped piece.
      */
-    private final int[][] PIECE_5 = { {5,5}, {5,5} }; // square
+    private static final int[][] PIECE_5 = { {5,5}, {5,5} }; // square
     /**
      * The L shaped piece.
      */
-    private final int[][] PIECE_6 = { {6,6,6}, {0,0,6} }; // L
+    private static final int[][] PIECE_6 = { {6,6,6}, {0,0,6} }; // L
     /**
      * The backwards L shaped piece.
      */
-    private final int[][] PIECE_7 = { {0,0,7}, {7,7,7} }; // backwards L
+    private static final int[][] PIECE_7 = { {0,0,7}, {7,7,7} }; // backwards L
 
     /**
      * Rotation centre for pieces based on piece number.
      */
-    private final Position[] pieceCentres = { new Position(0,1), new Position(1,1), new Position(1,1),
+    private static final Position[] pieceCentres = { new Position(0,1), new Position(1,1), new Position(1,1),
                                               new Position(1,0), new Position(0,0), new Position(0,1),
                                                 new Position(1,1)};
     /**
@@ -52,17 +49,81 @@ public class TetrisPiece {
      */
     public static final Color[] pieceColours = { Color.BLACK, Color.CYAN, Color.RED, Color.GREEN,
                                             new Color(128, 0, 255), Color.YELLOW,
-                                            Color.ORANGE, Color.BLUE, Color.WHITE };
+                                            Color.ORANGE, Color.BLUE, Color.WHITE, Color.GRAY };
 
     /**
-     * List of all the pieces defined in PIECE_X where X is the piece number.
+     * Number of different piece types.
      */
-    private static List<int[][]> listOfPieceData;
+    public static final int PIECE_TYPE_COUNT = 7;
+    /**
+     * Number of orientations each piece can be rotated through.
+     */
+    public static final int ROTATION_COUNT = 4;
+
+    /**
+     * Piece data for every orientation of every piece indexed by [pieceType][rotation].
+     * Orientation 0 is the PIECE_X definition and each following orientation is a
+     * clockwise rotation of the previous one. The arrays are shared by all pieces
+     * and must not be modified.
+     */
+    private static final int[][][][] rotationData;
+    /**
+     * Occupancy of every orientation as one bitmask per piece row, where bit x is
+     * set when column x of that row is filled. Indexed by [pieceType][rotation].
+     */
+    private static final int[][][] rotationRowMasks;
+    /**
+     * Width of every orientation indexed by [pieceType][rotation].
+     */
+    private static final int[][] rotationWidths;
+    /**
+     * Height of every orientation indexed by [pieceType][rotation].
+     */
+    private static final int[][] rotationHeights;
+    /**
+     * Rotation centre of every orientation indexed by [pieceType][rotation]. Rotations
+     * keep the top left of the piece in place, so every orientation shares the centre
+     * from pieceCentres.
+     */
+    private static final Position[][] rotationCentres;
+
+    static {
+        int[][][] baseData = { PIECE_1, PIECE_2, PIECE_3, PIECE_4, PIECE_5, PIECE_6, PIECE_7 };
+        rotationData = new int[PIECE_TYPE_COUNT][ROTATION_COUNT][][];
+        rotationRowMasks = new int[PIECE_TYPE_COUNT][ROTATION_COUNT][];
+        rotationWidths = new int[PIECE_TYPE_COUNT][ROTATION_COUNT];
+        rotationHeights = new int[PIECE_TYPE_COUNT][ROTATION_COUNT];
+        rotationCentres = new Position[PIECE_TYPE_COUNT][ROTATION_COUNT];
+        for(int pieceType = 0; pieceType < PIECE_TYPE_COUNT; pieceType++) {
+            int[][] data = baseData[pieceType];
+            for(int rotation = 0; rotation < ROTATION_COUNT; rotation++) {
+                int width = data.length;
+                int height = data[0].length;
+                int[] rowMasks = new int[height];
+                for(int x = 0; x < width; x++) {
+                    for(int y = 0; y < height; y++) {
+                        if(data[x][y] != 0)
+                            rowMasks[y] |= 1 << x;
+                    }
+                }
+                rotationData[pieceType][rotation] = data;
+                rotationRowMasks[pieceType][rotation] = rowMasks;
+                rotationWidths[pieceType][rotation] = width;
+                rotationHeights[pieceType][rotation] = height;
+                rotationCentres[pieceType][rotation] = pieceCentres[pieceType];
+                data = createClockwiseRotation(data);
+            }
+        }
+    }
 
     /**
-     * The piece number. Is not actually used outside of storing the random number.
+     * The piece number used to index the rotation tables.
      */
     private int pieceType;
+    /**
+     * The current orientation used to index the rotation tables.
+     */
+    private int rotation;
     /**
      * Position where the piece should appear on the grid currently.
      */
@@ -72,17 +133,21 @@ public class TetrisPiece {
      */
     private Position pieceCentre;
     /**
-     * Data taken from list of pieces data to represent the appropriate piece type.
+     * Data taken from the rotation tables to represent the appropriate piece type and orientation.
      */
     private int[][] pieceData;
+    /**
+     * Row masks taken from the rotation tables for the current piece type and orientation.
+     */
+    private int[] rowMasks;
     /**
      * The position where the piece should start at above the game board.
      */
     private Position startPosition;
     /**
-     * Reference to the Random object.
+     * Reference to the generator that selects each piece type.
      */
-    private Random rand;
+    private PieceGenerator pieceGenerator;
     /**
      * Width of the piece based on how wide the data is.
      */
@@ -98,37 +163,61 @@ public class TetrisPiece {
      * @param startPosition The position to start the piece at.
      */
     public TetrisPiece(Position startPosition) {
+        this(startPosition, new UniformPieceGenerator(System.nanoTime()));
+    }
+
+    /**
+     * Creates a new tetris piece with the type taken from the provided generator.
+     * Sharing a seeded generator between pieces makes the sequence of pieces repeatable.
+     *
+     * @param startPosition The position to start the piece at.
+     * @param pieceGenerator The generator used to select each piece type.
+     */
+    public TetrisPiece(Position startPosition, PieceGenerator pieceGenerator) {
         this.startPosition = new Position(startPosition);
-        fillPieceData();
-        rand = new Random();
-        setupRandomPiece();
+        position = new Position(startPosition);
+        this.pieceGenerator = pieceGenerator;
+        setupPiece(pieceGenerator.next());
     }
 
     /**
      * Draws the piece to the board.
      *
      * @param g Reference to the Graphics object for drawing.
+     * @param cellDim Dimension of each cell of the board in pixels.
+     */
+    public void paint(Graphics g, int cellDim) {
+        paint(g, cellDim, 0);
+    }
+
+    /**
+     * Draws the piece moved down by a number of pixels from its cell position.
+     * Used to show the piece part way through falling between two cells.
+     *
+     * @param g Reference to the Graphics object for drawing.
+     * @param cellDim Dimension of each cell of the board in pixels.
+     * @param offsetY Number of pixels to draw the piece below its position.
      */
-    public void paint(Graphics g) {
-        int startX = (position.x - pieceCentre.x) * TetrisBoard.CELL_DIM;
-        int startY = (position.y - pieceCentre.y) * TetrisBoard.CELL_DIM;
+    public void paint(Graphics g, int cellDim, int offsetY) {
+        int startX = getLeft() * cellDim;
+        int startY = getTop() * cellDim + offsetY;
 
-        drawPieceUsingOffset(g, startX, startY);
+        drawPieceUsingOffset(g, startX, startY, cellDim);
     }
 
     /**
      * Calculates the offset based on centring the piece and then draws it.
-     * Used for the status panel to show the next piece.
+     * Used for the status panel to show the next piece at the default cell size.
      *
      * @param g Reference to the Graphics object for drawing.
      * @param centreX Centre X position.
      * @param centreY Centre Y position.
      */
     public void paintAtCentre(Graphics g, int centreX, int centreY) {
-        int startX = centreX - (pieceWidth*TetrisBoard.CELL_DIM / 2);
-        int startY = centreY - (pieceHeight*TetrisBoard.CELL_DIM / 2);
+        int startX = centreX - (pieceWidth*TetrisBoard.DEFAULT_CELL_DIM / 2);
+        int startY = centreY - (pieceHeight*TetrisBoard.DEFAULT_CELL_DIM / 2);
 
-        drawPieceUsingOffset(g, startX, startY);
+        drawPieceUsingOffset(g, startX, startY, TetrisBoard.DEFAULT_CELL_DIM);
     }
 
     /**
@@ -140,6 +229,17 @@ public class TetrisPiece {
         position.move(movementVector);
     }
 
+    /**
+     * Moves the piece by the specified number of cells.
+     *
+     * @param dx Number of cells to move horizontally.
+     * @param dy Number of cells to move vertically.
+     */
+    public void move(int dx, int dy) {
+        position.x += dx;
+        position.y += dy;
+    }
+
     /**
      * Attempts to rotate the piece to the right and then validates that the
      * rotation places it in a legal position. The update to rotation is only
@@ -148,31 +248,7 @@ public class TetrisPiece {
      * @param tetrisBoard Reference to the tetris board to validate the rotation.
      */
     public void rotateClockwise(TetrisBoard tetrisBoard) {
-        // Do not rotate if outside the bounds.
-        if(getTopLeft().y < 0) return;
-
-        int[][] result = new int[pieceHeight][pieceWidth];
-        // transpose
-        for(int x = 0; x < pieceWidth; x++) {
-            for(int y = 0; y < pieceHeight; y++) {
-                result[y][x] = pieceData[x][y];
-            }
-        }
-
-        // reverse each row
-        for(int x = 0; x < pieceHeight / 2; x++) {
-            for (int y = 0; y < pieceWidth; y++) {
-                swap(result, x, y, pieceHeight - x-1, y);
-            }
-        }
-
-        if(!tetrisBoard.isValidOnBoard(getTopLeft(), result.length, result[0].length, result))
-            return;
-
-        // Rotation is valid, save it and update dimensions
-        pieceData = result;
-        pieceWidth = pieceData.length;
-        pieceHeight = pieceData[0].length;
+        rotateTo((rotation + 1) % ROTATION_COUNT, tetrisBoard);
     }
 
     /**
@@ -183,38 +259,39 @@ public class TetrisPiece {
      * @param tetrisBoard Reference to the tetris board to validate the rotation.
      */
     public void rotateCounterClockwise(TetrisBoard tetrisBoard) {
-        // Do not rotate if outside the bounds.
-        if(getTopLeft().y < 0) return;
-
-        int[][] result = new int[pieceHeight][pieceWidth];
-        // transpose
-        for(int x = 0; x < pieceWidth; x++) {
-            for(int y = 0; y < pieceHeight; y++) {
-                result[y][x] = pieceData[x][y];
-            }
-        }
-
-        // reverse each column
-        for(int x = 0; x < pieceHeight; x++) {
-            for (int y = 0; y < pieceWidth / 2; y++) {
-                swap(result, x, y, x, pieceWidth - y - 1);
-            }
-        }
-
-        if(!tetrisBoard.isValidOnBoard(getTopLeft(), result.length, result[0].length, result))
-            return;
-
-        // Rotation is valid, save it and update dimensions
-        pieceData = result;
-        pieceWidth = pieceData.length;
-        pieceHeight = pieceData[0].length;
+        rotateTo((rotation + ROTATION_COUNT - 1) % ROTATION_COUNT, tetrisBoard);
     }
 
     /**
-     * Resets to a new random piece.
+     * Resets to the next piece from the piece generator.
      */
     public void reset() {
-        setupRandomPiece();
+        setupPiece(pieceGenerator.next());
+    }
+
+    /**
+     * Resets to a specific piece type without using the piece generator.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     */
+    public void reset(int pieceType) {
+        setupPiece(pieceType);
+    }
+
+    /**
+     * Sets the type, orientation and position of the piece without checking them against
+     * a board, for restoring a saved game.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @param left The left grid column of the piece.
+     * @param top The top grid row of the piece, which can be above the board.
+     */
+    public void setState(int pieceType, int rotation, int left, int top) {
+        this.pieceType = pieceType;
+        setRotation(rotation);
+        position.x = left + pieceCentre.x;
+        position.y = top + pieceCentre.y;
     }
 
     /**
@@ -223,13 +300,27 @@ public class TetrisPiece {
      * @return Returns the top left grid cell that would be related to this piece.
      */
     public Position getTopLeft() {
-        return new Position(position.x-pieceCentre.x, position.y-pieceCentre.y);
+        return new Position(getLeft(), getTop());
     }
 
+    /**
+     * Gets the left grid column of the piece without creating a Position.
+     *
+     * @return The column of the top left cell related to this piece.
+     */
+    public int getLeft() { return position.x-pieceCentre.x; }
+
+    /**
+     * Gets the top grid row of the piece without creating a Position.
+     *
+     * @return The row of the top left cell related to this piece.
+     */
+    public int getTop() { return position.y-pieceCentre.y; }
+
     /**
      * Gets the raw data about the piece.
      *
-     * @return The data related to this piece.
+     * @return The data related to this piece. Shared with the rotation tables and must not be modified.
      */
     public int[][] getPieceData() {
         return pieceData;
@@ -250,30 +341,128 @@ public class TetrisPiece {
     public int getPieceHeight() { return pieceHeight; }
 
     /**
-     * Selects a random piece and then sets the variables
+     * Gets the occupancy of the piece as one bitmask per row.
+     *
+     * @return The row masks related to this piece. Must not be modified.
+     */
+    public int[] getRowMasks() { return rowMasks; }
+
+    /**
+     * Gets the piece type used to index the rotation tables.
+     *
+     * @return The piece type from 0 to PIECE_TYPE_COUNT-1.
+     */
+    public int getPieceType() { return pieceType; }
+
+    /**
+     * Gets the current orientation of the piece.
+     *
+     * @return The rotation from 0 to ROTATION_COUNT-1.
+     */
+    public int getRotation() { return rotation; }
+
+    /**
+     * Gets the occupancy of an orientation from the rotation tables as one bitmask per row.
+     * Used to test placements without creating or moving a piece.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @return The row masks of the orientation. Must not be modified.
+     */
+    public static int[] getRotationRowMasks(int pieceType, int rotation) { return rotationRowMasks[pieceType][rotation]; }
+
+    /**
+     * Gets the width of an orientation from the rotation tables.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @return The width of the orientation.
+     */
+    public static int getRotationWidth(int pieceType, int rotation) { return rotationWidths[pieceType][rotation]; }
+
+    /**
+     * Gets the height of an orientation from the rotation tables.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
+     * @param rotation The orientation from 0 to ROTATION_COUNT-1.
+     * @return The height of the orientation.
+     */
+    public static int getRotationHeight(int pieceType, int rotation) { return rotationHeights[pieceType][rotation]; }
+
+    /**
+     * Changes to the specified piece type at the start position and then sets the variables
      * to reflect that piece including the piece data, width, height, and centre.
+     *
+     * @param pieceType The piece type from 0 to PIECE_TYPE_COUNT-1.
      */
-    private void setupRandomPiece() {
-        int pieceType = rand.nextInt(listOfPieceData.size());
-        pieceData = listOfPieceData.get(pieceType);
-        position = new Position(startPosition);
-        pieceCentre = pieceCentres[pieceType];
-        pieceWidth = pieceData.length;
-        pieceHeight = pieceData[0].length;
+    private void setupPiece(int pieceType) {
+        this.pieceType = pieceType;
+        position.x = startPosition.x;
+        position.y = startPosition.y;
+        setRotation(0);
     }
 
     /**
-     * Prepares the array of piece data based on the constant definitions of all the pieces.
+     * Validates the orientation at the current position and applies it if it is legal.
+     * Rotation is not allowed while the piece is still above the board.
+     *
+     * @param newRotation The orientation to rotate to.
+     * @param tetrisBoard Reference to the tetris board to validate the rotation.
      */
-    private void fillPieceData() {
-        listOfPieceData = new ArrayList<>();
-        listOfPieceData.add(PIECE_1);
-        listOfPieceData.add(PIECE_2);
-        listOfPieceData.add(PIECE_3);
-        listOfPieceData.add(PIECE_4);
-        listOfPieceData.add(PIECE_5);
-        listOfPieceData.add(PIECE_6);
-        listOfPieceData.add(PIECE_7);
+    private void rotateTo(int newRotation, TetrisBoard tetrisBoard) {
+        // Do not rotate if outside the bounds.
+        if(getTop() < 0) return;
+
+        Position newCentre = rotationCentres[pieceType][newRotation];
+        if(!tetrisBoard.isValidOnBoard(position.x - newCentre.x, position.y - newCentre.y,
+                rotationWidths[pieceType][newRotation], rotationHeights[pieceType][newRotation],
+                rotationRowMasks[pieceType][newRotation]))
+            return;
+
+        // Rotation is valid, save it and update dimensions
+        setRotation(newRotation);
+    }
+
+    /**
+     * Changes the orientation by looking up the data, row masks, dimensions and centre
+     * in the rotation tables.
+     *
+     * @param newRotation The orientation to change to.
+     */
+    private void setRotation(int newRotation) {
+        rotation = newRotation;
+        pieceData = rotationData[pieceType][rotation];
+        rowMasks = rotationRowMasks[pieceType][rotation];
+        pieceWidth = rotationWidths[pieceType][rotation];
+        pieceHeight = rotationHeights[pieceType][rotation];
+        pieceCentre = rotationCentres[pieceType][rotation];
+    }
+
+    /**
+     * Creates a copy of the data rotated clockwise by transposing the data and
+     * then reversing each row. Only used to build the rotation tables.
+     *
+     * @param data The piece data to rotate.
+     * @return A new array with the rotated data.
+     */
+    private static int[][] createClockwiseRotation(int[][] data) {
+        int width = data.length;
+        int height = data[0].length;
+        int[][] result = new int[height][width];
+        // transpose
+        for(int x = 0; x < width; x++) {
+            for(int y = 0; y < height; y++) {
+                result[y][x] = data[x][y];
+            }
+        }
+
+        // reverse each row
+        for(int x = 0; x < height / 2; x++) {
+            for (int y = 0; y < width; y++) {
+                swap(result, x, y, height - x-1, y);
+            }
+        }
+        return result;
     }
 
     /**
@@ -284,14 +473,14 @@ public class TetrisPiece {
      * @param g Reference to the graphics object for drawing.
      * @param startX Top left corner in pixels to start drawing at.
      * @param startY Top left corner in pixels to start drawing at.
+     * @param cellDim Dimension of each cell in pixels.
      */
-    private void drawPieceUsingOffset(Graphics g, int startX, int startY) {
+    private void drawPieceUsingOffset(Graphics g, int startX, int startY, int cellDim) {
         for(int x = 0; x < pieceWidth; x++) {
             for(int y = 0; y < pieceHeight; y++) {
                 if(pieceData[x][y] != 0) {
                     g.setColor(pieceColours[pieceData[x][y]]);
-                    g.fillRect(startX + x * TetrisBoard.CELL_DIM + 3, startY + y * TetrisBoard.CELL_DIM + 3,
-                            TetrisBoard.CELL_DIM - 6, TetrisBoard.CELL_DIM - 6);
+                    g.fillRect(startX + x * cellDim + 3, startY + y * cellDim + 3, cellDim - 6, cellDim - 6);
                 }
             }
         }
@@ -307,7 +496,7 @@ public class TetrisPiece {
      * @param x2 X coordinate of the second element.
      * @param y2 Y coordinate of the second element.
      */
-    private void swap(int[][] data, int x1, int y1, int x2, int y2) {
+    private static void swap(int[][] data, int x1, int y1, int x2, int y2) {
         int temp = data[x1][y1];
         data[x1][y1] = data[x2][y2];
         data[x2][y2] = temp;
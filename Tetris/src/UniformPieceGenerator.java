@@ -0,0 +1,42 @@
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * UniformPieceGenerator class:
+ * Selects every piece type with equal chance independently of the previous pieces.
+ * This matches how pieces were originally chosen.
+ */
+public class UniformPieceGenerator extends PieceGenerator {
+    /**
+     * Creates the generator with the specified seed.
+     *
+     * @param seed The seed for the generator.
+     */
+    public UniformPieceGenerator(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Selects any of the piece types with equal chance.
+     *
+     * @return The piece type.
+     */
+    @Override
+    protected int generate() {
+        return nextRandom(TetrisPiece.PIECE_TYPE_COUNT);
+    }
+
+    /**
+     * There is no extra state to reset.
+     */
+    @Override
+    protected void resetState() {}
+
+    /**
+     * Gets the name of the generator as used by PieceGenerator.create().
+     *
+     * @return The name "uniform".
+     */
+    @Override
+    public String getName() { return "uniform"; }
+}
@@ -0,0 +1,405 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tetris
+ * Author: Peter Mitchell (2021)
+ *
+ * WeightTrainer class:
+ * Tunes the TetrisBot heuristic weights with a genetic algorithm. Each generation every
+ * candidate weight vector plays the same seeded headless games, scored by the GameEngine
+ * rules (matches * matches per locked piece), with every game a separate task on a fork/join
+ * pool so all cores are kept busy. Games are played in rounds, and candidates far behind the
+ * best after a round are cut off without playing the rest of their games. The weakest
+ * candidates are then replaced by children of tournament winners. The population is saved
+ * to a checkpoint file after every generation and training resumes from it when restarted.
+ */
+public class WeightTrainer {
+    /**
+     * Trains weights from the command line.
+     * Usage: WeightTrainer [generations] [populationSize] [gamesPerCandidate] [maxPieces] [checkpoint] [threads]
+     *
+     * @param args Number of generations, candidates, games per candidate, piece limit per game,
+     *             checkpoint file and thread count.
+     * @throws IOException If the checkpoint file could not be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        int generations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int populationSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int gamesPerCandidate = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int maxPieces = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        Path checkpoint = Paths.get(args.length > 4 ? args[4] : "weights.txt");
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+        WeightTrainer weightTrainer = new WeightTrainer(threads, populationSize, gamesPerCandidate, maxPieces, checkpoint);
+        if(Files.exists(checkpoint))
+            weightTrainer.loadCheckpoint();
+        weightTrainer.train(generations);
+    }
+
+    /**
+     * Number of weights in each candidate: aggregate height, lines, holes and bumpiness.
+     */
+    public static final int WEIGHT_COUNT = 4;
+    /**
+     * Number of games each remaining candidate plays before the cut off is applied again.
+     */
+    private static final int GAMES_PER_ROUND = 5;
+    /**
+     * Candidates with a mean score below this fraction of the best mean after a round are cut off.
+     */
+    private static final double CUTOFF_FRACTION = 0.5;
+    /**
+     * Fraction of the population randomly picked for each tournament.
+     */
+    private static final double TOURNAMENT_FRACTION = 0.1;
+    /**
+     * Fraction of the population replaced by children each generation.
+     */
+    private static final double OFFSPRING_FRACTION = 0.3;
+    /**
+     * Chance of a child having one of its weights changed.
+     */
+    private static final double MUTATION_CHANCE = 0.05;
+    /**
+     * Largest change made to a weight by a mutation.
+     */
+    private static final double MUTATION_SIZE = 0.2;
+    /**
+     * Seed of the games played in the first generation. Later generations use the following seeds.
+     */
+    private static final long FIRST_GAME_SEED = 1_000_000L;
+
+    /**
+     * Pool of worker threads the games are scheduled on.
+     */
+    private final ForkJoinPool pool;
+    /**
+     * Number of games each candidate plays if it is not cut off.
+     */
+    private final int gamesPerCandidate;
+    /**
+     * Maximum number of pieces to lock in before a game is stopped.
+     */
+    private final int maxPieces;
+    /**
+     * File the population is saved to after each generation.
+     */
+    private final Path checkpoint;
+    /**
+     * Weight vector of each candidate, normalised to unit length.
+     */
+    private double[][] population;
+    /**
+     * Mean score of each candidate over the games it played in the latest generation.
+     */
+    private double[] fitness;
+    /**
+     * Score of every game in the current generation indexed by candidate * gamesPerCandidate + game.
+     */
+    private int[] gameScores;
+    /**
+     * Number of games each candidate has played in the current generation.
+     */
+    private int[] gamesPlayed;
+    /**
+     * Number of generations trained so far, including those loaded from a checkpoint.
+     */
+    private int generation;
+
+    /**
+     * Creates a trainer with a random population and its own pool of worker threads.
+     *
+     * @param threads Number of worker threads to play games on.
+     * @param populationSize Number of candidate weight vectors.
+     * @param gamesPerCandidate Number of games each candidate plays each generation.
+     * @param maxPieces Maximum number of pieces to lock in before a game is stopped.
+     * @param checkpoint File the population is saved to after each generation.
+     */
+    public WeightTrainer(int threads, int populationSize, int gamesPerCandidate, int maxPieces, Path checkpoint) {
+        pool = new ForkJoinPool(threads);
+        this.gamesPerCandidate = gamesPerCandidate;
+        this.maxPieces = maxPieces;
+        this.checkpoint = checkpoint;
+        Random random = new Random(FIRST_GAME_SEED);
+        population = new double[populationSize][];
+        for(int i = 0; i < populationSize; i++) {
+            double[] weights = new double[WEIGHT_COUNT];
+            for(int w = 0; w < WEIGHT_COUNT; w++)
+                weights[w] = random.nextDouble() * 2 - 1;
+            population[i] = normalise(weights);
+        }
+        fitness = new double[populationSize];
+        gameScores = new int[populationSize * gamesPerCandidate];
+        gamesPlayed = new int[populationSize];
+        generation = 0;
+    }
+
+    /**
+     * Runs a number of generations, printing the best candidate and saving a checkpoint after each.
+     *
+     * @param generations Number of generations to run.
+     * @throws IOException If the checkpoint could not be saved.
+     */
+    public void train(int generations) throws IOException {
+        for(int i = 0; i < generations; i++) {
+            long startTime = System.nanoTime();
+            int gamesRun = evaluatePopulation();
+            int best = 0;
+            double totalFitness = 0;
+            for(int c = 0; c < population.length; c++) {
+                totalFitness += fitness[c];
+                if(fitness[c] > fitness[best])
+                    best = c;
+            }
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            System.out.printf("Generation %d: best %.2f mean %.2f weights %s (%d games in %.2fs on %d threads)%n",
+                    generation, fitness[best], totalFitness / population.length, Arrays.toString(population[best]),
+                    gamesRun, seconds, pool.getParallelism());
+
+            breed();
+            generation++;
+            saveCheckpoint();
+        }
+    }
+
+    /**
+     * Plays the games of the current generation in rounds. After each round, candidates whose
+     * mean score is below CUTOFF_FRACTION of the best mean stop playing, and their mean so far
+     * is their fitness.
+     *
+     * @return The number of games played.
+     */
+    private int evaluatePopulation() {
+        Arrays.fill(gamesPlayed, 0);
+        boolean[] active = new boolean[population.length];
+        Arrays.fill(active, true);
+        int[] tasks = new int[population.length * gamesPerCandidate];
+        int gamesRun = 0;
+        for(int roundStart = 0; roundStart < gamesPerCandidate; roundStart += GAMES_PER_ROUND) {
+            int roundGames = Math.min(GAMES_PER_ROUND, gamesPerCandidate - roundStart);
+            int taskCount = 0;
+            for(int c = 0; c < population.length; c++) {
+                if(!active[c]) continue;
+                for(int g = roundStart; g < roundStart + roundGames; g++)
+                    tasks[taskCount++] = c * gamesPerCandidate + g;
+                gamesPlayed[c] += roundGames;
+            }
+            pool.invoke(new GameRangeTask(tasks, 0, taskCount));
+            gamesRun += taskCount;
+
+            double bestMean = 0;
+            for(int c = 0; c < population.length; c++) {
+                long total = 0;
+                for(int g = 0; g < gamesPlayed[c]; g++)
+                    total += gameScores[c * gamesPerCandidate + g];
+                fitness[c] = (double)total / gamesPlayed[c];
+                if(active[c])
+                    bestMean = Math.max(bestMean, fitness[c]);
+            }
+            for(int c = 0; c < population.length; c++) {
+                if(fitness[c] < bestMean * CUTOFF_FRACTION)
+                    active[c] = false;
+            }
+        }
+        return gamesRun;
+    }
+
+    /**
+     * Plays a single game for a candidate and stores its score. Every candidate plays
+     * the same seeds in a generation so they are compared on the same pieces.
+     *
+     * @param task Index of the game as candidate * gamesPerCandidate + game.
+     */
+    private void playGame(int task) {
+        double[] weights = population[task / gamesPerCandidate];
+        long seed = FIRST_GAME_SEED + (long)generation * gamesPerCandidate + task % gamesPerCandidate;
+        GameEngine gameEngine = new GameEngine(PieceGenerator.create("uniform", seed));
+        new TetrisBot(weights[0], weights[1], weights[2], weights[3]).play(gameEngine, maxPieces);
+        gameScores[task] = gameEngine.getScore();
+    }
+
+    /**
+     * Replaces the weakest OFFSPRING_FRACTION of the population with children. Each child is
+     * the fitness weighted average of the two best candidates from a random tournament, with
+     * a small chance of one weight being changed. The random choices depend only on the
+     * generation, so a run resumed from a checkpoint breeds the same children as one that was not stopped.
+     */
+    private void breed() {
+        // The initial population uses FIRST_GAME_SEED itself
+        Random random = new Random(FIRST_GAME_SEED + 1 + generation);
+        Integer[] order = new Integer[population.length];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(fitness[a], fitness[b]));
+
+        int offspringCount = (int)(population.length * OFFSPRING_FRACTION);
+        int tournamentSize = Math.max(2, (int)(population.length * TOURNAMENT_FRACTION));
+        double[][] children = new double[offspringCount][];
+        for(int i = 0; i < offspringCount; i++) {
+            int first = -1, second = -1;
+            for(int t = 0; t < tournamentSize; t++) {
+                int candidate = random.nextInt(population.length);
+                if(first < 0 || fitness[candidate] > fitness[first]) {
+                    second = first;
+                    first = candidate;
+                } else if(second < 0 || fitness[candidate] > fitness[second]) {
+                    second = candidate;
+                }
+            }
+            if(second < 0) second = first;
+
+            double[] child = new double[WEIGHT_COUNT];
+            double firstShare = fitness[first] + fitness[second] > 0
+                    ? fitness[first] / (fitness[first] + fitness[second]) : 0.5;
+            for(int w = 0; w < WEIGHT_COUNT; w++)
+                child[w] = population[first][w] * firstShare + population[second][w] * (1 - firstShare);
+            if(random.nextDouble() < MUTATION_CHANCE)
+                child[random.nextInt(WEIGHT_COUNT)] += (random.nextDouble() * 2 - 1) * MUTATION_SIZE;
+            children[i] = normalise(child);
+        }
+        // Children are only put in once every parent has been picked, and have
+        // no fitness until they are played in the next generation
+        for(int i = 0; i < offspringCount; i++) {
+            population[order[i]] = children[i];
+            fitness[order[i]] = 0;
+        }
+    }
+
+    /**
+     * Saves the generation number and every candidate with its latest fitness. The file is
+     * written beside the checkpoint first and then moved over it, so a crash while saving
+     * never leaves a partly written checkpoint.
+     *
+     * @throws IOException If the checkpoint could not be written.
+     */
+    private void saveCheckpoint() throws IOException {
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try(BufferedWriter writer = Files.newBufferedWriter(temporary)) {
+            writer.write("generation " + generation + "\n");
+            writer.write("# height lines holes bumpiness fitness\n");
+            for(int c = 0; c < population.length; c++) {
+                for(int w = 0; w < WEIGHT_COUNT; w++)
+                    writer.write(population[c][w] + " ");
+                writer.write(fitness[c] + "\n");
+            }
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the population with the one saved in the checkpoint file, and continues
+     * from the generation after it.
+     *
+     * @throws IOException If the checkpoint could not be read or is not a checkpoint.
+     */
+    public void loadCheckpoint() throws IOException {
+        try(BufferedReader reader = Files.newBufferedReader(checkpoint)) {
+            String line = reader.readLine();
+            if(line == null || !line.startsWith("generation "))
+                throw new IOException("Not a weight checkpoint: " + checkpoint);
+            int loadedGeneration = Integer.parseInt(line.substring("generation ".length()).trim());
+
+            double[][] loadedPopulation = new double[population.length][];
+            double[] loadedFitness = new double[population.length];
+            int count = 0;
+            while((line = reader.readLine()) != null && count < population.length) {
+                if(line.startsWith("#") || line.isBlank()) continue;
+                String[] values = line.trim().split("\\s+");
+                if(values.length != WEIGHT_COUNT + 1)
+                    throw new IOException("Bad candidate in " + checkpoint + ": " + line);
+                double[] weights = new double[WEIGHT_COUNT];
+                for(int w = 0; w < WEIGHT_COUNT; w++)
+                    weights[w] = Double.parseDouble(values[w]);
+                loadedPopulation[count] = weights;
+                loadedFitness[count] = Double.parseDouble(values[WEIGHT_COUNT]);
+                count++;
+            }
+            // A smaller saved population keeps the random candidates for the remaining places
+            for(int c = 0; c < count; c++) {
+                population[c] = loadedPopulation[c];
+                fitness[c] = loadedFitness[c];
+            }
+            generation = loadedGeneration;
+            System.out.println("Loaded " + count + " candidates at generation " + generation + " from " + checkpoint);
+        }
+    }
+
+    /**
+     * Scales a weight vector to unit length, as only the direction of the weights changes
+     * which placement is best.
+     *
+     * @param weights The weights to scale in place.
+     * @return The same array.
+     */
+    private static double[] normalise(double[] weights) {
+        double length = 0;
+        for(double weight : weights)
+            length += weight * weight;
+        length = Math.sqrt(length);
+        if(length > 0) {
+            for(int w = 0; w < weights.length; w++)
+                weights[w] /= length;
+        }
+        return weights;
+    }
+
+    /**
+     * Fork/join task that plays a range of games from the task list by
+     * splitting the range in half until a single game is left.
+     */
+    private class GameRangeTask extends RecursiveAction {
+        /**
+         * Version of the serialized form, which is never used.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Game indexes as candidate * gamesPerCandidate + game.
+         */
+        private final int[] tasks;
+        /**
+         * First position in the task list to play.
+         */
+        private final int start;
+        /**
+         * Position after the last game to play.
+         */
+        private final int end;
+
+        /**
+         * Creates a task for the games from start up to but not including end.
+         *
+         * @param tasks Game indexes to play.
+         * @param start First position in the task list to play.
+         * @param end Position after the last game to play.
+         */
+        GameRangeTask(int[] tasks, int start, int end) {
+            this.tasks = tasks;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Plays the game directly, or splits the games between two subtasks.
+         */
+        @Override
+        protected void compute() {
+            if(end - start == 1) {
+                playGame(tasks[start]);
+                return;
+            }
+            if(end <= start) return;
+            int middle = (start + end) >>> 1;
+            invokeAll(new GameRangeTask(tasks, start, middle), new GameRangeTask(tasks, middle, end));
+        }
+    }
+}